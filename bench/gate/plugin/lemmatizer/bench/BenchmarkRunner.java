@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Runs benchmarks and collects their results, similar to what JMH does but 
+ * without needing anything besides the JDK.
+ * <p>
+ * Each benchmark is run for some warm-up iterations whose results are 
+ * ignored and then for the measured iterations. The results are written
+ * as JSON in the format JMH uses (benchmark, mode, params and primaryMetric
+ * with score, scoreError, scoreUnit and rawData), so results of different
+ * releases can be compared with the same tools.
+ *
+ * @author Johann Petrak
+ */
+public class BenchmarkRunner {
+  
+  /**
+   * What is measured: one invocation does some number of operations, e.g.
+   * looks up all the words of a list.
+   */
+  public static interface Operation {
+    /**
+     * Run the operation once.
+     * @return the number of operations done
+     * @throws Exception if anything goes wrong, this stops the benchmark
+     */
+    public long run() throws Exception;
+  }
+  
+  /**
+   * Operations should add something from each result to this, so the JIT
+   * cannot remove the work.
+   */
+  public static volatile long sink = 0;
+  
+  private final int warmupIterations;
+  private final int iterations;
+  private final long iterationNanos;
+  private final Pattern filter;
+  private final List<Result> results = new ArrayList<Result>();
+  
+  /**
+   * The result of one benchmark.
+   */
+  public static class Result {
+    final String benchmark;
+    final Map<String, String> params;
+    final String mode;
+    final String unit;
+    final double[] scores;
+    Result(String benchmark, Map<String, String> params, String mode, String unit, double[] scores) {
+      this.benchmark = benchmark;
+      this.params = params;
+      this.mode = mode;
+      this.unit = unit;
+      this.scores = scores;
+    }
+    public double getScore() {
+      double sum = 0;
+      for(double s : scores) {
+        sum += s;
+      }
+      return sum / scores.length;
+    }
+    /**
+     * The half-width of the 99.9% confidence interval of the score,
+     * based on the normal distribution.
+     * @return the error or NaN if there is only one score
+     */
+    public double getScoreError() {
+      if(scores.length < 2) {
+        return Double.NaN;
+      }
+      double mean = getScore();
+      double sq = 0;
+      for(double s : scores) {
+        sq += (s - mean) * (s - mean);
+      }
+      return 3.29 * Math.sqrt(sq / (scores.length - 1)) / Math.sqrt(scores.length);
+    }
+  }
+  
+  /**
+   * Create a runner.
+   * 
+   * @param warmupIterations the number of iterations which are not measured
+   * @param iterations the number of measured iterations
+   * @param iterationMillis how long each iteration of an average time benchmark runs
+   * @param filter only benchmarks whose name and parameters (e.g. lookup:en:NOUN) match are run, may be null
+   */
+  public BenchmarkRunner(int warmupIterations, int iterations, long iterationMillis, Pattern filter) {
+    this.warmupIterations = warmupIterations;
+    this.iterations = iterations;
+    this.iterationNanos = iterationMillis * 1000000L;
+    this.filter = filter;
+  }
+  
+  /**
+   * Check if a benchmark will be run, so expensive setup can be skipped otherwise.
+   * 
+   * @param benchmark the name of the benchmark
+   * @param params the parameters
+   * @return true if it is selected by the filter
+   */
+  public boolean isSelected(String benchmark, Map<String, String> params) {
+    if(filter == null) {
+      return true;
+    }
+    StringBuilder id = new StringBuilder(benchmark);
+    for(String value : params.values()) {
+      id.append(':').append(value);
+    }
+    return filter.matcher(id).find();
+  }
+  
+  /**
+   * Measure the average time of the operations: in each iteration the 
+   * operation is run repeatedly for the iteration time. The score is
+   * in nanoseconds per operation.
+   * 
+   * @param benchmark the name of the benchmark
+   * @param params the parameters of this run
+   * @param op the operation
+   * @throws Exception if the operation fails
+   */
+  public void averageTime(String benchmark, Map<String, String> params, Operation op) throws Exception {
+    if(!isSelected(benchmark, params)) {
+      return;
+    }
+    double[] scores = new double[iterations];
+    for(int i = -warmupIterations; i < iterations; i++) {
+      long ops = 0;
+      long start = System.nanoTime();
+      long elapsed;
+      do {
+        ops += op.run();
+        elapsed = System.nanoTime() - start;
+      } while(elapsed < iterationNanos);
+      if(i >= 0) {
+        scores[i] = (double)elapsed / Math.max(ops, 1);
+      }
+    }
+    add(new Result(benchmark, params, "avgt", "ns/op", scores));
+  }
+  
+  /**
+   * Measure the memory allocated by the operations: in each iteration the
+   * operation is run repeatedly for the iteration time, like for 
+   * {@link #averageTime}, and the bytes allocated by the current thread are
+   * divided by the number of operations. The score is in bytes per operation.
+   * <p>
+   * This needs a JVM which counts the bytes allocated per thread, like HotSpot.
+   * Otherwise the benchmark is skipped.
+   * 
+   * @param benchmark the name of the benchmark
+   * @param params the parameters of this run
+   * @param op the operation
+   * @throws Exception if the operation fails
+   */
+  public void allocation(String benchmark, Map<String, String> params, Operation op) throws Exception {
+    if(!isSelected(benchmark, params)) {
+      return;
+    }
+    com.sun.management.ThreadMXBean threads = allocationCounter();
+    if(threads == null) {
+      System.out.println(benchmark+" skipped, the JVM does not count allocated bytes per thread");
+      return;
+    }
+    long thread = Thread.currentThread().getId();
+    double[] scores = new double[iterations];
+    for(int i = -warmupIterations; i < iterations; i++) {
+      long ops = 0;
+      long allocated = threads.getThreadAllocatedBytes(thread);
+      long start = System.nanoTime();
+      do {
+        ops += op.run();
+      } while(System.nanoTime() - start < iterationNanos);
+      allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+      if(i >= 0) {
+        scores[i] = (double)allocated / Math.max(ops, 1);
+      }
+    }
+    add(new Result(benchmark, params, "avgt", "B/op", scores));
+  }
+  
+  private static com.sun.management.ThreadMXBean allocationCounter() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if(!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return null;
+    }
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+    if(!threads.isThreadAllocatedMemorySupported()) {
+      return null;
+    }
+    threads.setThreadAllocatedMemoryEnabled(true);
+    return threads;
+  }
+  
+  /**
+   * Measure operations which take long, e.g. loading: each iteration runs
+   * the operation exactly once and the score is in milliseconds per invocation.
+   * 
+   * @param benchmark the name of the benchmark
+   * @param params the parameters of this run
+   * @param op the operation
+   * @throws Exception if the operation fails
+   */
+  public void singleShot(String benchmark, Map<String, String> params, Operation op) throws Exception {
+    if(!isSelected(benchmark, params)) {
+      return;
+    }
+    double[] scores = new double[iterations];
+    for(int i = -warmupIterations; i < iterations; i++) {
+      // do not measure garbage left over from the previous iteration
+      System.gc();
+      long start = System.nanoTime();
+      op.run();
+      long elapsed = System.nanoTime() - start;
+      if(i >= 0) {
+        scores[i] = elapsed / 1000000.0;
+      }
+    }
+    add(new Result(benchmark, params, "ss", "ms/op", scores));
+  }
+  
+  private void add(Result result) {
+    results.add(result);
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format(Locale.ROOT, "%-16s", result.benchmark));
+    for(Map.Entry<String, String> param : result.params.entrySet()) {
+      sb.append(String.format(Locale.ROOT, " %s=%-8s", param.getKey(), param.getValue()));
+    }
+    sb.append(String.format(Locale.ROOT, " %12.1f +- %10.1f %s", 
+            result.getScore(), result.getScoreError(), result.unit));
+    System.out.println(sb);
+  }
+  
+  public List<Result> getResults() {
+    return results;
+  }
+  
+  /**
+   * Helper for creating parameter maps.
+   * @param keysAndValues alternating names and values
+   * @return the map, in the order given
+   */
+  public static Map<String, String> params(String... keysAndValues) {
+    Map<String, String> map = new LinkedHashMap<String, String>();
+    for(int i = 0; i + 1 < keysAndValues.length; i += 2) {
+      map.put(keysAndValues[i], keysAndValues[i + 1]);
+    }
+    return map;
+  }
+  
+  /**
+   * Write the results in the JSON format of JMH.
+   * 
+   * @param file the file to write to
+   * @throws IOException if the file cannot be written
+   */
+  public void writeJson(File file) throws IOException {
+    Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      out.write("[\n");
+      for(int r = 0; r < results.size(); r++) {
+        Result result = results.get(r);
+        out.write("  {\n");
+        out.write("    \"benchmark\" : " + quote(BENCHMARK_PREFIX + result.benchmark) + ",\n");
+        out.write("    \"mode\" : " + quote(result.mode) + ",\n");
+        out.write("    \"warmupIterations\" : " + warmupIterations + ",\n");
+        out.write("    \"measurementIterations\" : " + iterations + ",\n");
+        out.write("    \"params\" : {");
+        int p = 0;
+        for(Map.Entry<String, String> param : result.params.entrySet()) {
+          out.write((p++ == 0 ? "\n" : ",\n") + "      " + quote(param.getKey()) + " : " + quote(param.getValue()));
+        }
+        out.write("\n    },\n");
+        out.write("    \"primaryMetric\" : {\n");
+        out.write("      \"score\" : " + number(result.getScore()) + ",\n");
+        out.write("      \"scoreError\" : " + number(result.getScoreError()) + ",\n");
+        out.write("      \"scoreUnit\" : " + quote(result.unit) + ",\n");
+        out.write("      \"rawData\" : [ [ ");
+        for(int i = 0; i < result.scores.length; i++) {
+          out.write((i == 0 ? "" : ", ") + number(result.scores[i]));
+        }
+        out.write(" ] ]\n");
+        out.write("    }\n");
+        out.write(r + 1 < results.size() ? "  },\n" : "  }\n");
+      }
+      out.write("]\n");
+    } finally {
+      out.close();
+    }
+  }
+  
+  private static final String BENCHMARK_PREFIX = "gate.plugin.lemmatizer.bench.LemmatizerBenchmarks.";
+  
+  private static String number(double d) {
+    if(Double.isNaN(d) || Double.isInfinite(d)) {
+      return "\"NaN\"";
+    }
+    return String.format(Locale.ROOT, "%.3f", d);
+  }
+  
+  private static String quote(String s) {
+    StringBuilder sb = new StringBuilder("\"");
+    for(int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if(c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if(c < 0x20) {
+        sb.append(String.format("\\u%04x", (int)c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+  
+}
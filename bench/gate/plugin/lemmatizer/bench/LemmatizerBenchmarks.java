@@ -0,0 +1,626 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer.bench;
+
+import fi.seco.hfst.TransducerAlphabet;
+import fi.seco.hfst.TransducerHeader;
+import fi.seco.hfst.TransducerStream;
+import fi.seco.hfst.UnweightedTransducer;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.Gate;
+import gate.LanguageAnalyser;
+import gate.creole.ControllerAwarePR;
+import gate.plugin.lemmatizer.CharSpan;
+import gate.plugin.lemmatizer.DictLemmatizerPR;
+import gate.plugin.lemmatizer.DictionaryBackend;
+import gate.plugin.lemmatizer.HfstLemmatizer;
+import gate.plugin.lemmatizer.LemmaCache;
+import gate.plugin.lemmatizer.LemmaDictionary;
+import gate.plugin.lemmatizer.LemmatizerEngine;
+import gate.plugin.lemmatizer.LemmatizerResources;
+import gate.plugin.lemmatizer.OptimizedLookupTransducer;
+import gate.plugin.lemmatizer.PosTagMapping;
+import gate.plugin.lemmatizer.SuffixLemmatizer;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileFilter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import static gate.plugin.lemmatizer.bench.BenchmarkRunner.params;
+
+/**
+ * Benchmarks for the hot paths of the lemmatizer: loading the dictionaries
+ * and HFST models, looking up words in the dictionaries for each POS tag, 
+ * lemmatizing words with the HFST or the suffix rules, lemmatizing whole documents with the engine and, if GATE 
+ * is available, processing whole documents with the PR, including a large
+ * document with containing annotations.
+ * <p>
+ * The words come from the wikinews test documents in the tests directory,
+ * in document order, so each benchmark sees the words with the frequencies
+ * of real text. For languages without a test document (e.g. Italian), the 
+ * warm-up words are used.
+ * <p>
+ * This is run by the ant target "bench", which writes the results to 
+ * bench-results.json. Run without the GATE home directory, the PR benchmarks 
+ * are skipped and GATE is not needed at all.
+ *
+ * @author Johann Petrak
+ */
+public class LemmatizerBenchmarks {
+  
+  private static final String[] LANGUAGES = { "en", "de", "fr", "it", "es", "nl" };
+  
+  private final File resourcesDir;
+  private final File testsDir;
+  private final BenchmarkRunner runner;
+  // the tokens of the test documents, null for languages without a test document
+  private final Map<String, TestTokens> documentTokens = new LinkedHashMap<String, TestTokens>();
+  
+  public LemmatizerBenchmarks(File resourcesDir, File testsDir, BenchmarkRunner runner) throws Exception {
+    this.resourcesDir = resourcesDir;
+    this.testsDir = testsDir;
+    this.runner = runner;
+    for(String lang : LANGUAGES) {
+      File doc = testDocument(lang);
+      documentTokens.put(lang, doc == null ? null : TestTokens.readGateXml(doc, lang));
+    }
+  }
+  
+  private File testDocument(final String lang) {
+    File[] docs = testsDir.listFiles(new FileFilter() {
+      @Override
+      public boolean accept(File file) {
+        return file.getName().startsWith("wikinews-"+lang+"-") && file.getName().endsWith(".xml");
+      }
+    });
+    return docs == null || docs.length == 0 ? null : docs[0];
+  }
+  
+  /**
+   * The tokens of the test document or the warm-up words of a language.
+   */
+  private TestTokens tokens(String lang) throws Exception {
+    TestTokens tokens = documentTokens.get(lang);
+    if(tokens == null) {
+      tokens = TestTokens.readTsv(new File(new File(resourcesDir, "warmup"), lang+".tsv"), lang);
+    }
+    return tokens;
+  }
+  
+  /**
+   * Loading the text dictionaries of a language into hash maps.
+   */
+  public void loadDictionary() throws Exception {
+    for(String lang : LANGUAGES) {
+      final File dictDir = new File(new File(resourcesDir, "dictionaries"), lang);
+      runner.singleShot("loadDictionary", params("language", lang), new BenchmarkRunner.Operation() {
+        @Override
+        public long run() {
+          long n = 0;
+          for(String tag : LemmatizerResources.DICTIONARY_TAGS) {
+            File dictFile = new File(dictDir, tag+"-Dict.txt.gz");
+            if(dictFile.exists()) {
+              n += DictLemmatizerPR.loadDictionary(dictFile).size();
+            }
+          }
+          BenchmarkRunner.sink += n;
+          return 1;
+        }
+      });
+    }
+  }
+  
+  /**
+   * Loading all resources of a language, as the PR does.
+   */
+  public void loadResources() throws Exception {
+    for(final String lang : LANGUAGES) {
+      for(final DictionaryBackend backend : DictionaryBackend.values()) {
+        runner.singleShot("loadResources", params("language", lang, "backend", backend.toString()), 
+                new BenchmarkRunner.Operation() {
+          @Override
+          public long run() {
+            LemmatizerResources resources = LemmatizerResources.load(resourcesDir, lang, backend);
+            BenchmarkRunner.sink += resources.memoryFootprint();
+            return 1;
+          }
+        });
+      }
+    }
+  }
+  
+  /**
+   * Loading the HFST model of a language with the hfst library, into 
+   * arrays from the compressed model and from the cache file.
+   */
+  public void loadHfst() throws Exception {
+    for(String lang : LANGUAGES) {
+      final File modelFile = new File(new File(resourcesDir, "lemmaModels"), lang+".hfst.ol.gz");
+      if(!modelFile.exists()) {
+        continue;
+      }
+      runner.singleShot("loadHfst", params("language", lang, "reader", "library"), new BenchmarkRunner.Operation() {
+        @Override
+        public long run() throws Exception {
+          DataInputStream in = new DataInputStream(new GZIPInputStream(new FileInputStream(modelFile)));
+          TransducerStream ts = new TransducerStream(in);
+          TransducerHeader h = new TransducerHeader(ts);
+          TransducerAlphabet a = new TransducerAlphabet(ts, h.getSymbolCount());
+          BenchmarkRunner.sink += new UnweightedTransducer(ts, h, a).getAlphabet().size();
+          in.close();
+          return 1;
+        }
+      });
+      runner.singleShot("loadHfst", params("language", lang, "reader", "arrays"), new BenchmarkRunner.Operation() {
+        @Override
+        public long run() throws Exception {
+          BenchmarkRunner.sink += OptimizedLookupTransducer.read(modelFile).memoryFootprint();
+          return 1;
+        }
+      });
+      Map<String, String> params = params("language", lang, "reader", "cache");
+      if(!runner.isSelected("loadHfst", params)) {
+        continue;
+      }
+      // do not touch the resources, the cache file may be there already
+      final File cacheFile = File.createTempFile("bench-"+lang, OptimizedLookupTransducer.CACHE_EXTENSION);
+      cacheFile.deleteOnExit();
+      OptimizedLookupTransducer.read(modelFile).writeCache(cacheFile);
+      runner.singleShot("loadHfst", params, new BenchmarkRunner.Operation() {
+        @Override
+        public long run() throws Exception {
+          BenchmarkRunner.sink += OptimizedLookupTransducer.map(cacheFile).memoryFootprint();
+          return 1;
+        }
+      });
+      cacheFile.delete();
+    }
+  }
+  
+  /**
+   * Looking up the words of the test documents in the dictionary for their tag.
+   */
+  public void lookup() throws Exception {
+    for(String lang : LANGUAGES) {
+      if(documentTokens.get(lang) == null) {
+        continue;
+      }
+      for(DictionaryBackend backend : DictionaryBackend.values()) {
+        LemmatizerResources resources = null;
+        for(String tag : LemmatizerResources.DICTIONARY_TAGS) {
+          Map<String, String> params = params("language", lang, "backend", backend.toString(), "tag", tag);
+          final String[] words = documentTokens.get(lang).withTag(tag).words;
+          if(words.length == 0 || !runner.isSelected("lookup", params)) {
+            continue;
+          }
+          if(resources == null) {
+            resources = LemmatizerResources.load(resourcesDir, lang, backend);
+          }
+          final LemmaDictionary dict = resources.getDictionary(tag);
+          if(dict == null) {
+            continue;
+          }
+          runner.averageTime("lookup", params, new BenchmarkRunner.Operation() {
+            // the dictionaries are looked up with the lower-cased word, like the engine does
+            final CharSpan span = new CharSpan(true);
+            @Override
+            public long run() {
+              long found = 0;
+              for(String word : words) {
+                if(dict.get(span.set(word)) != null) {
+                  found++;
+                }
+              }
+              BenchmarkRunner.sink += found;
+              return words.length;
+            }
+          });
+        }
+      }
+    }
+  }
+  
+  /**
+   * The memory allocated and the time needed for looking up the tokens of the
+   * test documents in the dictionary for their tag, taking the token text 
+   * from the document text like the PR does. The "string" path creates a 
+   * lower-cased string for each token, as the PR did before it used views 
+   * of the document text, the "span" path looks up through a lower-casing 
+   * {@link CharSpan}. The scores are per token.
+   */
+  public void lookupAllocation() throws Exception {
+    for(String lang : LANGUAGES) {
+      if(documentTokens.get(lang) == null) {
+        continue;
+      }
+      final TestTokens tokens = documentTokens.get(lang).wordsOnly();
+      // the document text with the tokens separated by spaces
+      StringBuilder sb = new StringBuilder();
+      final int[] starts = new int[tokens.size()];
+      final int[] ends = new int[tokens.size()];
+      for(int i = 0; i < tokens.size(); i++) {
+        starts[i] = sb.length();
+        sb.append(tokens.words[i]);
+        ends[i] = sb.length();
+        sb.append(' ');
+      }
+      final String text = sb.toString();
+      for(DictionaryBackend backend : DictionaryBackend.values()) {
+        LemmatizerResources resources = null;
+        for(String path : new String[] { "string", "span" }) {
+          Map<String, String> params = params("language", lang, "backend", backend.toString(), "path", path);
+          if(!runner.isSelected("lookupAllocation", params) && !runner.isSelected("lookupTime", params)) {
+            continue;
+          }
+          if(resources == null) {
+            resources = LemmatizerResources.load(resourcesDir, lang, backend);
+          }
+          final LemmaDictionary[] dicts = new LemmaDictionary[tokens.size()];
+          for(int i = 0; i < dicts.length; i++) {
+            dicts[i] = resources.getDictionary(tokens.pos[i]);
+          }
+          BenchmarkRunner.Operation op;
+          if(path.equals("string")) {
+            op = new BenchmarkRunner.Operation() {
+              @Override
+              public long run() {
+                long found = 0;
+                for(int i = 0; i < dicts.length; i++) {
+                  if(dicts[i] != null && dicts[i].get(text.substring(starts[i], ends[i]).toLowerCase()) != null) {
+                    found++;
+                  }
+                }
+                BenchmarkRunner.sink += found;
+                return dicts.length;
+              }
+            };
+          } else {
+            op = new BenchmarkRunner.Operation() {
+              final CharSpan tokenSpan = new CharSpan();
+              final CharSpan lowerCaseSpan = new CharSpan(true);
+              @Override
+              public long run() {
+                long found = 0;
+                for(int i = 0; i < dicts.length; i++) {
+                  if(dicts[i] != null && 
+                          dicts[i].get(lowerCaseSpan.set(tokenSpan.set(text, starts[i], ends[i]))) != null) {
+                    found++;
+                  }
+                }
+                BenchmarkRunner.sink += found;
+                return dicts.length;
+              }
+            };
+          }
+          runner.allocation("lookupAllocation", params, op);
+          runner.averageTime("lookupTime", params, op);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Lemmatizing the words of the test documents with the HFST, without cache.
+   */
+  public void hfstGetLemma() throws Exception {
+    for(String lang : LANGUAGES) {
+      Map<String, String> params = params("language", lang);
+      if(!new File(new File(resourcesDir, "lemmaModels"), lang+".hfst.ol.gz").exists() ||
+              !runner.isSelected("hfstGetLemma", params)) {
+        continue;
+      }
+      final HfstLemmatizer hfst = LemmatizerResources.load(resourcesDir, lang, DictionaryBackend.HASHTABLE).getHfstLemmatizer();
+      final TestTokens tokens = tokens(lang).wordsOnly();
+      final HfstLemmatizer.TagMatcher[] matchers = new HfstLemmatizer.TagMatcher[tokens.size()];
+      for(int i = 0; i < matchers.length; i++) {
+        matchers[i] = hfst.getMatcher(tokens.pos[i]);
+      }
+      runner.averageTime("hfstGetLemma", params, new BenchmarkRunner.Operation() {
+        @Override
+        public long run() throws Exception {
+          long found = 0;
+          for(int i = 0; i < matchers.length; i++) {
+            if(hfst.getLemma(tokens.words[i], matchers[i]) != null) {
+              found++;
+            }
+          }
+          BenchmarkRunner.sink += found;
+          return matchers.length;
+        }
+      });
+    }
+  }
+  
+  /**
+   * Guessing the lemmata of the words of the test documents from their suffix,
+   * for the languages without an HFST model.
+   */
+  public void suffixGetLemma() throws Exception {
+    for(String lang : LANGUAGES) {
+      Map<String, String> params = params("language", lang);
+      if(new File(new File(resourcesDir, "lemmaModels"), lang+".hfst.ol.gz").exists() ||
+              !runner.isSelected("suffixGetLemma", params)) {
+        continue;
+      }
+      LemmatizerResources resources = LemmatizerResources.load(resourcesDir, lang, DictionaryBackend.HASHTABLE);
+      TestTokens tokens = tokens(lang).wordsOnly();
+      // only the words with a tag for which there are rules
+      final String[] words = new String[tokens.size()];
+      final SuffixLemmatizer[] lemmatizers = new SuffixLemmatizer[tokens.size()];
+      int n = 0;
+      for(int i = 0; i < tokens.size(); i++) {
+        SuffixLemmatizer lemmatizer = resources.getSuffixLemmatizer(tokens.pos[i]);
+        if(lemmatizer != null) {
+          words[n] = tokens.words[i];
+          lemmatizers[n++] = lemmatizer;
+        }
+      }
+      if(n == 0) {
+        continue;
+      }
+      final int nrWords = n;
+      runner.averageTime("suffixGetLemma", params, new BenchmarkRunner.Operation() {
+        @Override
+        public long run() {
+          long found = 0;
+          for(int i = 0; i < nrWords; i++) {
+            if(lemmatizers[i].getLemma(words[i]) != null) {
+              found++;
+            }
+          }
+          BenchmarkRunner.sink += found;
+          return nrWords;
+        }
+      });
+    }
+  }
+  
+  /**
+   * Lemmatizing all tokens of the test documents with the engine, with and
+   * without the HFST cache. The score is per token.
+   */
+  public void engine() throws Exception {
+    for(String lang : LANGUAGES) {
+      if(documentTokens.get(lang) == null) {
+        continue;
+      }
+      final TestTokens tokens = documentTokens.get(lang).wordsOnly();
+      LemmatizerResources resources = null;
+      for(final boolean cache : new boolean[] { true, false }) {
+        Map<String, String> params = params("language", lang, "cache", String.valueOf(cache));
+        if(!runner.isSelected("engine", params)) {
+          continue;
+        }
+        if(resources == null) {
+          resources = LemmatizerResources.load(resourcesDir, lang, DictionaryBackend.HASHTABLE);
+        }
+        final LemmatizerEngine engine = new LemmatizerEngine(resources, PosTagMapping.UNIVERSAL, 
+                cache ? new LemmaCache(50000) : null);
+        final String[] lemmas = new String[tokens.size()];
+        runner.averageTime("engine", params, new BenchmarkRunner.Operation() {
+          @Override
+          public long run() {
+            engine.lemmatize(tokens.words, tokens.pos, lemmas, null, new LemmatizerEngine.Context());
+            BenchmarkRunner.sink += lemmas[lemmas.length - 1].length();
+            return lemmas.length;
+          }
+        });
+      }
+    }
+  }
+  
+  /**
+   * Processing the test documents with the PR in GATE. The score is per document.
+   * 
+   * @param gateHome the GATE home directory
+   * @param pluginDir the directory of this plugin, with the jar built
+   */
+  public void document(File gateHome, File pluginDir) throws Exception {
+    for(String lang : LANGUAGES) {
+      File docFile = testDocument(lang);
+      Map<String, String> params = params("language", lang);
+      if(docFile == null || !runner.isSelected("document", params)) {
+        continue;
+      }
+      initGate(gateHome, pluginDir);
+      // the PR class is loaded by GATE from the plugin jar, so we only use GATE interfaces here
+      final LanguageAnalyser pr = (LanguageAnalyser)Factory.createResource(
+              "gate.plugin.lemmatizer.DictLemmatizerPR", Factory.newFeatureMap());
+      pr.setParameterValue("languageCode", lang);
+      pr.setParameterValue("posFeature", "upos");
+      pr.setParameterValue("inputAnnotationType", "Token");
+      final Document doc = Factory.newDocument(docFile.toURI().toURL(), "UTF-8");
+      pr.setDocument(doc);
+      ((ControllerAwarePR)pr).controllerExecutionStarted(null);
+      runner.averageTime("document", params, new BenchmarkRunner.Operation() {
+        @Override
+        public long run() throws Exception {
+          pr.execute();
+          return 1;
+        }
+      });
+      ((ControllerAwarePR)pr).controllerExecutionFinished(null);
+      Factory.deleteResource(doc);
+      Factory.deleteResource(pr);
+    }
+  }
+  
+  /**
+   * Processing a synthetic English document of 10000 sentences with the PR, 
+   * with the sentences as containing annotations and, for comparison, without 
+   * them. Each sentence has 15 tokens, taken from the English test document
+   * in order. The score is per document.
+   * 
+   * @param gateHome the GATE home directory
+   * @param pluginDir the directory of this plugin, with the jar built
+   */
+  public void containers(File gateHome, File pluginDir) throws Exception {
+    final int nrSentences = 10000;
+    final int sentenceLength = 15;
+    TestTokens tokens = documentTokens.get("en");
+    if(tokens == null) {
+      return;
+    }
+    Document doc = null;
+    for(String containers : new String[] { "Sentence", "none" }) {
+      Map<String, String> params = params("sentences", String.valueOf(nrSentences), "containers", containers);
+      if(!runner.isSelected("containers", params)) {
+        continue;
+      }
+      initGate(gateHome, pluginDir);
+      if(doc == null) {
+        doc = sentencesDocument(tokens.wordsOnly(), nrSentences, sentenceLength);
+      }
+      final LanguageAnalyser pr = (LanguageAnalyser)Factory.createResource(
+              "gate.plugin.lemmatizer.DictLemmatizerPR", Factory.newFeatureMap());
+      pr.setParameterValue("languageCode", "en");
+      pr.setParameterValue("posFeature", "upos");
+      pr.setParameterValue("inputAnnotationType", "Token");
+      pr.setParameterValue("containingAnnotationType", containers.equals("none") ? "" : containers);
+      pr.setDocument(doc);
+      ((ControllerAwarePR)pr).controllerExecutionStarted(null);
+      runner.averageTime("containers", params, new BenchmarkRunner.Operation() {
+        @Override
+        public long run() throws Exception {
+          pr.execute();
+          return 1;
+        }
+      });
+      ((ControllerAwarePR)pr).controllerExecutionFinished(null);
+      Factory.deleteResource(pr);
+    }
+    if(doc != null) {
+      Factory.deleteResource(doc);
+    }
+  }
+  
+  /**
+   * A document with Token annotations with the features string, upos and kind
+   * and a Sentence annotation over every sentenceLength tokens. The tokens 
+   * are separated by spaces, the sentences by newlines.
+   */
+  private static Document sentencesDocument(TestTokens tokens, int nrSentences, int sentenceLength) throws Exception {
+    StringBuilder text = new StringBuilder();
+    long[] offsets = new long[nrSentences * sentenceLength * 2];
+    for(int i = 0; i < nrSentences * sentenceLength; i++) {
+      offsets[2 * i] = text.length();
+      text.append(tokens.words[i % tokens.size()]);
+      offsets[2 * i + 1] = text.length();
+      text.append((i + 1) % sentenceLength == 0 ? '\n' : ' ');
+    }
+    Document doc = Factory.newDocument(text.toString());
+    AnnotationSet anns = doc.getAnnotations();
+    for(int i = 0; i < nrSentences * sentenceLength; i++) {
+      FeatureMap fm = Factory.newFeatureMap();
+      fm.put("string", tokens.words[i % tokens.size()]);
+      fm.put("upos", tokens.pos[i % tokens.size()]);
+      fm.put("kind", tokens.kinds[i % tokens.size()]);
+      anns.add(offsets[2 * i], offsets[2 * i + 1], "Token", fm);
+      if((i + 1) % sentenceLength == 0) {
+        anns.add(offsets[2 * (i + 1 - sentenceLength)], offsets[2 * i + 1], "Sentence", Factory.newFeatureMap());
+      }
+    }
+    return doc;
+  }
+  
+  private boolean gateInitialised = false;
+  
+  private void initGate(File gateHome, File pluginDir) throws Exception {
+    if(!gateInitialised) {
+      Gate.setGateHome(gateHome);
+      Gate.init();
+      Gate.getCreoleRegister().registerDirectories(pluginDir.toURI().toURL());
+      gateInitialised = true;
+    }
+  }
+  
+  private static void usage(String message) {
+    System.err.println(message);
+    System.err.println("Usage: LemmatizerBenchmarks [-resources dir] [-tests dir] [-out file] [-filter regex]");
+    System.err.println("         [-warmup n] [-iterations n] [-time ms] [-gatehome dir -plugindir dir]");
+    System.exit(1);
+  }
+  
+  public static void main(String[] args) throws Exception {
+    File resourcesDir = new File("resources");
+    File testsDir = new File("tests");
+    File outFile = new File("bench-results.json");
+    Pattern filter = null;
+    int warmup = 2;
+    int iterations = 5;
+    long time = 500;
+    File gateHome = null;
+    File pluginDir = new File(".");
+    for(int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if(i + 1 >= args.length) {
+        usage("Missing value for "+arg);
+      }
+      if(arg.equals("-resources")) {
+        resourcesDir = new File(args[++i]);
+      } else if(arg.equals("-tests")) {
+        testsDir = new File(args[++i]);
+      } else if(arg.equals("-out")) {
+        outFile = new File(args[++i]);
+      } else if(arg.equals("-filter")) {
+        String regex = args[++i];
+        filter = regex.isEmpty() ? null : Pattern.compile(regex);
+      } else if(arg.equals("-warmup")) {
+        warmup = Integer.parseInt(args[++i]);
+      } else if(arg.equals("-iterations")) {
+        iterations = Integer.parseInt(args[++i]);
+      } else if(arg.equals("-time")) {
+        time = Long.parseLong(args[++i]);
+      } else if(arg.equals("-gatehome")) {
+        String dir = args[++i];
+        gateHome = dir.isEmpty() ? null : new File(dir);
+      } else if(arg.equals("-plugindir")) {
+        pluginDir = new File(args[++i]);
+      } else {
+        usage("Unknown option "+arg);
+      }
+    }
+    BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations, time, filter);
+    LemmatizerBenchmarks benchmarks = new LemmatizerBenchmarks(resourcesDir, testsDir, runner);
+    benchmarks.lookup();
+    benchmarks.lookupAllocation();
+    benchmarks.hfstGetLemma();
+    benchmarks.suffixGetLemma();
+    benchmarks.engine();
+    if(gateHome != null) {
+      benchmarks.document(gateHome, pluginDir);
+      benchmarks.containers(gateHome, pluginDir);
+    }
+    // loading benchmarks last, they leave a lot of garbage behind
+    benchmarks.loadDictionary();
+    benchmarks.loadHfst();
+    benchmarks.loadResources();
+    runner.writeJson(outFile);
+    System.out.println("Results written to "+outFile);
+  }
+  
+}
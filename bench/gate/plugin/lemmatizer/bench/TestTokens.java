@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The tokens of a test document with their universal dependency POS tags, 
+ * in document order, so that benchmarks see the words with their real
+ * frequencies.
+ * <p>
+ * The tokens are read directly from the GATE XML format, so GATE is not needed.
+ *
+ * @author Johann Petrak
+ */
+public class TestTokens {
+  
+  public final String language;
+  public final String[] words;
+  public final String[] pos;
+  public final String[] kinds;
+  
+  TestTokens(String language, List<String> words, List<String> pos, List<String> kinds) {
+    this.language = language;
+    this.words = words.toArray(new String[words.size()]);
+    this.pos = pos.toArray(new String[pos.size()]);
+    this.kinds = kinds.toArray(new String[kinds.size()]);
+  }
+  
+  public int size() {
+    return words.length;
+  }
+  
+  /**
+   * Read the Token annotations of a GATE XML document, using the features 
+   * string, upos and kind. Tokens without a string or upos feature are skipped.
+   * 
+   * @param xmlFile the document
+   * @param language the language of the document
+   * @return the tokens
+   * @throws IOException if the file cannot be read
+   */
+  public static TestTokens readGateXml(File xmlFile, String language) throws IOException {
+    List<String> words = new ArrayList<String>();
+    List<String> pos = new ArrayList<String>();
+    List<String> kinds = new ArrayList<String>();
+    InputStream in = new FileInputStream(xmlFile);
+    try {
+      XMLStreamReader xml = XMLInputFactory.newInstance().createXMLStreamReader(in, "UTF-8");
+      boolean inToken = false;
+      String name = null;
+      String word = null, tag = null, kind = null;
+      while(xml.hasNext()) {
+        int event = xml.next();
+        if(event == XMLStreamConstants.START_ELEMENT) {
+          String element = xml.getLocalName();
+          if(element.equals("Annotation")) {
+            inToken = "Token".equals(xml.getAttributeValue(null, "Type"));
+            word = tag = kind = null;
+          } else if(inToken && element.equals("Name")) {
+            name = xml.getElementText();
+          } else if(inToken && element.equals("Value")) {
+            String value = xml.getElementText();
+            if("string".equals(name)) {
+              word = value;
+            } else if("upos".equals(name)) {
+              tag = value;
+            } else if("kind".equals(name)) {
+              kind = value;
+            }
+          }
+        } else if(event == XMLStreamConstants.END_ELEMENT && 
+                xml.getLocalName().equals("Annotation") && inToken) {
+          if(word != null && tag != null && !tag.isEmpty()) {
+            words.add(word);
+            pos.add(tag);
+            kinds.add(kind);
+          }
+          inToken = false;
+        }
+      }
+      xml.close();
+    } catch (XMLStreamException ex) {
+      throw new IOException("Could not parse "+xmlFile, ex);
+    } finally {
+      in.close();
+    }
+    return new TestTokens(language, words, pos, kinds);
+  }
+  
+  /**
+   * Read words and their tags from a tab-separated file with the word in 
+   * the first and the tag in the second column, e.g. the warm-up words.
+   * 
+   * @param tsvFile the file
+   * @param language the language
+   * @return the tokens
+   * @throws IOException if the file cannot be read
+   */
+  public static TestTokens readTsv(File tsvFile, String language) throws IOException {
+    List<String> words = new ArrayList<String>();
+    List<String> pos = new ArrayList<String>();
+    List<String> kinds = new ArrayList<String>();
+    BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(tsvFile), "UTF-8"));
+    try {
+      String line;
+      while((line = in.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if(fields.length >= 2 && !fields[0].isEmpty() && !fields[1].isEmpty()) {
+          words.add(fields[0]);
+          pos.add(fields[1]);
+          kinds.add("word");
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return new TestTokens(language, words, pos, kinds);
+  }
+  
+  /**
+   * The tokens with a certain tag.
+   * 
+   * @param tag the universal dependency tag
+   * @return the tokens
+   */
+  public TestTokens withTag(String tag) {
+    List<String> w = new ArrayList<String>();
+    List<String> p = new ArrayList<String>();
+    List<String> k = new ArrayList<String>();
+    for(int i = 0; i < words.length; i++) {
+      if(pos[i].equals(tag)) {
+        w.add(words[i]);
+        p.add(pos[i]);
+        k.add(kinds[i]);
+      }
+    }
+    return new TestTokens(language, w, p, k);
+  }
+  
+  /**
+   * The tokens which are words, i.e. neither numbers nor punctuation, as 
+   * the PR would pass them to the lemmatizer.
+   * 
+   * @return the tokens
+   */
+  public TestTokens wordsOnly() {
+    List<String> w = new ArrayList<String>();
+    List<String> p = new ArrayList<String>();
+    List<String> k = new ArrayList<String>();
+    for(int i = 0; i < words.length; i++) {
+      if(!"number".equalsIgnoreCase(kinds[i]) && !"punct".equalsIgnoreCase(kinds[i])) {
+        w.add(words[i]);
+        p.add(pos[i]);
+        k.add(kinds[i]);
+      }
+    }
+    return new TestTokens(language, w, p, k);
+  }
+  
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import gate.plugin.lemmatizer.HfstLemmatizer.TagMatcher;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Base class for analysis interpreters which recognize the analyses
+ * for a POS tag by a fixed string. 
+ * <p>
+ * Subclasses add a rule for each supported tag: an analysis is accepted if 
+ * it contains the check string and by default the lemma is what precedes 
+ * the first occurrence of the cut string, in lower case. 
+ *
+ * @author Johann Petrak
+ */
+public abstract class AbstractAnalysisInterpreter implements AnalysisInterpreter {
+  
+  private final Map<String, TagMatcher> matchers = new HashMap<String, TagMatcher>();
+  
+  /**
+   * Add the rule for a tag. 
+   * 
+   * @param udTag the universal dependency tag, upper case
+   * @param check the string an analysis must contain
+   * @param cut the string from where the analysis gets removed
+   */
+  protected final void addRule(String udTag, String check, String cut) {
+    matchers.put(udTag, new TagMatcher(udTag, check, cut));
+  }
+
+  @Override
+  public TagMatcher getMatcher(String udTag) {
+    return matchers.get(udTag);
+  }
+
+  /**
+   * Accept the analysis if it contains the check string. This cannot be 
+   * changed, since the HFST lookup relies on it to filter the analyses 
+   * by the check string while traversing the transducer.
+   */
+  @Override
+  public final boolean accepts(String analysis, TagMatcher matcher) {
+    return analysis.contains(matcher.getCheck());
+  }
+
+  /**
+   * Remove the tag from the analysis. If the analysis contains a plus 
+   * sign which the word does not contain, the plus is replaced with a hyphen
+   * if the word contains one or removed otherwise.
+   */
+  @Override
+  public String getLemma(String aWord, String analysis, TagMatcher matcher) {
+    String lemma = cutFrom(analysis, matcher.getCut());
+    if ((lemma.indexOf('+') >= 0 && lemma.indexOf('-') < 0) && (aWord.indexOf('-') >= 0 && aWord.indexOf('+') < 0)) {
+      lemma = lemma.replace('+', '-');
+    }
+    if (lemma.indexOf('+') >= 0 && aWord.indexOf('+') < 0) {
+      lemma = removeChar(lemma, '+');
+    }
+    return lemma.toLowerCase();
+  }
+  
+  // The following methods do what the regular expressions used before did, 
+  // without compiling a pattern for every analysis.
+  
+  /**
+   * Remove every occurrence of the marker and whatever follows it up to
+   * the end of the line, like s.replaceAll(quote(marker)+".*", "") does.
+   */
+  protected static String cutFrom(String s, String marker) {
+    int from = s.indexOf(marker);
+    if(from < 0) {
+      return s;
+    }
+    int end = lineEnd(s, from + marker.length());
+    if(end == s.length()) {
+      return s.substring(0, from);
+    }
+    StringBuilder sb = new StringBuilder(s.length());
+    int pos = 0;
+    while(from >= 0) {
+      sb.append(s, pos, from);
+      pos = end;
+      from = s.indexOf(marker, end);
+      if(from >= 0) {
+        end = lineEnd(s, from + marker.length());
+      }
+    }
+    sb.append(s, pos, s.length());
+    return sb.toString();
+  }
+  
+  // the index of the next character which "." in a regular expression 
+  // does not match
+  private static int lineEnd(String s, int from) {
+    for(int i = from; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if(c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+        return i;
+      }
+    }
+    return s.length();
+  }
+  
+  protected static String removeChar(String s, char c) {
+    int i = s.indexOf(c);
+    if(i < 0) {
+      return s;
+    }
+    StringBuilder sb = new StringBuilder(s.length() - 1);
+    sb.append(s, 0, i);
+    for(i = i + 1; i < s.length(); i++) {
+      char ch = s.charAt(i);
+      if(ch != c) {
+        sb.append(ch);
+      }
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Like s.split(String.valueOf(sep)): trailing empty strings are removed. 
+   */
+  protected static String[] split(String s, char sep) {
+    int i = s.indexOf(sep);
+    if(i < 0) {
+      return new String[]{s};
+    }
+    int n = 1;
+    for(int j = i; j >= 0; j = s.indexOf(sep, j + 1)) {
+      n++;
+    }
+    String[] parts = new String[n];
+    int start = 0;
+    for(int k = 0; k < n - 1; k++) {
+      int j = s.indexOf(sep, start);
+      parts[k] = s.substring(start, j);
+      start = j + 1;
+    }
+    parts[n - 1] = s.substring(start);
+    while(n > 0 && parts[n - 1].isEmpty()) {
+      n--;
+    }
+    if(n < parts.length) {
+      String[] tmp = new String[n];
+      System.arraycopy(parts, 0, tmp, 0, n);
+      parts = tmp;
+    }
+    return parts;
+  }
+  
+  private static final String REGEX_CHARS = "\\^$.|?*+()[]{}";
+  
+  /**
+   * Like s.replaceAll(pattern, ""), the pattern is only compiled if it
+   * is not just a literal string.
+   */
+  protected static String removeAll(String s, String pattern) {
+    for(int i = 0; i < pattern.length(); i++) {
+      if(REGEX_CHARS.indexOf(pattern.charAt(i)) >= 0) {
+        return s.replaceAll(pattern, "");
+      }
+    }
+    if(pattern.isEmpty()) {
+      return s;
+    }
+    return s.replace(pattern, "");
+  }
+
+}
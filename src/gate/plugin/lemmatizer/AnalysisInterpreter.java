@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import gate.plugin.lemmatizer.HfstLemmatizer.TagMatcher;
+
+/**
+ * Interprets the analyses the HFST model of a language produces for a word.
+ * <p>
+ * Implementations are found with {@link java.util.ServiceLoader}, so a new
+ * language can be supported by adding a class and listing it in 
+ * <code>META-INF/services/gate.plugin.lemmatizer.AnalysisInterpreter</code>. 
+ * The interpreter for the language is looked up once when the model is 
+ * loaded. 
+ * <p>
+ * For each word, the analyses are passed to {@link #accepts} in the order
+ * in which they are produced and the lemma is taken from the first analysis
+ * which is accepted, no further analyses are looked at. 
+ * <p>
+ * Implementations must be thread-safe.
+ * 
+ * @author Johann Petrak
+ */
+public interface AnalysisInterpreter {
+  
+  /**
+   * The language this interpreter is for.
+   * 
+   * @return the language code, e.g. "en"
+   */
+  public String getLanguage();
+  
+  /**
+   * Get the matcher for a POS tag.
+   * 
+   * @param udTag the universal dependency POS tag, upper case
+   * @return the matcher or null if the tag is not supported
+   */
+  public TagMatcher getMatcher(String udTag);
+  
+  /**
+   * Check if an analysis should be used to get the lemma.
+   * 
+   * @param analysis the analysis, all symbols concatenated
+   * @param matcher the matcher for the POS tag of the word
+   * @return true if the lemma should be taken from this analysis
+   */
+  public boolean accepts(String analysis, TagMatcher matcher);
+  
+  /**
+   * Get the lemma from an analysis which has been accepted.
+   * 
+   * @param word the word
+   * @param analysis the accepted analysis
+   * @param matcher the matcher for the POS tag of the word
+   * @return the lemma, null if none could be found
+   */
+  public String getLemma(String word, String analysis, TagMatcher matcher);
+  
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import com.carrotsearch.hppc.CharArrayList;
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.ObjectIntHashMap;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A lemma dictionary stored as a minimal acyclic deterministic automaton.
+ * <p>
+ * The automaton accepts all the word forms of the dictionary. Each final
+ * state carries a suffix edit rule which turns the form into its lemma:
+ * remove a number of characters from the end of the form, append a suffix
+ * and optionally upper-case the first character. Because the same rules
+ * are used by many forms, states which accept the same form suffixes with
+ * the same rules get merged, which makes the automaton much smaller than
+ * a table of forms and lemmata.
+ * <p>
+ * Looking up a form does not allocate anything, only creating the lemma
+ * string for a found form does.
+ *
+ * @author Johann Petrak
+ */
+public class AutomatonLemmaDictionary implements LemmaDictionary {
+
+  /**
+   * A dictionary without any entries.
+   */
+  public static final AutomatonLemmaDictionary EMPTY = new AutomatonLemmaDictionary(
+          new int[] { 0, 0 }, new char[0], new int[0], new int[] { -1 },
+          new int[0], new String[0], new boolean[0], 0);
+
+  // the transitions of state s are at the indices firstTransition[s] to
+  // firstTransition[s+1], sorted by label. State 0 is the start state.
+  private final int[] firstTransition;
+  private final char[] labels;
+  private final int[] targets;
+  // the rule for forms which end in the state, -1 if the state is not final
+  private final int[] stateRule;
+  // the rules: cut characters, append suffix, upper-case the first character
+  private final int[] ruleCut;
+  private final String[] ruleSuffix;
+  private final boolean[] ruleUpperFirst;
+  private final int nrForms;
+
+  protected AutomatonLemmaDictionary(int[] firstTransition, char[] labels, int[] targets,
+          int[] stateRule, int[] ruleCut, String[] ruleSuffix, boolean[] ruleUpperFirst, int nrForms) {
+    this.firstTransition = firstTransition;
+    this.labels = labels;
+    this.targets = targets;
+    this.stateRule = stateRule;
+    this.ruleCut = ruleCut;
+    this.ruleSuffix = ruleSuffix;
+    this.ruleUpperFirst = ruleUpperFirst;
+    this.nrForms = nrForms;
+  }
+
+  /**
+   * Find the rule for a form.
+   *
+   * @param form the lower-cased form
+   * @return the rule number or -1 if the form is not in the dictionary
+   */
+  public int lookup(CharSequence form) {
+    int state = 0;
+    int len = form.length();
+    for(int i = 0; i < len; i++) {
+      char c = form.charAt(i);
+      int lo = firstTransition[state];
+      int hi = firstTransition[state+1] - 1;
+      int found = -1;
+      while(lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        char l = labels[mid];
+        if(l < c) {
+          lo = mid + 1;
+        } else if(l > c) {
+          hi = mid - 1;
+        } else {
+          found = mid;
+          break;
+        }
+      }
+      if(found < 0) {
+        return -1;
+      }
+      state = targets[found];
+    }
+    return stateRule[state];
+  }
+
+  /**
+   * Apply a rule returned by {@link #lookup} to the form.
+   *
+   * @param form the form the rule was found for
+   * @param rule the rule
+   * @return the lemma
+   */
+  public String lemma(CharSequence form, int rule) {
+    int keep = form.length() - ruleCut[rule];
+    String suffix = ruleSuffix[rule];
+    char[] chars = new char[keep + suffix.length()];
+    for(int i = 0; i < keep; i++) {
+      chars[i] = form.charAt(i);
+    }
+    suffix.getChars(0, suffix.length(), chars, keep);
+    if(ruleUpperFirst[rule] && chars.length > 0) {
+      chars[0] = Character.toUpperCase(chars[0]);
+    }
+    return new String(chars);
+  }
+
+  @Override
+  public String get(CharSequence form) {
+    int rule = lookup(form);
+    if(rule < 0) {
+      return null;
+    }
+    return lemma(form, rule);
+  }
+
+  @Override
+  public int size() {
+    return nrForms;
+  }
+
+  /**
+   * The number of states of the automaton.
+   * @return number of states
+   */
+  public int nrStates() {
+    return stateRule.length;
+  }
+
+  /**
+   * The number of transitions of the automaton.
+   * @return number of transitions
+   */
+  public int nrTransitions() {
+    return labels.length;
+  }
+
+  /**
+   * The number of distinct suffix rules.
+   * @return number of rules
+   */
+  public int nrRules() {
+    return ruleCut.length;
+  }
+
+  @Override
+  public long memoryFootprint() {
+    long bytes = 0;
+    bytes += arrayBytes(firstTransition.length, 4);
+    bytes += arrayBytes(labels.length, 2);
+    bytes += arrayBytes(targets.length, 4);
+    bytes += arrayBytes(stateRule.length, 4);
+    bytes += arrayBytes(ruleCut.length, 4);
+    bytes += arrayBytes(ruleUpperFirst.length, 1);
+    bytes += arrayBytes(ruleSuffix.length, 4);
+    for(String suffix : ruleSuffix) {
+      bytes += 24 + arrayBytes(suffix.length(), 2);
+    }
+    return bytes;
+  }
+
+  private static long arrayBytes(int length, int elementSize) {
+    return (16 + (long)length * elementSize + 7) & ~7L;
+  }
+
+  /**
+   * Load a dictionary from a gzip-compressed text file.
+   * <p>
+   * This reads the same format as {@link CompactLemmaDictionary#load}.
+   *
+   * @param dictFile the dictionary file
+   * @return the dictionary
+   */
+  public static AutomatonLemmaDictionary load(File dictFile) {
+    if(!dictFile.exists()) {
+      System.err.println("LemmatizerPR: WARNING - dictionary file does not exist:  "+dictFile.getAbsolutePath());
+      return EMPTY;
+    }
+    return build(LemmatizerResources.loadDictionary(dictFile));
+  }
+
+  /**
+   * Build the automaton for a map from lower-cased forms to lemmata.
+   *
+   * @param form2lemma the entries
+   * @return the dictionary
+   */
+  public static AutomatonLemmaDictionary build(Map<String, String> form2lemma) {
+    String[] forms = form2lemma.keySet().toArray(new String[form2lemma.size()]);
+    Arrays.sort(forms);
+    Builder builder = new Builder();
+    for(String form : forms) {
+      builder.add(form, form2lemma.get(form));
+    }
+    return builder.finish();
+  }
+
+  /**
+   * Incremental construction of the minimal automaton from sorted input,
+   * following Daciuk et al. (2000), "Incremental construction of minimal
+   * acyclic finite-state automata". States are only compared once no more
+   * forms can be added below them, equal states are replaced by a single
+   * representative from the register.
+   */
+  private static class Builder {
+
+    private static class Node {
+      CharArrayList labels = new CharArrayList(2);
+      List<Node> targets = new ArrayList<Node>(2);
+      int rule = -1;
+      int id = -1;   // the number of the state in the final automaton, once registered
+
+      Node lastChild() {
+        return targets.get(targets.size()-1);
+      }
+    }
+
+    // the signature of a registered state: rule and (label, target id) pairs
+    private static class Signature {
+      final int[] data;
+      final int hash;
+      Signature(Node node) {
+        data = new int[1 + 2 * node.labels.size()];
+        data[0] = node.rule;
+        for(int i = 0; i < node.labels.size(); i++) {
+          data[1 + 2 * i] = node.labels.get(i);
+          data[2 + 2 * i] = node.targets.get(i).id;
+        }
+        hash = Arrays.hashCode(data);
+      }
+      @Override
+      public int hashCode() {
+        return hash;
+      }
+      @Override
+      public boolean equals(Object other) {
+        return other instanceof Signature && Arrays.equals(data, ((Signature)other).data);
+      }
+    }
+
+    private final Node root = new Node();
+    private String previous = "";
+    private final Map<Signature, Node> register = new HashMap<Signature, Node>();
+    private final List<Node> registered = new ArrayList<Node>();
+    private final ObjectIntHashMap<String> ruleIds = new ObjectIntHashMap<String>();
+    private final IntArrayList ruleCut = new IntArrayList();
+    private final List<String> ruleSuffix = new ArrayList<String>();
+    private final List<Boolean> ruleUpperFirst = new ArrayList<Boolean>();
+    private int nrForms = 0;
+
+    void add(String form, String lemma) {
+      // length of the prefix shared with the previous form
+      int common = 0;
+      int max = Math.min(form.length(), previous.length());
+      while(common < max && form.charAt(common) == previous.charAt(common)) {
+        common++;
+      }
+      Node node = root;
+      for(int i = 0; i < common; i++) {
+        node = node.lastChild();
+      }
+      if(node.labels.size() > 0) {
+        replaceOrRegister(node);
+      }
+      for(int i = common; i < form.length(); i++) {
+        Node child = new Node();
+        node.labels.add(form.charAt(i));
+        node.targets.add(child);
+        node = child;
+      }
+      node.rule = rule(form, lemma);
+      previous = form;
+      nrForms++;
+    }
+
+    // register the last child of the node and everything below it
+    private void replaceOrRegister(Node node) {
+      Node child = node.lastChild();
+      if(child.labels.size() > 0) {
+        replaceOrRegister(child);
+      }
+      Signature sig = new Signature(child);
+      Node existing = register.get(sig);
+      if(existing != null) {
+        node.targets.set(node.targets.size()-1, existing);
+      } else {
+        child.id = registered.size() + 1;   // 0 is reserved for the root
+        registered.add(child);
+        register.put(sig, child);
+      }
+    }
+
+    private int rule(String form, String lemma) {
+      int common = commonPrefix(form, lemma);
+      boolean upperFirst = false;
+      if(lemma.length() > 0 && form.length() > 0 && lemma.charAt(0) != form.charAt(0) &&
+              lemma.charAt(0) == Character.toUpperCase(form.charAt(0))) {
+        int commonUpper = 1 + commonPrefix(form.substring(1), lemma.substring(1));
+        if(commonUpper > common) {
+          common = commonUpper;
+          upperFirst = true;
+        }
+      }
+      int cut = form.length() - common;
+      String suffix = lemma.substring(common);
+      String key = cut + (upperFirst ? "^" : "=") + suffix;
+      int index = ruleIds.indexOf(key);
+      if(ruleIds.indexExists(index)) {
+        return ruleIds.indexGet(index);
+      }
+      int id = ruleCut.size();
+      ruleIds.indexInsert(index, key, id);
+      ruleCut.add(cut);
+      ruleSuffix.add(suffix);
+      ruleUpperFirst.add(upperFirst);
+      return id;
+    }
+
+    private static int commonPrefix(String a, String b) {
+      int max = Math.min(a.length(), b.length());
+      int i = 0;
+      while(i < max && a.charAt(i) == b.charAt(i)) {
+        i++;
+      }
+      return i;
+    }
+
+    AutomatonLemmaDictionary finish() {
+      if(root.labels.size() > 0) {
+        replaceOrRegister(root);
+      }
+      register.clear();
+      int nrStates = registered.size() + 1;
+      Node[] states = new Node[nrStates];
+      states[0] = root;
+      root.id = 0;
+      for(Node node : registered) {
+        states[node.id] = node;
+      }
+      int nrTransitions = 0;
+      for(Node node : states) {
+        nrTransitions += node.labels.size();
+      }
+      int[] firstTransition = new int[nrStates + 1];
+      char[] labels = new char[nrTransitions];
+      int[] targets = new int[nrTransitions];
+      int[] stateRule = new int[nrStates];
+      int t = 0;
+      for(int s = 0; s < nrStates; s++) {
+        Node node = states[s];
+        firstTransition[s] = t;
+        stateRule[s] = node.rule;
+        for(int i = 0; i < node.labels.size(); i++) {
+          labels[t] = node.labels.get(i);
+          targets[t] = node.targets.get(i).id;
+          t++;
+        }
+      }
+      firstTransition[nrStates] = t;
+      boolean[] upperFirst = new boolean[ruleUpperFirst.size()];
+      for(int i = 0; i < upperFirst.length; i++) {
+        upperFirst[i] = ruleUpperFirst.get(i);
+      }
+      return new AutomatonLemmaDictionary(firstTransition, labels, targets, stateRule,
+              ruleCut.toArray(), ruleSuffix.toArray(new String[ruleSuffix.size()]), upperFirst, nrForms);
+    }
+
+  }
+
+}
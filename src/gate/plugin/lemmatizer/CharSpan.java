@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+/**
+ * A re-usable view of a range of characters in some other character sequence.
+ * <p>
+ * This is used to look up words in the dictionaries without creating 
+ * a new string for each token: the view can be pointed at a range of the 
+ * document text and it can present the characters lower-cased on the fly. 
+ * A String is only created when {@link #toString()} is called.
+ * <p>
+ * Instances are mutable and must not be shared between threads.
+ *
+ * @author Johann Petrak
+ */
+public class CharSpan implements CharSequence {
+  
+  private CharSequence base = "";
+  private int start = 0;
+  private int length = 0;
+  private boolean lowerCase = false;
+  
+  public CharSpan() {
+  }
+  
+  public CharSpan(boolean lowerCase) {
+    this.lowerCase = lowerCase;
+  }
+  
+  /**
+   * Make this view show the given range of the base sequence.
+   * 
+   * @param base the underlying characters
+   * @param start the start offset in the base
+   * @param end the end offset in the base (exclusive)
+   * @return this view
+   */
+  public CharSpan set(CharSequence base, int start, int end) {
+    this.base = base;
+    this.start = start;
+    this.length = end - start;
+    return this;
+  }
+  
+  /**
+   * Make this view show all of the base sequence.
+   * 
+   * @param base the underlying characters
+   * @return this view
+   */
+  public CharSpan set(CharSequence base) {
+    return set(base, 0, base.length());
+  }
+  
+  /**
+   * Make this view show the same characters as another view.
+   * 
+   * @param other the other view
+   * @return this view
+   */
+  public CharSpan set(CharSpan other) {
+    return set(other.base, other.start, other.start + other.length);
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    char c = base.charAt(start + index);
+    return lowerCase ? Character.toLowerCase(c) : c;
+  }
+
+  /**
+   * True if the characters are the same as those of the string, ignoring case. 
+   * @param other string to compare to
+   * @return flag
+   */
+  public boolean equalsIgnoreCase(String other) {
+    if(other.length() != length) {
+      return false;
+    }
+    for(int i = 0; i < length; i++) {
+      char c1 = Character.toLowerCase(base.charAt(start + i));
+      char c2 = Character.toLowerCase(other.charAt(i));
+      if(c1 != c2) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * True if any of the characters is white space or a control character,
+   * i.e. any of the characters which would get trimmed or replaced by 
+   * {@link gate.Utils#cleanStringFor}.
+   * @return flag
+   */
+  public boolean containsWhitespace() {
+    for(int i = 0; i < length; i++) {
+      if(base.charAt(start + i) <= ' ') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public CharSequence subSequence(int from, int to) {
+    return toString().substring(from, to);
+  }
+
+  @Override
+  public String toString() {
+    char[] chars = new char[length];
+    for(int i = 0; i < length; i++) {
+      chars[i] = charAt(i);
+    }
+    return new String(chars);
+  }
+  
+  /**
+   * Lower-case a string character by character in the same way as 
+   * a lower-casing view does. This must be used for the keys of all 
+   * dictionaries which get looked up with a lower-casing view.
+   * 
+   * @param str the string
+   * @return the lower-cased string
+   */
+  public static String toLowerCase(String str) {
+    return new CharSpan(true).set(str).toString();
+  }
+  
+}
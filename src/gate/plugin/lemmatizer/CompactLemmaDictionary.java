@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import com.carrotsearch.hppc.BitMixer;
+import com.carrotsearch.hppc.CharArrayList;
+import com.carrotsearch.hppc.ObjectIntHashMap;
+import com.carrotsearch.hppc.cursors.ObjectIntCursor;
+import gate.util.GateRuntimeException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A memory efficient lemma dictionary.
+ * <p>
+ * All word forms are stored back to back in a single array (of bytes
+ * if all characters are in the ISO-8859-1 range, of chars otherwise) and
+ * found through an open-addressing hash table of primitive ints. Each 
+ * form refers to its lemma by an index into an array of lemma strings, 
+ * so every distinct lemma is stored only once, no matter how many 
+ * forms it has. When several dictionaries get loaded with the same 
+ * lemma pool, equal lemmata are also shared between the dictionaries.
+ *
+ * @author Johann Petrak
+ */
+public class CompactLemmaDictionary implements LemmaDictionary {
+
+  /**
+   * A dictionary without any entries.
+   */
+  public static final CompactLemmaDictionary EMPTY = 
+          new CompactLemmaDictionary(new char[0], new int[] { 0 }, new int[0], new String[0]);
+  
+  // the characters of all forms, form i is the range formStart[i] to formStart[i+1]
+  // exactly one of these is non-null
+  private final byte[] formBytes;
+  private final char[] formChars;
+  private final int[] formStart;
+  // the index in the lemmas array for form i
+  private final int[] formLemma;
+  private final String[] lemmas;
+  // open addressing hash table, contains the index of a form plus one, 0 for empty slots
+  private final int[] table;
+  private final int mask;
+
+  protected CompactLemmaDictionary(char[] formChars, int[] formStart, int[] formLemma, String[] lemmas) {
+    boolean latin1 = true;
+    for(char c : formChars) {
+      if(c > 0xff) {
+        latin1 = false;
+        break;
+      }
+    }
+    if(latin1) {
+      formBytes = new byte[formChars.length];
+      for(int i = 0; i < formChars.length; i++) {
+        formBytes[i] = (byte)formChars[i];
+      }
+      this.formChars = null;
+    } else {
+      formBytes = null;
+      this.formChars = formChars;
+    }
+    this.formStart = formStart;
+    this.formLemma = formLemma;
+    this.lemmas = lemmas;
+    int n = formLemma.length;
+    // keep the load factor at or below 0.75 so that probe sequences stay short
+    int size = 2;
+    while(size * 3L / 4 < n + 1) {
+      size <<= 1;
+    }
+    table = new int[size];
+    mask = size - 1;
+    for(int i = 0; i < n; i++) {
+      int slot = hash(formChars, formStart[i], formStart[i+1]) & mask;
+      while(table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = i + 1;
+    }
+  }
+  
+  @Override
+  public String get(CharSequence form) {
+    int len = form.length();
+    int slot = hash(form) & mask;
+    int entry;
+    while((entry = table[slot]) != 0) {
+      int idx = entry - 1;
+      int from = formStart[idx];
+      if(formStart[idx+1] - from == len) {
+        int i = 0;
+        if(formBytes != null) {
+          while(i < len && (formBytes[from + i] & 0xff) == form.charAt(i)) {
+            i++;
+          }
+        } else {
+          while(i < len && formChars[from + i] == form.charAt(i)) {
+            i++;
+          }
+        }
+        if(i == len) {
+          return lemmas[formLemma[idx]];
+        }
+      }
+      slot = (slot + 1) & mask;
+    }
+    return null;
+  }
+  
+  @Override
+  public int size() {
+    return formLemma.length;
+  }
+  
+  /**
+   * The number of distinct lemmata in this dictionary.
+   * @return number of lemmata
+   */
+  public int nrLemmas() {
+    return lemmas.length;
+  }
+  
+  /**
+   * The form with the given index, for 0 &lt;= index &lt; size().
+   * @param index the index
+   * @return form
+   */
+  String formAt(int index) {
+    int from = formStart[index];
+    int to = formStart[index+1];
+    if(formBytes != null) {
+      char[] chars = new char[to - from];
+      for(int i = 0; i < chars.length; i++) {
+        chars[i] = (char)(formBytes[from + i] & 0xff);
+      }
+      return new String(chars);
+    } else {
+      return new String(formChars, from, to - from);
+    }
+  }
+  
+  /**
+   * The lemma of the form with the given index, for 0 &lt;= index &lt; size().
+   * @param index the index
+   * @return lemma
+   */
+  String lemmaAt(int index) {
+    return lemmas[formLemma[index]];
+  }
+  
+  @Override
+  public long memoryFootprint() {
+    long bytes = 0;
+    if(formBytes != null) {
+      bytes += arrayBytes(formBytes.length, 1);
+    } else {
+      bytes += arrayBytes(formChars.length, 2);
+    }
+    bytes += arrayBytes(formStart.length, 4);
+    bytes += arrayBytes(formLemma.length, 4);
+    bytes += arrayBytes(table.length, 4);
+    bytes += arrayBytes(lemmas.length, 4);
+    for(String lemma : lemmas) {
+      // String object plus its backing array
+      bytes += 24 + arrayBytes(lemma.length(), 2);
+    }
+    return bytes;
+  }
+  
+  private static long arrayBytes(int length, int elementSize) {
+    return (16 + (long)length * elementSize + 7) & ~7L;
+  }
+  
+  /**
+   * The hash code used for forms in the hash table. This is also used 
+   * for the compiled dictionary format, so must not be changed without 
+   * changing the format version.
+   * 
+   * @param form the form
+   * @return hash code
+   */
+  static int hash(CharSequence form) {
+    int len = form.length();
+    int h = 0;
+    for(int i = 0; i < len; i++) {
+      h = 31 * h + form.charAt(i);
+    }
+    return BitMixer.mix32(h);
+  }
+  
+  private static int hash(char[] chars, int from, int to) {
+    int h = 0;
+    for(int i = from; i < to; i++) {
+      h = 31 * h + chars[i];
+    }
+    return BitMixer.mix32(h);
+  }
+  
+  /**
+   * Load a dictionary from a gzip-compressed text file.
+   * <p>
+   * Each line in the file has the format {@code lemma===form1;form2;...}.
+   * If a form occurs more than once, the last lemma for it is used.
+   * 
+   * @param dictFile the dictionary file
+   * @param lemmaPool a map used to share identical lemma strings between 
+   * dictionaries, may be null
+   * @return the dictionary
+   */
+  public static CompactLemmaDictionary load(File dictFile, ConcurrentMap<String, String> lemmaPool) {
+    if(!dictFile.exists()) {
+      System.err.println("LemmatizerPR: WARNING - dictionary file does not exist:  "+dictFile.getAbsolutePath());
+      return EMPTY;
+    }
+    ObjectIntHashMap<String> form2lemma = new ObjectIntHashMap<String>();
+    ObjectIntHashMap<String> lemma2id = new ObjectIntHashMap<String>();
+    List<String> lemmaList = new ArrayList<String>();
+    BufferedReader in = null;
+    try {
+      in = new BufferedReader(
+              new InputStreamReader(
+                      new GZIPInputStream(
+                              new FileInputStream(dictFile)), "UTF-8"));
+      String str;
+      while ((str = in.readLine()) != null) {
+        if (!"".equals(str.trim())) {
+          String values[] = str.split("===");
+          if (values.length == 2) {
+            String lemma = values[0].trim();
+            int lemmaId;
+            int index = lemma2id.indexOf(lemma);
+            if(lemma2id.indexExists(index)) {
+              lemmaId = lemma2id.indexGet(index);
+            } else {
+              lemmaId = lemmaList.size();
+              if(lemmaPool != null) {
+                String pooled = lemmaPool.putIfAbsent(lemma, lemma);
+                if(pooled != null) {
+                  lemma = pooled;
+                }
+              }
+              lemmaList.add(lemma);
+              lemma2id.indexInsert(index, lemma, lemmaId);
+            }
+            String vals[] = values[1].split(";");
+            for (int i = 0; i < vals.length; i++) {
+              form2lemma.put(CharSpan.toLowerCase(vals[i]), lemmaId);
+            }
+          }
+        }
+      }
+      in.close();
+    } catch (Exception ex) {
+      throw new GateRuntimeException("Could not read dictionary " + dictFile.getAbsolutePath(), ex);
+    }
+    int n = form2lemma.size();
+    CharArrayList chars = new CharArrayList();
+    int[] formStart = new int[n+1];
+    int[] formLemma = new int[n];
+    int i = 0;
+    for(ObjectIntCursor<String> c : form2lemma) {
+      String form = c.key;
+      formStart[i] = chars.size();
+      for(int j = 0; j < form.length(); j++) {
+        chars.add(form.charAt(j));
+      }
+      formLemma[i] = c.value;
+      i++;
+    }
+    formStart[n] = chars.size();
+    return new CompactLemmaDictionary(chars.toArray(), formStart, formLemma, 
+            lemmaList.toArray(new String[lemmaList.size()]));
+  }
+  
+}
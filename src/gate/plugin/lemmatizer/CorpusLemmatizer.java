@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Command line tool to lemmatize large corpora in CoNLL-U or tab-separated 
+ * format without creating GATE documents.
+ * <p>
+ * Usage: {@code java -cp <classpath> gate.plugin.lemmatizer.CorpusLemmatizer [options] [file...]}
+ * <p>
+ * The files (or standard input if no file is given) are read in chunks of 
+ * lines which are lemmatized in parallel, the output is written in the 
+ * same order as the input to standard output or the file given with 
+ * {@code -out}. Files ending in ".gz" are decompressed.
+ * <p>
+ * For CoNLL-U, the LEMMA column of each word line is replaced, multi-word
+ * token and empty node lines, comments and empty lines are copied unchanged.
+ * For tab-separated input the lemma is added as a new last column of each
+ * line which has the word and POS tag columns, other lines are copied unchanged.
+ * <p>
+ * Options:
+ * <ul>
+ * <li>{@code -lang code}: the language, required
+ * <li>{@code -format conllu|tsv}: the input format, default conllu for files 
+ *   ending in ".conllu" (or ".conllu.gz") and tsv otherwise
+ * <li>{@code -wordcol n}, {@code -poscol n}: the columns (starting at 1) with the word
+ *   and the POS tag in tsv format, default 1 and 2
+ * <li>{@code -xpos}: for CoNLL-U use the XPOS instead of the UPOS column, 
+ *   usually together with {@code -posmap}
+ * <li>{@code -posmap file}: a POS tag mapping file as used for the PR parameter posTagMappingURL
+ * <li>{@code -resources dir}: the resources directory of the plugin, default "resources"
+ * <li>{@code -backend HASHTABLE|AUTOMATON}: the dictionary backend, default HASHTABLE
+ * <li>{@code -threads n}: the number of worker threads, default the number of processors
+ * <li>{@code -cache n}: the maximum number of cached HFST results, default 100000
+ * <li>{@code -out file}: the output file
+ * </ul>
+ * A summary with the number of tokens and the throughput is written to standard error.
+ * 
+ * @author Johann Petrak
+ */
+public class CorpusLemmatizer {
+  
+  private static final int CHUNK_LINES = 4096;
+  
+  private final LemmatizerEngine engine;
+  private final boolean conllu;
+  private final int wordCol;
+  private final int posCol;
+  private final AtomicLong nrTokens = new AtomicLong();
+
+  /**
+   * Create a lemmatizer for one input format.
+   * 
+   * @param engine the engine to use
+   * @param conllu true for CoNLL-U, false for tab-separated
+   * @param wordCol the column of the word (starting at 0)
+   * @param posCol the column of the POS tag (starting at 0)
+   */
+  public CorpusLemmatizer(LemmatizerEngine engine, boolean conllu, int wordCol, int posCol) {
+    this.engine = engine;
+    this.conllu = conllu;
+    this.wordCol = wordCol;
+    this.posCol = posCol;
+  }
+  
+  /**
+   * The number of tokens lemmatized so far.
+   * @return number of tokens
+   */
+  public long getNrTokens() {
+    return nrTokens.get();
+  }
+  
+  /**
+   * Lemmatize the lines of a chunk, returns the output lines.
+   */
+  String[] lemmatize(List<String> lines) {
+    int n = lines.size();
+    String[][] fields = new String[n][];
+    String[] words = new String[n];
+    String[] pos = new String[n];
+    for(int i = 0; i < n; i++) {
+      String line = lines.get(i);
+      if(line.isEmpty() || (conllu && line.startsWith("#"))) {
+        continue;
+      }
+      String[] f = line.split("\t", -1);
+      if(f.length <= wordCol || f.length <= posCol) {
+        continue;
+      }
+      // multi-word tokens (1-2) and empty nodes (1.1) in CoNLL-U are not lemmatized
+      if(conllu && (f[0].indexOf('-') >= 0 || f[0].indexOf('.') >= 0)) {
+        continue;
+      }
+      fields[i] = f;
+      words[i] = f[wordCol];
+      pos[i] = f[posCol];
+    }
+    String[] lemmas = new String[n];
+    engine.lemmatize(words, pos, lemmas, null, new LemmatizerEngine.Context());
+    String[] out = new String[n];
+    int tokens = 0;
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < n; i++) {
+      if(lemmas[i] == null) {
+        out[i] = lines.get(i);
+        continue;
+      }
+      tokens++;
+      String[] f = fields[i];
+      if(conllu) {
+        f[2] = lemmas[i];
+        sb.setLength(0);
+        for(int j = 0; j < f.length; j++) {
+          if(j > 0) {
+            sb.append('\t');
+          }
+          sb.append(f[j]);
+        }
+        out[i] = sb.toString();
+      } else {
+        out[i] = lines.get(i) + "\t" + lemmas[i];
+      }
+    }
+    nrTokens.addAndGet(tokens);
+    return out;
+  }
+  
+  /**
+   * Lemmatize everything from the reader and write it to the writer.
+   * <p>
+   * The reader is used from the calling thread, chunks of lines are 
+   * lemmatized by a pool of worker threads and written by another thread 
+   * in input order. At most a few chunks per thread are held in memory.
+   * 
+   * @param in the input
+   * @param out the output
+   * @param nrThreads the number of worker threads
+   * @throws IOException if reading or writing fails
+   */
+  public void run(BufferedReader in, final Writer out, int nrThreads) throws IOException {
+    ExecutorService workers = Executors.newFixedThreadPool(nrThreads);
+    // the futures in input order, the queue size limits how far reading
+    // can get ahead of writing
+    final BlockingQueue<Future<String[]>> pending = new ArrayBlockingQueue<Future<String[]>>(nrThreads * 2);
+    final Future<String[]> endMarker = new FutureTask<String[]>(
+            new Callable<String[]>() {
+      @Override
+      public String[] call() {
+        return null;
+      }
+    });
+    final AtomicReference<Throwable> writeError = new AtomicReference<Throwable>();
+    Thread writer = new Thread("CorpusLemmatizer writer") {
+      @Override
+      public void run() {
+        while(true) {
+          Future<String[]> future;
+          try {
+            future = pending.take();
+          } catch (InterruptedException ex) {
+            writeError.compareAndSet(null, ex);
+            return;
+          }
+          if(future == endMarker) {
+            break;
+          }
+          // after an error, keep taking chunks so that the reader never blocks
+          if(writeError.get() != null) {
+            continue;
+          }
+          try {
+            for(String line : future.get()) {
+              out.write(line);
+              out.write('\n');
+            }
+          } catch (Throwable ex) {
+            writeError.compareAndSet(null, ex);
+          }
+        }
+        try {
+          out.flush();
+        } catch (IOException ex) {
+          writeError.compareAndSet(null, ex);
+        }
+      }
+    };
+    // a daemon, so that the JVM can still exit if the writer does not end
+    writer.setDaemon(true);
+    writer.start();
+    boolean ended = false;
+    try {
+      List<String> chunk = new ArrayList<String>(CHUNK_LINES);
+      String line;
+      while((line = in.readLine()) != null && writeError.get() == null) {
+        chunk.add(line);
+        if(chunk.size() >= CHUNK_LINES) {
+          submit(workers, pending, chunk);
+          chunk = new ArrayList<String>(CHUNK_LINES);
+        }
+      }
+      if(!chunk.isEmpty()) {
+        submit(workers, pending, chunk);
+      }
+      pending.put(endMarker);
+      ended = true;
+      writer.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted", ex);
+    } finally {
+      workers.shutdownNow();
+      if(!ended) {
+        // reading failed, the writer would wait for the end marker forever
+        writer.interrupt();
+        try {
+          writer.join();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+    if(writeError.get() != null) {
+      Throwable ex = writeError.get();
+      if(ex instanceof ExecutionException) {
+        ex = ex.getCause();
+      }
+      if(ex instanceof IOException) {
+        throw (IOException)ex;
+      }
+      throw new IOException("Lemmatization failed", ex);
+    }
+  }
+  
+  private void submit(ExecutorService workers, BlockingQueue<Future<String[]>> pending, 
+          final List<String> chunk) throws InterruptedException {
+    pending.put(workers.submit(new Callable<String[]>() {
+      @Override
+      public String[] call() {
+        return lemmatize(chunk);
+      }
+    }));
+  }
+  
+  private static InputStream open(String name) throws IOException {
+    InputStream in = new FileInputStream(name);
+    if(name.endsWith(".gz")) {
+      in = new GZIPInputStream(in);
+    }
+    return in;
+  }
+  
+  private static void usage(String message) {
+    System.err.println(message);
+    System.err.println("Usage: CorpusLemmatizer -lang code [-format conllu|tsv] [-wordcol n] [-poscol n] [-xpos]");
+    System.err.println("         [-posmap file] [-resources dir] [-backend HASHTABLE|AUTOMATON]");
+    System.err.println("         [-threads n] [-cache n] [-maxpaths n] [-chain tiers] [-out file] [file...]");
+    System.exit(1);
+  }
+  
+  public static void main(String[] args) throws Exception {
+    String lang = null;
+    String format = null;
+    int wordCol = 1;
+    int posCol = 2;
+    boolean xpos = false;
+    String posMap = null;
+    File resourcesDir = new File("resources");
+    DictionaryBackend backend = DictionaryBackend.HASHTABLE;
+    int nrThreads = Runtime.getRuntime().availableProcessors();
+    int cacheSize = 100000;
+    int maxPaths = 100000;
+    ResolutionChain chain = null;
+    String outFile = null;
+    List<String> files = new ArrayList<String>();
+    for(int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if(arg.startsWith("-") && i + 1 >= args.length && !arg.equals("-xpos")) {
+        usage("Missing value for "+arg);
+      }
+      if(arg.equals("-lang")) {
+        lang = args[++i];
+      } else if(arg.equals("-format")) {
+        format = args[++i];
+      } else if(arg.equals("-wordcol")) {
+        wordCol = Integer.parseInt(args[++i]);
+      } else if(arg.equals("-poscol")) {
+        posCol = Integer.parseInt(args[++i]);
+      } else if(arg.equals("-xpos")) {
+        xpos = true;
+      } else if(arg.equals("-posmap")) {
+        posMap = args[++i];
+      } else if(arg.equals("-resources")) {
+        resourcesDir = new File(args[++i]);
+      } else if(arg.equals("-backend")) {
+        backend = DictionaryBackend.valueOf(args[++i].toUpperCase());
+      } else if(arg.equals("-threads")) {
+        nrThreads = Integer.parseInt(args[++i]);
+      } else if(arg.equals("-cache")) {
+        cacheSize = Integer.parseInt(args[++i]);
+      } else if(arg.equals("-maxpaths")) {
+        maxPaths = Integer.parseInt(args[++i]);
+      } else if(arg.equals("-chain")) {
+        try {
+          chain = ResolutionChain.parse(args[++i]);
+        } catch (IllegalArgumentException ex) {
+          usage(ex.getMessage());
+        }
+      } else if(arg.equals("-out")) {
+        outFile = args[++i];
+      } else if(arg.startsWith("-")) {
+        usage("Unknown option "+arg);
+      } else {
+        files.add(arg);
+      }
+    }
+    if(lang == null) {
+      usage("The language must be specified with -lang");
+    }
+    if(nrThreads < 1) {
+      usage("The number of threads must be at least 1");
+    }
+    if(format == null) {
+      format = !files.isEmpty() && files.get(0).matches(".*\\.conllu(\\.gz)?") ? "conllu" : "tsv";
+    }
+    boolean conllu = format.equals("conllu");
+    if(!conllu && !format.equals("tsv")) {
+      usage("Unknown format "+format);
+    }
+    PosTagMapping mapping = PosTagMapping.UNIVERSAL;
+    if(posMap != null) {
+      mapping = PosTagMapping.load(new File(posMap).toURI().toURL());
+    }
+    LemmatizerResources resources = LemmatizerResources.load(resourcesDir, lang, backend);
+    LemmatizerEngine engine = new LemmatizerEngine(resources, mapping, 
+            cacheSize > 0 ? new LemmaCache(cacheSize) : null, new LemmatizerStatistics(),
+            new HfstSearchLimits(maxPaths, 0), chain);
+    CorpusLemmatizer lemmatizer = conllu ? 
+            new CorpusLemmatizer(engine, true, 1, xpos ? 4 : 3) :
+            new CorpusLemmatizer(engine, false, wordCol - 1, posCol - 1);
+    
+    Writer out = new BufferedWriter(new OutputStreamWriter(
+            outFile == null ? System.out : new FileOutputStream(outFile), "UTF-8"), 1 << 16);
+    long start = System.nanoTime();
+    if(files.isEmpty()) {
+      lemmatizer.run(new BufferedReader(new InputStreamReader(System.in, "UTF-8"), 1 << 16), out, nrThreads);
+    } else {
+      for(String file : files) {
+        BufferedReader in = new BufferedReader(new InputStreamReader(open(file), "UTF-8"), 1 << 16);
+        lemmatizer.run(in, out, nrThreads);
+        in.close();
+      }
+    }
+    out.close();
+    double seconds = (System.nanoTime() - start) / 1e9;
+    long tokens = lemmatizer.getNrTokens();
+    System.err.printf("Lemmatizer: %d tokens in %.2fs, %.0f tokens/s with %d threads%n", 
+            tokens, seconds, tokens / seconds, nrThreads);
+    System.err.print(engine.getStatistics());
+  }
+  
+}
@@ -25,15 +25,19 @@ package gate.plugin.lemmatizer;
 import gate.*;
 import gate.api.AbstractDocumentProcessor;
 import gate.creole.ResourceData;
+import gate.creole.ResourceInstantiationException;
 import gate.creole.metadata.*;
+import gate.util.Benchmark;
 import gate.util.GateRuntimeException;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A PR to find lemmata for words.
@@ -146,37 +150,288 @@ public class DictLemmatizerPR  extends AbstractDocumentProcessor {
   public String getLanguageCode() { return languageCode; }
   
   
+  private String languageFeature = "";
+  @RunTime
+  @Optional
+  @CreoleParameter( 
+          comment = "If not empty, the document feature (or feature of the containing annotation) with the language code, languageCode is used if the feature is missing",
+          defaultValue = ""
+  )
+  public void setLanguageFeature(String val) {
+    languageFeature = val;
+  }
+  public String getLanguageFeature() { return languageFeature; }
+  
+  
+  private int languageMemoryBudget = 0;
+  @RunTime
+  @Optional
+  @CreoleParameter( 
+          comment = "When using languageFeature, the approximate memory in MB the resources for all languages may use before the least recently used languages are unloaded, 0 for no limit",
+          defaultValue = "0"
+  )
+  public void setLanguageMemoryBudget(Integer val) {
+    languageMemoryBudget = val == null ? 0 : val;
+  }
+  public Integer getLanguageMemoryBudget() { return languageMemoryBudget; }
+  
+  
+  private URL posTagMappingURL = null;
+  @RunTime
+  @Optional
+  @CreoleParameter( 
+          comment = "A file which maps the POS tags used to universal dependency tags, if empty the universal dependency tags are expected and used as they are"
+  )
+  public void setPosTagMappingURL(URL val) {
+    posTagMappingURL = val;
+  }
+  public URL getPosTagMappingURL() { return posTagMappingURL; }
+  
+  
+  private int hfstCacheSize = 50000;
+  @RunTime
+  @CreoleParameter( 
+          comment = "The maximum number of HFST results to cache, 0 to disable caching",
+          defaultValue = "50000"
+  )
+  public void setHfstCacheSize(Integer val) {
+    hfstCacheSize = val == null ? 0 : val;
+  }
+  public Integer getHfstCacheSize() { return hfstCacheSize; }
+  
+  
+  private int hfstMaxPaths = 100000;
+  @RunTime
+  @Optional
+  @CreoleParameter( 
+          comment = "The maximum number of transitions the HFST may follow for one token, 0 for no limit",
+          defaultValue = "100000"
+  )
+  public void setHfstMaxPaths(Integer val) {
+    hfstMaxPaths = val == null ? 0 : val;
+  }
+  public Integer getHfstMaxPaths() { return hfstMaxPaths; }
+  
+  
+  private int hfstTimeBudget = 0;
+  @RunTime
+  @Optional
+  @CreoleParameter( 
+          comment = "The maximum time in microseconds the HFST may take for one token, 0 for no limit",
+          defaultValue = "0"
+  )
+  public void setHfstTimeBudget(Integer val) {
+    hfstTimeBudget = val == null ? 0 : val;
+  }
+  public Integer getHfstTimeBudget() { return hfstTimeBudget; }
+  
+  
+  private String resolutionChain = "";
+  @RunTime
+  @Optional
+  @CreoleParameter( 
+          comment = "The tiers tried in order to find a lemma, e.g. 'dictionary,suffix,hfst', empty for dictionary then HFST if the language has a model, otherwise dictionary only",
+          defaultValue = ""
+  )
+  public void setResolutionChain(String val) {
+    resolutionChain = val;
+  }
+  public String getResolutionChain() { return resolutionChain; }
+  
+  
+  private int parallelism = 1;
+  @RunTime
+  @Optional
+  @CreoleParameter( 
+          comment = "The number of threads used to lemmatize the tokens of large documents, 1 to do everything on the calling thread",
+          defaultValue = "1"
+  )
+  public void setParallelism(Integer val) {
+    parallelism = val == null ? 1 : val;
+  }
+  public Integer getParallelism() { return parallelism; }
+  
+  
+  private int latencySamplingInterval = LemmatizerStatistics.DEFAULT_SAMPLING_INTERVAL;
+  @RunTime
+  @Optional
+  @CreoleParameter( 
+          comment = "Measure the latencies of every n-th token, 0 to not measure latencies of tokens",
+          defaultValue = "64"
+  )
+  public void setLatencySamplingInterval(Integer val) {
+    latencySamplingInterval = val == null ? 0 : val;
+  }
+  public Integer getLatencySamplingInterval() { return latencySamplingInterval; }
+  
+  
+  private DictionaryBackend dictionaryBackend = DictionaryBackend.HASHTABLE;
+  @CreoleParameter(
+          comment = "The data structure used for the dictionaries: HASHTABLE is faster, AUTOMATON needs much less memory",
+          defaultValue = "HASHTABLE"
+  )
+  public void setDictionaryBackend(DictionaryBackend val) {
+    dictionaryBackend = val;
+  }
+  public DictionaryBackend getDictionaryBackend() { return dictionaryBackend; }
+  
+  
+  private boolean loadDictionariesLazily = false;
+  @CreoleParameter(
+          comment = "If true, each dictionary is only loaded when a token with its POS tag is first looked up",
+          defaultValue = "false"
+  )
+  public void setLoadDictionariesLazily(Boolean val) {
+    loadDictionariesLazily = val == null ? false : val;
+  }
+  public Boolean getLoadDictionariesLazily() { return loadDictionariesLazily; }
+  
+  
+  private String preloadLanguage = "";
+  @Optional
+  @CreoleParameter(
+          comment = "If not empty, the resources for this language are loaded when the PR is created instead of before the first document",
+          defaultValue = ""
+  )
+  public void setPreloadLanguage(String val) {
+    preloadLanguage = val;
+  }
+  public String getPreloadLanguage() { return preloadLanguage; }
+  
+  
+  private boolean warmUp = false;
+  @CreoleParameter(
+          comment = "If true and a language is preloaded, look up some sample words so that the first document does not run slower",
+          defaultValue = "false"
+  )
+  public void setWarmUp(Boolean val) {
+    warmUp = val == null ? false : val;
+  }
+  public Boolean getWarmUp() { return warmUp; }
+  
+  
   ////////////////////// FIELDS
-  Map<String, String> nounDic;
-  Map<String, String> adjDic;
-  Map<String, String> advDic;
-  Map<String, String> verbDic;
-  Map<String, String> detDic;
-  Map<String, String> pronDic;
-  Map<String, String> partDic;
-  Map<String, String> adpDic;
   
   String textFeatureToUse = "";
   String posFeatureToUse = "category";
   String lemmaFeatureToUse = "lemma";
+  String languageFeatureToUse = null;
+  
+  // re-used for each token, see lemmatize
+  private final CharSpan tokenSpan = new CharSpan();
+  private String documentText = null;
+  
+  // the cache for HFST results, shared with all duplicates, null if not caching
+  LemmaCache hfstCache = null;
+  // the bounds for the HFST search for one token
+  HfstSearchLimits hfstLimits = HfstSearchLimits.UNLIMITED;
+  // the tiers tried to find a lemma, null for the default of each language
+  ResolutionChain chain = null;
+  
+  // does the actual work for the current language, created in beforeFirstDocument
+  // and whenever the language changes
+  LemmatizerEngine engine = null;
+  LemmatizerEngine.Context engineContext = new LemmatizerEngine.Context();
+  PosTagMapping posTagMapping = PosTagMapping.UNIVERSAL;
   
-  String loadedDicts = "";
-  String loadedFst = "";
+  // if languageFeature is used, the languages loaded for this PR and all duplicates
+  LanguageResourcesPool languagePool = null;
   
-  int nrTokens = 0;
-  int nrErrors = 0;
-  int nrHfst = 0;
-  int nrListLookups = 0;
-  int nrListLookupsNotFound = 0;
+  // the resources shared with all duplicates of this PR, null if not yet loaded
+  LemmatizerResources resources = null;
   
-  HfstLemmatizer hfstLemmatizer = null;  // if null we do not have a FST
+  // how the lemmata were found, shared with all duplicates
+  LemmatizerStatistics statistics = null;
   
-  // If this is true, the Hfst will always be suppressed.
-  // This can only be set (for debugging) by setting to propery 
-  // gateplugin-Lemmatizer.noHfst to something other than the string "false"; 
-  private boolean noHfst = false;
+  // if parallelism is more than 1, the pool used to lemmatize the tokens of
+  // large documents and the tokens collected for the current document
+  private ForkJoinPool forkJoinPool = null;
+  private TokenBatch tokenBatch = null;
   
-  private boolean noLists = false;
+  // documents with fewer tokens are always processed on the calling thread
+  private static final int MIN_PARALLEL_TOKENS = 5000;
+  // the number of tokens lemmatized by one task
+  private static final int PARALLEL_CHUNK_SIZE = 1024;
+  
+  
+  ////////////////////// INITIALIZATION
+  
+  @Override
+  public Resource init() throws ResourceInstantiationException {
+    super.init();
+    if(preloadLanguage != null && !preloadLanguage.trim().isEmpty()) {
+      long start = System.nanoTime();
+      String lang = preloadLanguage.trim();
+      try {
+        resources = LemmatizerResources.acquire(sharedData, getResourcesDir(), lang, 
+                dictionaryBackend, loadDictionariesLazily);
+      } catch (GateRuntimeException ex) {
+        throw new ResourceInstantiationException("Could not load the lemmatizer resources for "+lang,ex);
+      }
+      long loaded = System.nanoTime();
+      // the JIT compiles code for the whole JVM, so one instance warming up is enough
+      if(warmUp && duplicateId == 0) {
+        File sampleFile = new File(new File(getResourcesDir(),"warmup"),lang+".tsv");
+        if(sampleFile.exists()) {
+          // the same settings as for the documents, but the sample words
+          // neither get counted in the shared statistics nor fill the shared cache
+          LemmatizerStatistics warmUpStatistics = new LemmatizerStatistics();
+          warmUpStatistics.setSamplingInterval(latencySamplingInterval);
+          try {
+            LemmatizerEngine warmUpEngine = new LemmatizerEngine(resources, loadPosTagMapping(), 
+                    hfstCacheSize > 0 ? new LemmaCache(hfstCacheSize) : null, warmUpStatistics, 
+                    getSearchLimits(), parseResolutionChain());
+            warmUpEngine.warmUp(sampleFile, WARMUP_ROUNDS);
+          } catch (GateRuntimeException ex) {
+            throw new ResourceInstantiationException("Could not warm up the lemmatizer for "+lang,ex);
+          }
+        } else {
+          System.err.println("Lemmatizer: no warm-up words for "+lang+", not warming up");
+        }
+      }
+      long end = System.nanoTime();
+      System.err.println("Lemmatizer: ready for "+lang+" (resources "+(loaded-start)/1000000+
+              "ms, warm-up "+(end-loaded)/1000000+"ms)");
+    }
+    return this;
+  }
+  
+  private static final int WARMUP_ROUNDS = 20;
+  
+  /**
+   * True if the resources for a language have been loaded, either when the 
+   * PR was initialized or for the previous run.
+   * 
+   * @return flag
+   */
+  public boolean isReady() {
+    return resources != null;
+  }
+  
+  /**
+   * The language for which the resources have been loaded.
+   * @return the language code or null if nothing has been loaded
+   */
+  public String getLoadedLanguage() {
+    return resources == null ? null : resources.getLanguageCode();
+  }
+  
+  /**
+   * How the lemmata have been found by this PR and all its duplicates, 
+   * for each POS tag. The counts are kept over all runs until they are reset.
+   * @return the statistics
+   */
+  public LemmatizerStatistics getStatistics() {
+    return LemmatizerStatistics.getShared(sharedData);
+  }
+  
+  private File getResourcesDir() {
+    ResourceData myResourceData =
+        Gate.getCreoleRegister().get(this.getClass().getName());
+    java.net.URL creoleXml = myResourceData.getXmlFileUrl();
+    File pluginDir = gate.util.Files.fileFromURL(creoleXml).getParentFile();
+    return new File(pluginDir,"resources");
+  }
   
   
   ////////////////////// PROCESSING
@@ -207,16 +462,67 @@ public class DictLemmatizerPR  extends AbstractDocumentProcessor {
     }
 
     fireStatusChanged("Lemmatizer: running on " + document.getName() + "...");
+    long startTime = Benchmark.startPoint();
+    long startNanos = System.nanoTime();
+    
+    // this is the content string of the document, not a copy
+    documentText = document.getContent().toString();
+    
+    tokenBatch = null;
+    if(forkJoinPool != null && inputAnns.size() >= MIN_PARALLEL_TOKENS) {
+      tokenBatch = new TokenBatch(inputAnns.size());
+    }
+    
+    String documentLanguage = null;
+    if(languagePool != null) {
+      documentLanguage = getLanguage(document.getFeatures(), languageCode);
+      useLanguage(documentLanguage);
+    }
     
     if (containingAnns == null) {
       doIt(document,inputAnns);
     } else {
-      // do it for each containing annotation
-      for (Annotation containingAnn : containingAnns) {
-        doIt(document,gate.Utils.getContainedAnnotations(inputAnns,containingAnn));
+      // do it for each containing annotation: instead of querying the 
+      // annotation set for the tokens in each containing annotation, we 
+      // sort both by offset once and sweep over them together
+      List<Annotation> tokens = gate.Utils.inDocumentOrder(inputAnns);
+      int n = tokens.size();
+      long[] tokenStarts = new long[n];
+      long[] tokenEnds = new long[n];
+      for(int i = 0; i < n; i++) {
+        Annotation token = tokens.get(i);
+        tokenStarts[i] = token.getStartNode().getOffset();
+        tokenEnds[i] = token.getEndNode().getOffset();
+      }
+      // the first token which does not start before the current containing annotation
+      int first = 0;
+      for (Annotation containingAnn : gate.Utils.inDocumentOrder(containingAnns)) {
+        long start = containingAnn.getStartNode().getOffset();
+        long end = containingAnn.getEndNode().getOffset();
+        while(first < n && tokenStarts[first] < start) {
+          first++;
+        }
+        if(languagePool != null) {
+          useLanguage(getLanguage(containingAnn.getFeatures(), documentLanguage));
+        }
+        for(int i = first; i < n && tokenStarts[i] <= end; i++) {
+          if(tokenEnds[i] <= end) {
+            doIt(tokens.get(i));
+          }
+        }
       }
     }
     
+    if(tokenBatch != null) {
+      long batchStartTime = Benchmark.startPoint();
+      lemmatizeBatch();
+      tokenBatch = null;
+      benchmarkCheckpoint(batchStartTime, "__lemmatizeBatch");
+    }
+    
+    documentText = null;
+    statistics.record(LemmatizerStatistics.Stage.DOCUMENT, System.nanoTime() - startNanos);
+    benchmarkCheckpoint(startTime, "__lemmatize");
     fireProcessFinished();
     fireStatusChanged("Lemmatizer: processing complete!");
     return document;
@@ -224,140 +530,211 @@ public class DictLemmatizerPR  extends AbstractDocumentProcessor {
   
   private void doIt(Document doc, AnnotationSet anns) {
     for(Annotation token : anns) {
-      FeatureMap fm = token.getFeatures();
-      String pos = (String)fm.get(posFeatureToUse);
-      if(pos == null || pos.trim().isEmpty()) {
-        continue;
-      } else {
-        lemmatize(token,fm,pos);
-      }
+      doIt(token);
+    }
+  }
+  
+  private void doIt(Annotation token) {
+    FeatureMap fm = token.getFeatures();
+    String pos = (String)fm.get(posFeatureToUse);
+    if(pos == null || pos.trim().isEmpty()) {
+      return;
+    } else if(tokenBatch != null) {
+      collect(token,fm,pos);
+    } else {
+      lemmatize(token,fm,pos);
     }
   }
   
   private void lemmatize(Annotation token, FeatureMap fm, String pos) {
-    String lemmatizeStatus = "";   // an indication how we did the lemmatization for this token
-    nrTokens += 1;
-    String tokenString;
+    // To avoid creating strings for each token, we look at the token text
+    // through a view of the document text, the engine only creates a string
+    // for the token when it is needed for the HFST or as the lemma.
+    CharSequence word;
     if (textFeatureToUse == null) {
-      tokenString = gate.Utils.cleanStringFor(document, token);
+      int start = token.getStartNode().getOffset().intValue();
+      int end = token.getEndNode().getOffset().intValue();
+      tokenSpan.set(documentText, start, end);
+      if(tokenSpan.containsWhitespace()) {
+        word = gate.Utils.cleanStringFor(document, token);
+      } else {
+        word = tokenSpan;
+      }
     } else {
-      tokenString = (String) fm.get(textFeatureToUse);
+      word = (String) fm.get(textFeatureToUse);
     }
-    String kind = ((String) fm.get("kind")).toLowerCase();
-    String lemma = null;  // as long as the lemma is null we can still try to find one ...
-    if (kind.equals("number")) {
-      lemma = tokenString;
+    Object kind = fm.get("kind");
+    String lemma;
+    String lemmatizeStatus;   // an indication how we did the lemmatization for this token
+    if ("number".equalsIgnoreCase((String)kind)) {
+      lemma = word.toString();
       lemmatizeStatus = "number";
-    } else if (kind.equals("punct")) {
-      lemma = tokenString;
+      statistics.count(pos, LemmatizerStatistics.Path.PASS_THROUGH);
+    } else if ("punct".equalsIgnoreCase((String)kind)) {
+      lemma = word.toString();
       lemmatizeStatus = "punct";
-    //} else if (detDic.get(tokenString.toLowerCase()) != null) {
-    //  lemma = tokenString;
-    //  lemmatizeStatus = "determiner";
+      statistics.count(pos, LemmatizerStatistics.Path.PASS_THROUGH);
     } else {
-
-      // TODO: why is this done????
-      //String lemma = null;
-      //String posType = posTaggedVersion[s];
-      //if ("it".equalsIgnoreCase(language)) {
-      //  posType = posType.substring(0, 1);
-      //}
-      //System.out.println(posType);
-      //String generalType = posMap.get(posType.toLowerCase());
-      
-      // This is based on the Universial POS tags, see http://universaldependencies.org/u/pos/
-      if ("ADJ".equalsIgnoreCase(pos)) {
-        lemma = adjDic.get(tokenString.toLowerCase());
-        lemmatizeStatus = "ADJ";
-        nrListLookups += 1;
-        if(lemma==null) nrListLookupsNotFound += 1;
-      } else if ("ADP".equalsIgnoreCase(pos)) {
-        lemma = adpDic.get(tokenString.toLowerCase());
-        lemmatizeStatus = "ADP";
-        nrListLookups += 1;
-        if(lemma==null) nrListLookupsNotFound += 1;
-      } else if ("ADV".equalsIgnoreCase(pos)) {
-        lemma = advDic.get(tokenString.toLowerCase());
-        lemmatizeStatus = "ADV";
-        nrListLookups += 1;
-        if(lemma==null) nrListLookupsNotFound += 1;
-      // MISSING: AUX, CCONJ
-      } else if ("DET".equalsIgnoreCase(pos)) {
-        lemma = detDic.get(tokenString.toLowerCase());
-        lemmatizeStatus = "DET";
-        nrListLookups += 1;
-        if(lemma==null) nrListLookupsNotFound += 1;
-      // MISSSING: INTJ
-      } else if ("NOUN".equalsIgnoreCase(pos)) {
-        lemma = nounDic.get(tokenString.toLowerCase());
-        lemmatizeStatus = "NOUN";
-        nrListLookups += 1;
-        if(lemma==null) nrListLookupsNotFound += 1;
-      // MISSING: NUM
-      } else if ("PART".equalsIgnoreCase(pos)) {
-        lemma = partDic.get(tokenString.toLowerCase());
-        lemmatizeStatus = "PART";
-        nrListLookups += 1;
-        if(lemma==null) nrListLookupsNotFound += 1;
-      } else if ("PRON".equalsIgnoreCase(pos)) {
-        lemma = pronDic.get(tokenString.toLowerCase());
-        lemmatizeStatus = "PRON";
-        nrListLookups += 1;
-        if(lemma==null) nrListLookupsNotFound += 1;
-      // MISSING: PROPN, PUNCT, SCONJ, SYM
-      } else if ("VERB".equalsIgnoreCase(pos)) {
-        lemma = verbDic.get(tokenString.toLowerCase());
-        lemmatizeStatus = "VERB";
-        nrListLookups += 1;
-        if(lemma==null) nrListLookupsNotFound += 1;
-      // MISSING: X
-      } else {
-        lemmatizeStatus = "UNHANDLEDPOS-"+pos;        
+      lemma = engine.lemmatize(word, pos, engineContext);
+      lemmatizeStatus = engineContext.getStatus();
+      if(engineContext.sampled) {
+        long start = System.nanoTime();
+        fm.put(lemmaFeatureToUse, lemma);
+        fm.put("lemmatizer.status",lemmatizeStatus);
+        statistics.record(LemmatizerStatistics.Stage.FEATURE_WRITING, System.nanoTime() - start);
+        return;
       }
-      if(lemma == null) {
-        lemmatizeStatus += "-NOTFOUND";
+    }
+    fm.put(lemmaFeatureToUse, lemma);
+    fm.put("lemmatizer.status",lemmatizeStatus);
+  }
+  
+  /**
+   * The tokens of a document which get lemmatized in parallel. Only the
+   * lemmatization itself is done by the pool threads, everything which 
+   * involves the document or the annotations is done on the calling thread.
+   */
+  private static class TokenBatch {
+    final List<Annotation> tokens;
+    final List<String> words;
+    final List<String> pos;
+    final List<LemmatizerEngine> engines;
+    TokenBatch(int capacity) {
+      tokens = new ArrayList<Annotation>(capacity);
+      words = new ArrayList<String>(capacity);
+      pos = new ArrayList<String>(capacity);
+      engines = new ArrayList<LemmatizerEngine>(capacity);
+    }
+  }
+  
+  /**
+   * Lemmatizes a range of the tokens of a batch, splitting it up into
+   * smaller ranges which are processed in parallel.
+   */
+  private static class LemmatizeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    final String[] words;
+    final String[] pos;
+    final LemmatizerEngine[] engines;
+    final String[] lemmas;
+    final String[] statuses;
+    final int from;
+    final int to;
+    LemmatizeTask(String[] words, String[] pos, LemmatizerEngine[] engines, 
+            String[] lemmas, String[] statuses, int from, int to) {
+      this.words = words;
+      this.pos = pos;
+      this.engines = engines;
+      this.lemmas = lemmas;
+      this.statuses = statuses;
+      this.from = from;
+      this.to = to;
+    }
+    @Override
+    protected void compute() {
+      if(to - from > PARALLEL_CHUNK_SIZE) {
+        int mid = (from + to) >>> 1;
+        invokeAll(
+                new LemmatizeTask(words, pos, engines, lemmas, statuses, from, mid),
+                new LemmatizeTask(words, pos, engines, lemmas, statuses, mid, to));
       } else {
-        lemmatizeStatus += "-FOUND";
-      }
-      // TODO: replace with indicator of if we have a FST from the init phase
-      if (lemma == null && hfstLemmatizer != null && !noHfst) {        
-          try {
-            nrHfst += 1;
-            lemma = hfstLemmatizer.getLemma(tokenString,pos);
-            if(lemma != null && !lemma.isEmpty()) {
-              lemmatizeStatus += "-HFST_HAVE";
-            } else {
-              lemma = tokenString;
-              lemmatizeStatus += "-HFST_EMPTY";
-            }
-          } catch (Exception ex) {
-            System.err.println("Exception for "+tokenString+": "+ex.getClass()+", "+ex.getMessage());
-            ex.printStackTrace(System.err);
-            lemma = tokenString;
-            lemmatizeStatus += "-HFST_ERROR";
-            nrErrors += 1;
+        LemmatizerEngine.Context context = new LemmatizerEngine.Context();
+        // the tokens of different containing annotations may need different engines
+        int start = from;
+        while(start < to) {
+          int end = start + 1;
+          while(end < to && engines[end] == engines[start]) {
+            end++;
           }
+          engines[start].lemmatize(words, pos, lemmas, statuses, start, end, context);
+          start = end;
+        }
       }
-      // NOTE: this will only happen if we did not find a lemma in the dictionary and 
-      // HFST was not used for some reason
-      if(lemma == null) {
-        lemma = tokenString;
-        lemmatizeStatus += "-NOHFST";
+    }
+  }
+  
+  /**
+   * Like lemmatize, but only remember the token for lemmatizing it later 
+   * as part of the batch.
+   */
+  private void collect(Annotation token, FeatureMap fm, String pos) {
+    String word;
+    if (textFeatureToUse == null) {
+      int start = token.getStartNode().getOffset().intValue();
+      int end = token.getEndNode().getOffset().intValue();
+      tokenSpan.set(documentText, start, end);
+      if(tokenSpan.containsWhitespace()) {
+        word = gate.Utils.cleanStringFor(document, token);
+      } else {
+        word = tokenSpan.toString();
+      }
+    } else {
+      word = (String) fm.get(textFeatureToUse);
+    }
+    Object kind = fm.get("kind");
+    if ("number".equalsIgnoreCase((String)kind)) {
+      fm.put(lemmaFeatureToUse, word);
+      fm.put("lemmatizer.status","number");
+      statistics.count(pos, LemmatizerStatistics.Path.PASS_THROUGH);
+    } else if ("punct".equalsIgnoreCase((String)kind)) {
+      fm.put(lemmaFeatureToUse, word);
+      fm.put("lemmatizer.status","punct");
+      statistics.count(pos, LemmatizerStatistics.Path.PASS_THROUGH);
+    } else {
+      tokenBatch.tokens.add(token);
+      tokenBatch.words.add(word);
+      tokenBatch.pos.add(pos);
+      tokenBatch.engines.add(engine);
+    }
+  }
+  
+  /**
+   * Lemmatize the tokens collected for the document in parallel, then 
+   * set the features on the calling thread.
+   */
+  private void lemmatizeBatch() {
+    int n = tokenBatch.tokens.size();
+    String[] lemmas = new String[n];
+    String[] statuses = new String[n];
+    forkJoinPool.invoke(new LemmatizeTask(
+            tokenBatch.words.toArray(new String[n]),
+            tokenBatch.pos.toArray(new String[n]),
+            tokenBatch.engines.toArray(new LemmatizerEngine[n]),
+            lemmas, statuses, 0, n));
+    int interval = statistics.getSamplingInterval();
+    for(int i = 0; i < n; i++) {
+      FeatureMap fm = tokenBatch.tokens.get(i).getFeatures();
+      if(interval > 0 && i % interval == 0) {
+        long start = System.nanoTime();
+        fm.put(lemmaFeatureToUse, lemmas[i]);
+        fm.put("lemmatizer.status",statuses[i]);
+        statistics.record(LemmatizerStatistics.Stage.FEATURE_WRITING, System.nanoTime() - start);
+      } else {
+        fm.put(lemmaFeatureToUse, lemmas[i]);
+        fm.put("lemmatizer.status",statuses[i]);
       }
     }
-    fm.put(lemmaFeatureToUse, lemma);
-    fm.put("lemmatizer.status",lemmatizeStatus);
   }
   
-
   @Override
   protected void beforeFirstDocument(Controller ctrl) {
     
-    nrTokens = 0;
-    nrErrors = 0;
-    nrHfst = 0;
-    nrListLookups = 0;
-    nrListLookupsNotFound = 0;
+    engineContext = new LemmatizerEngine.Context();
+    statistics = LemmatizerStatistics.getShared(sharedData);
+    statistics.setSamplingInterval(latencySamplingInterval);
+    statistics.register(getName());
+    
+    if(parallelism > 1) {
+      if(forkJoinPool == null || forkJoinPool.getParallelism() != parallelism) {
+        if(forkJoinPool != null) {
+          forkJoinPool.shutdown();
+        }
+        forkJoinPool = new ForkJoinPool(parallelism);
+      }
+    } else if(forkJoinPool != null) {
+      forkJoinPool.shutdown();
+      forkJoinPool = null;
+    }
     
     if(posFeature == null || posFeature.trim().isEmpty()) {
       posFeatureToUse = "category";      
@@ -377,139 +754,210 @@ public class DictLemmatizerPR  extends AbstractDocumentProcessor {
       lemmaFeatureToUse = lemmaFeature;
     }
     
-    ResourceData myResourceData =
-        Gate.getCreoleRegister().get(this.getClass().getName());
-    java.net.URL creoleXml = myResourceData.getXmlFileUrl();
-    File pluginDir = gate.util.Files.fileFromURL(creoleXml).getParentFile();
-    File resourcesDir = new File(pluginDir,"resources");
-    File dictDir = new File(new File(resourcesDir,"dictionaries"),languageCode);
-    if(!loadedDicts.equals(languageCode)) {
-      // if there are no dictionaries or the use of dictionaries has been disabled,
-      // create empty ones, and only the hfst is used.
-      // Otherwise load the dictionaries, at least the ones which are there
-      noLists = false;
-      if(!dictDir.exists()) {
-        System.err.println("List directory "+dictDir+" for language "+languageCode+" does not exist, not using lists.");
-        noLists = true;
-      }
-      String noListsProp = System.getProperty("gateplugin-Lemmatizer.noLists");
-      if(noListsProp != null && !noListsProp.toLowerCase().equals("false")) {
-        System.err.println("DEBUG: gateplugin-Lemmatizer.noLists is set, not using lists");
-        noLists = true;
-      }
-      String noListsEnv = System.getenv("GATEPLUGIN_LEMMATIZER_NOLISTS");
-      if(noListsEnv != null && !noListsEnv.toLowerCase().equals("false")) {
-        System.err.println("DEBUG: GATEPLUGIN_LEMMATIZER_NOLISTS is set, not using lists");
-        noLists = true;
-      }
-      if(noLists) {
-        adjDic = emptyDictionary();
-        adpDic = emptyDictionary();
-        advDic = emptyDictionary();
-        detDic = emptyDictionary();
-        nounDic = emptyDictionary();
-        pronDic = emptyDictionary();
-        verbDic = emptyDictionary();     
-        partDic = emptyDictionary();
-      } else {
-        System.err.println("Lemmatizer: loading dictionaries for "+languageCode);
-        adjDic = loadDictionary(new File(dictDir,"ADJ-Dict.txt.gz"));
-        adpDic = loadDictionary(new File(dictDir, "ADP-Dict.txt.gz"));
-        advDic = loadDictionary(new File(dictDir,"ADV-Dict.txt.gz"));
-        detDic = loadDictionary(new File(dictDir,"DET-Dict.txt.gz"));
-        nounDic = loadDictionary(new File(dictDir,"NOUN-Dict.txt.gz"));
-        partDic = loadDictionary(new File(dictDir,"PART-Dict.txt.gz"));
-        pronDic = loadDictionary(new File(dictDir,"PRON-Dict.txt.gz"));
-        verbDic = loadDictionary(new File(dictDir,"VERB-Dict.txt.gz"));
-        System.err.println("Lemmatizer: dictionaries loaded");
-      }
-      loadedDicts = languageCode;
+    if(languageFeature == null || languageFeature.trim().isEmpty()) {
+      languageFeatureToUse = null;
+    } else {
+      languageFeatureToUse = languageFeature;
     }
     
-    // Load the hfst lemmatizer if it exists for the language, otherwise
-    // the hfstLemmatizer variable remains null
-    File lemmatizerDir = new File(resourcesDir,"lemmaModels");
-    File lemmatizerFile = new File(lemmatizerDir,languageCode+".hfst.ol.gz");
-    if(lemmatizerFile.exists()) {
-      if(!loadedFst.equals(languageCode)) {
-        try {
-          noHfst = false;
-          String noHfstProp = System.getProperty("gateplugin-Lemmatizer.noHfst");
-          if(noHfstProp != null && !noHfstProp.toLowerCase().equals("false")) {
-            System.err.println("DEBUG: gateplugin-Lemmatizer.noHfst is set, not using  HFST");
-            noHfst = true;
-          }
-          String noHfstEnv = System.getenv("GATEPLUGIN_LEMMATIZER_NOHFST");
-          if(noHfstEnv != null && !noHfstEnv.toLowerCase().equals("false")) {
-            System.err.println("DEBUG: GATEPLUGIN_LEMMATIZER_NOHFST is set, not using  HFST");
-            noHfst = true;
+    posTagMapping = loadPosTagMapping();
+    
+    // The resources for a language are loaded only once for this PR and 
+    // all its duplicates and are shared between them. If the language 
+    // has changed since the last run, we give up our reference to the old
+    // resources first.
+    // If the language is taken from a feature, the resources for all languages
+    // seen are kept in a pool, up to the memory budget, and the resources 
+    // for the default language are loaded now. The pool is released when
+    // the last duplicate gets cleaned up.
+    LanguageResourcesPool oldPool = languagePool;
+    if(languageFeatureToUse != null) {
+      languagePool = LanguageResourcesPool.getShared(sharedData, getResourcesDir(), 
+              dictionaryBackend, loadDictionariesLazily, languageMemoryBudget * 1024L * 1024L);
+    } else {
+      languagePool = null;
+    }
+    if(oldPool != null) {
+      oldPool.release();
+    }
+    // the cache is shared between all duplicates, if the size has been
+    // changed since it was created, we replace it
+    hfstCache = null;
+    if(hfstCacheSize > 0) {
+      while(hfstCache == null) {
+        LemmaCache cache = (LemmaCache)sharedData.get(HFST_CACHE_KEY);
+        if(cache == null) {
+          cache = new LemmaCache(hfstCacheSize);
+          if(sharedData.putIfAbsent(HFST_CACHE_KEY, cache) == null) {
+            hfstCache = cache;
           }
-          if(!noHfst) {
-            System.err.println("Lemmatizer: loading HFST model for "+languageCode);
-            hfstLemmatizer = HfstLemmatizer.load(lemmatizerFile,languageCode);
-            System.err.println("Lemmatizer: HFST model loaded");
+        } else if(cache.getCapacity() != hfstCacheSize) {
+          LemmaCache newCache = new LemmaCache(hfstCacheSize);
+          if(sharedData.replace(HFST_CACHE_KEY, cache, newCache)) {
+            hfstCache = newCache;
           }
-        } catch (Exception ex) {
-          throw new GateRuntimeException("Could not load lemmatization transducer "+lemmatizerFile,ex);
+        } else {
+          hfstCache = cache;
         }
-        loadedFst = languageCode;
       }
-    } else {
-      hfstLemmatizer = null;
     }
     
+    hfstLimits = getSearchLimits();
+    chain = parseResolutionChain();
+    
+    // the mapping, cache, limits or chain may have changed, so the engine always gets re-created
+    if(resources != null && resources.getBackend() != dictionaryBackend) {
+      resources.release();
+      resources = null;
+    }
+    engine = null;
+    useLanguage(languageCode);
+    
+    // only counted once nothing above can fail: if this method throws, 
+    // finishedNoDocument gets called instead of afterLastDocument
+    runningDuplicates().incrementAndGet();
+  }
+  
+  // the engine settings from the runtime parameters, also used for the warm-up
+  
+  private PosTagMapping loadPosTagMapping() {
+    if(posTagMappingURL == null) {
+      return PosTagMapping.UNIVERSAL;
+    }
+    return PosTagMapping.load(posTagMappingURL);
+  }
+  
+  private HfstSearchLimits getSearchLimits() {
+    return new HfstSearchLimits(Math.max(0, hfstMaxPaths), Math.max(0, hfstTimeBudget) * 1000L);
+  }
+  
+  private ResolutionChain parseResolutionChain() {
+    if(resolutionChain == null || resolutionChain.trim().isEmpty()) {
+      return null;
+    }
+    try {
+      return ResolutionChain.parse(resolutionChain);
+    } catch (IllegalArgumentException ex) {
+      throw new GateRuntimeException("Invalid resolution chain: "+ex.getMessage(),ex);
+    }
   }
     
 
+  /**
+   * Make sure the resources for the language are used for the following
+   * tokens, loading them if necessary.
+   */
+  private void useLanguage(String lang) {
+    if(engine != null && resources.getLanguageCode().equals(lang)) {
+      return;
+    }
+    if(resources != null && resources.getLanguageCode().equals(lang)) {
+      engine = new LemmatizerEngine(resources, posTagMapping, hfstCache, statistics, hfstLimits, chain);
+      return;
+    }
+    LemmatizerResources newResources;
+    if(languagePool != null) {
+      newResources = languagePool.acquire(lang);
+    } else {
+      newResources = LemmatizerResources.acquire(sharedData, getResourcesDir(), lang, 
+              dictionaryBackend, loadDictionariesLazily);
+    }
+    if(resources != null) {
+      resources.release();
+    }
+    resources = newResources;
+    engine = new LemmatizerEngine(resources, posTagMapping, hfstCache, statistics, hfstLimits, chain);
+  }
+  
+  /**
+   * Get the language from the language feature in the feature map.
+   */
+  private String getLanguage(FeatureMap fm, String defaultLanguage) {
+    Object lang = fm.get(languageFeatureToUse);
+    if(lang == null || lang.toString().trim().isEmpty()) {
+      return defaultLanguage;
+    }
+    return lang.toString().trim().toLowerCase();
+  }
+  
+  /**
+   * The number of duplicates which have started processing documents and 
+   * not finished yet, shared by all duplicates.
+   */
+  private AtomicInteger runningDuplicates() {
+    AtomicInteger running = (AtomicInteger)sharedData.get(RUNNING_KEY);
+    if(running == null) {
+      running = new AtomicInteger(0);
+      AtomicInteger existing = (AtomicInteger)sharedData.putIfAbsent(RUNNING_KEY, running);
+      if(existing != null) {
+        running = existing;
+      }
+    }
+    return running;
+  }
+  
+  private static final String RUNNING_KEY = "gate.plugin.lemmatizer.DictLemmatizerPR:running";
+  
   @Override
   protected void afterLastDocument(Controller ctrl, Throwable t) {
-    System.err.println("Tokens processed:                   "+nrTokens);
-    System.err.println("Tokens for which HFST was invoked:  "+nrHfst);
-    System.err.println("Tokens for which HFST had errors:   "+nrErrors);
-    System.err.println("Tokens for which Lists looked up:   "+nrListLookups);
-    System.err.println("Tokens for which not found in List: "+nrListLookupsNotFound);
+    // the counts are for all duplicates, so only the last one to finish shows them
+    if(runningDuplicates().decrementAndGet() > 0) {
+      return;
+    }
+    System.err.println("Counts for all duplicates so far:");
+    System.err.println("Tokens processed:                   "+statistics.getTokens());
+    System.err.println("Tokens for which HFST was invoked:  "+statistics.getHfstInvocations());
+    System.err.println("Tokens for which HFST was cut off:  "+statistics.getHfstCutoffs());
+    System.err.println("Tokens for which HFST had errors:   "+statistics.getCount(LemmatizerStatistics.Path.ERROR));
+    System.err.println("Tokens guessed from their suffix:   "+statistics.getCount(LemmatizerStatistics.Path.SUFFIX));
+    System.err.println("Tokens for which Lists looked up:   "+statistics.getDictionaryLookups());
+    System.err.println("Tokens for which not found in List: "+statistics.getDictionaryMisses());
+    System.err.print(statistics);
+    if(hfstCache != null) {
+      System.err.println("HFST cache hits (all duplicates):   "+hfstCache.getHits());
+      System.err.println("HFST cache misses (all duplicates): "+hfstCache.getMisses());
+      System.err.println("HFST cache entries:                 "+hfstCache.size());
+    }
+    if(languagePool != null) {
+      System.err.println("Languages loaded:                   "+
+              String.join(", ", languagePool.getResidentLanguages()));
+    }
   }
 
+  private static final String HFST_CACHE_KEY = "gate.plugin.lemmatizer.LemmaCache:hfst";
+  
   @Override
   protected void finishedNoDocument(Controller ctrl, Throwable t) {
   }
   
 
+  @Override
+  public void cleanup() {
+    if(duplicateId == 0 && statistics != null) {
+      statistics.unregister();
+    }
+    if(forkJoinPool != null) {
+      forkJoinPool.shutdown();
+      forkJoinPool = null;
+    }
+    if(resources != null) {
+      resources.release();
+      resources = null;
+    }
+    if(languagePool != null) {
+      languagePool.release();
+      languagePool = null;
+    }
+    super.cleanup();
+  }
+  
+
   public static Map<String, String> emptyDictionary() {
     return new HashMap<String, String>();
   }
   
   public static Map<String, String> loadDictionary(File dictFile) {
-    Map<String, String> map = new HashMap<String, String>();
-    if(!dictFile.exists()) {
-      System.err.println("LemmatizerPR: WARNING - dictionary file does not exist:  "+dictFile.getAbsolutePath());
-      return map;
-    }
-    BufferedReader in = null;
-    try {
-      in = new BufferedReader(
-              new InputStreamReader(
-                      new GZIPInputStream(
-                              new FileInputStream(dictFile)), "UTF-8"));
-      String str;
-      while ((str = in.readLine()) != null) {
-        if (!"".equals(str.trim())) {
-          String values[] = str.split("===");
-          if (values.length == 2) {
-            String vals[] = values[1].split(";");
-            for (int i = 0; i < vals.length; i++) {
-              String val = vals[i];
-              map.put(val.toLowerCase(), values[0].trim());
-
-            }
-          }
-        }
-      }
-      in.close();
-      return map;
-    } catch (Exception ex) {
-      throw new GateRuntimeException("Could not read dictionary " + dictFile.getAbsolutePath(), ex);
-    }
+    return LemmatizerResources.loadDictionary(dictFile);
   }
   
   
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+/**
+ * The data structure used to store the dictionaries.
+ * 
+ * @author Johann Petrak
+ */
+public enum DictionaryBackend {
+  /**
+   * Hash tables, see {@link CompactLemmaDictionary}, or the memory-mapped
+   * compiled dictionaries if they exist, see {@link MappedLemmaDictionary}.
+   */
+  HASHTABLE,
+  /**
+   * Minimal acyclic automata, see {@link AutomatonLemmaDictionary}. These 
+   * need much less memory but take longer to load and to look up.
+   */
+  AUTOMATON
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import com.carrotsearch.hppc.ObjectIntHashMap;
+import gate.util.GateRuntimeException;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line tool to compile the text dictionaries of a language into
+ * the binary format used by {@link MappedLemmaDictionary}.
+ * <p>
+ * Usage: {@code java -cp <classpath> gate.plugin.lemmatizer.DictionaryCompiler dir...}
+ * <p>
+ * Each directory is either the dictionary directory of one language, 
+ * containing the {@code *-Dict.txt.gz} files, or a directory which contains
+ * such language directories, e.g. {@code resources/dictionaries}. 
+ * The compiled file is written as {@value MappedLemmaDictionary#FILE_NAME} into 
+ * the language directory, together with the suffix rules learned from the
+ * dictionaries as {@value SuffixLemmatizer#FILE_NAME}.
+ * <p>
+ * For each HFST model {@code *.hfst.ol.gz} in a directory, e.g. 
+ * {@code resources/lemmaModels}, the cache file of 
+ * {@link OptimizedLookupTransducer} is written next to the model.
+ * 
+ * @author Johann Petrak
+ */
+public class DictionaryCompiler {
+  
+  public static void main(String[] args) {
+    if(args.length == 0) {
+      System.err.println("Usage: DictionaryCompiler dictionaryDir...");
+      System.exit(1);
+    }
+    for(String arg : args) {
+      File dir = new File(arg);
+      if(!dir.isDirectory()) {
+        System.err.println("Not a directory, ignored: "+dir);
+        continue;
+      }
+      File[] models = dir.listFiles();
+      if(models != null) {
+        for(File model : models) {
+          if(model.getName().endsWith(".hfst.ol.gz")) {
+            compileTransducer(model);
+          }
+        }
+      }
+      if(isLanguageDir(dir)) {
+        compile(dir);
+        compileSuffixRules(dir);
+      } else {
+        File[] subDirs = dir.listFiles();
+        if(subDirs != null) {
+          for(File subDir : subDirs) {
+            if(subDir.isDirectory() && isLanguageDir(subDir)) {
+              compile(subDir);
+              compileSuffixRules(subDir);
+            }
+          }
+        }
+      }
+    }
+  }
+  
+  private static boolean isLanguageDir(File dir) {
+    for(String tag : LemmatizerResources.DICTIONARY_TAGS) {
+      if(new File(dir, tag+"-Dict.txt.gz").exists()) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Write the cache file for an HFST model, see 
+   * {@link OptimizedLookupTransducer#cacheFileFor(java.io.File)}.
+   * 
+   * @param modelFile the model file, e.g. en.hfst.ol.gz
+   * @return the cache file
+   */
+  public static File compileTransducer(File modelFile) {
+    long startTime = System.currentTimeMillis();
+    OptimizedLookupTransducer transducer;
+    try {
+      transducer = OptimizedLookupTransducer.read(modelFile);
+    } catch (IOException ex) {
+      throw new GateRuntimeException("Could not read HFST model "+modelFile.getAbsolutePath(), ex);
+    }
+    File outFile = OptimizedLookupTransducer.cacheFileFor(modelFile);
+    transducer.writeCache(outFile);
+    System.err.println("DictionaryCompiler: compiled "+modelFile+" to "+outFile+
+            " ("+outFile.length()+" bytes) in "+(System.currentTimeMillis()-startTime)+"ms");
+    return outFile;
+  }
+  
+  /**
+   * Learn the suffix rules for the dictionaries in the directory and write
+   * them into the file {@value SuffixLemmatizer#FILE_NAME} in the same directory.
+   * 
+   * @param dictDir the dictionary directory of a language
+   * @return the rules file
+   */
+  public static File compileSuffixRules(File dictDir) {
+    long startTime = System.currentTimeMillis();
+    Map<String, SuffixLemmatizer> lemmatizers = SuffixLemmatizer.learnAll(dictDir);
+    File outFile = new File(dictDir, SuffixLemmatizer.FILE_NAME);
+    SuffixLemmatizer.write(lemmatizers, outFile);
+    System.err.println("DictionaryCompiler: learned suffix rules for "+dictDir+" into "+outFile+
+            " ("+outFile.length()+" bytes) in "+(System.currentTimeMillis()-startTime)+"ms");
+    return outFile;
+  }
+  
+  /**
+   * Compile the dictionaries in the directory into the file 
+   * {@value MappedLemmaDictionary#FILE_NAME} in the same directory.
+   * 
+   * @param dictDir the dictionary directory of a language
+   * @return the compiled file
+   */
+  public static File compile(File dictDir) {
+    File outFile = new File(dictDir, MappedLemmaDictionary.FILE_NAME);
+    compile(dictDir, outFile);
+    return outFile;
+  }
+  
+  /**
+   * Compile the dictionaries in the directory into the given file.
+   * 
+   * @param dictDir the dictionary directory of a language
+   * @param outFile the file to write
+   */
+  public static void compile(File dictDir, File outFile) {
+    long startTime = System.currentTimeMillis();
+    String[] tags = LemmatizerResources.DICTIONARY_TAGS;
+    CompactLemmaDictionary[] dicts = new CompactLemmaDictionary[tags.length];
+    for(int i = 0; i < tags.length; i++) {
+      dicts[i] = CompactLemmaDictionary.load(new File(dictDir, tags[i]+"-Dict.txt.gz"), null);
+    }
+    
+    // the lemma pool for all dictionaries
+    ObjectIntHashMap<String> lemma2id = new ObjectIntHashMap<String>();
+    List<String> lemmas = new ArrayList<String>();
+    int[][] formLemmas = new int[tags.length][];
+    for(int i = 0; i < tags.length; i++) {
+      formLemmas[i] = new int[dicts[i].size()];
+      for(int f = 0; f < dicts[i].size(); f++) {
+        String lemma = dicts[i].lemmaAt(f);
+        int index = lemma2id.indexOf(lemma);
+        if(lemma2id.indexExists(index)) {
+          formLemmas[i][f] = lemma2id.indexGet(index);
+        } else {
+          formLemmas[i][f] = lemmas.size();
+          lemma2id.indexInsert(index, lemma, lemmas.size());
+          lemmas.add(lemma);
+        }
+      }
+    }
+    
+    // size of the directory and the lemma pool, so we can calculate the 
+    // offsets of the dictionaries
+    int offset = 12;
+    for(String tag : tags) {
+      offset += 2 + 2 * tag.length() + 4;
+    }
+    int nrLemmaChars = 0;
+    for(String lemma : lemmas) {
+      nrLemmaChars += lemma.length();
+    }
+    offset += 4 + 4 * (lemmas.size() + 1) + 2 * nrLemmaChars;
+    String[][] forms = new String[tags.length][];
+    int[][] tables = new int[tags.length][];
+    int[] offsets = new int[tags.length];
+    for(int i = 0; i < tags.length; i++) {
+      int n = dicts[i].size();
+      forms[i] = new String[n];
+      int nrChars = 0;
+      for(int f = 0; f < n; f++) {
+        forms[i][f] = dicts[i].formAt(f);
+        nrChars += forms[i][f].length();
+      }
+      int size = 2;
+      while(size * 3L / 4 < n + 1) {
+        size <<= 1;
+      }
+      int[] table = new int[size];
+      for(int f = 0; f < n; f++) {
+        int slot = CompactLemmaDictionary.hash(forms[i][f]) & (size - 1);
+        while(table[slot] != 0) {
+          slot = (slot + 1) & (size - 1);
+        }
+        table[slot] = f + 1;
+      }
+      tables[i] = table;
+      offsets[i] = offset;
+      offset += 8 + 4 * size + 4 * (n + 1) + 4 * n + 2 * nrChars;
+    }
+    
+    File tmpFile = new File(outFile.getPath()+".tmp");
+    try {
+      DataOutputStream out = new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+      out.writeInt(MappedLemmaDictionary.MAGIC);
+      out.writeInt(MappedLemmaDictionary.VERSION);
+      out.writeInt(tags.length);
+      for(int i = 0; i < tags.length; i++) {
+        out.writeShort(tags[i].length());
+        out.writeChars(tags[i]);
+        out.writeInt(offsets[i]);
+      }
+      out.writeInt(lemmas.size());
+      int pos = 0;
+      for(String lemma : lemmas) {
+        out.writeInt(pos);
+        pos += lemma.length();
+      }
+      out.writeInt(pos);
+      for(String lemma : lemmas) {
+        out.writeChars(lemma);
+      }
+      for(int i = 0; i < tags.length; i++) {
+        if(out.size() != offsets[i]) {
+          throw new GateRuntimeException("Internal error: wrong offset for dictionary "+tags[i]);
+        }
+        out.writeInt(forms[i].length);
+        out.writeInt(tables[i].length);
+        for(int slot : tables[i]) {
+          out.writeInt(slot);
+        }
+        pos = 0;
+        for(String form : forms[i]) {
+          out.writeInt(pos);
+          pos += form.length();
+        }
+        out.writeInt(pos);
+        for(int lemmaId : formLemmas[i]) {
+          out.writeInt(lemmaId);
+        }
+        for(String form : forms[i]) {
+          out.writeChars(form);
+        }
+      }
+      out.close();
+    } catch (GateRuntimeException ex) {
+      tmpFile.delete();
+      throw ex;
+    } catch (Exception ex) {
+      tmpFile.delete();
+      throw new GateRuntimeException("Could not write compiled dictionary "+outFile.getAbsolutePath(), ex);
+    }
+    if(outFile.exists() && !outFile.delete()) {
+      throw new GateRuntimeException("Could not replace compiled dictionary "+outFile.getAbsolutePath());
+    }
+    if(!tmpFile.renameTo(outFile)) {
+      throw new GateRuntimeException("Could not rename "+tmpFile.getAbsolutePath()+" to "+outFile.getAbsolutePath());
+    }
+    System.err.println("DictionaryCompiler: compiled "+dictDir+" to "+outFile+
+            " ("+outFile.length()+" bytes) in "+(System.currentTimeMillis()-startTime)+"ms");
+  }
+  
+}
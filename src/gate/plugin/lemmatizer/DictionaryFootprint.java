@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Command line tool to report the heap needed for the dictionaries of
+ * each language, comparing plain hash maps with the compact dictionary
+ * and the dictionary automaton.
+ * <p>
+ * Usage: {@code java -cp <classpath> gate.plugin.lemmatizer.DictionaryFootprint [dictionariesDir]}
+ * where the directory defaults to {@code resources/dictionaries}. The 
+ * heap usage is measured as the difference in used heap after garbage 
+ * collection, so the tool should be run with a heap large enough to 
+ * hold the biggest language with hash maps.
+ *
+ * @author Johann Petrak
+ */
+public class DictionaryFootprint {
+
+  public static void main(String[] args) {
+    File dictsDir = new File(args.length > 0 ? args[0] : "resources/dictionaries");
+    File[] langDirs = dictsDir.listFiles();
+    if(langDirs == null) {
+      System.err.println("Not a directory: "+dictsDir);
+      System.exit(1);
+    }
+    Arrays.sort(langDirs);
+    System.out.println("lang\tforms\tHashMap(MB)\tCompact(MB)\tratio\tAutomaton(MB)\tratio");
+    for(File langDir : langDirs) {
+      if(!langDir.isDirectory()) {
+        continue;
+      }
+      List<Object> keep = new ArrayList<Object>();
+      long before = usedHeap();
+      int nrForms = 0;
+      for(String tag : LemmatizerResources.DICTIONARY_TAGS) {
+        Map<String, String> map = LemmatizerResources.loadDictionary(new File(langDir, tag+"-Dict.txt.gz"));
+        nrForms += map.size();
+        keep.add(map);
+      }
+      long hashMapBytes = usedHeap() - before;
+      keep.clear();
+      before = usedHeap();
+      ConcurrentMap<String, String> lemmaPool = new ConcurrentHashMap<String, String>();
+      for(String tag : LemmatizerResources.DICTIONARY_TAGS) {
+        keep.add(CompactLemmaDictionary.load(new File(langDir, tag+"-Dict.txt.gz"), lemmaPool));
+      }
+      lemmaPool = null;
+      long compactBytes = usedHeap() - before;
+      keep.clear();
+      before = usedHeap();
+      for(String tag : LemmatizerResources.DICTIONARY_TAGS) {
+        keep.add(AutomatonLemmaDictionary.load(new File(langDir, tag+"-Dict.txt.gz")));
+      }
+      long automatonBytes = usedHeap() - before;
+      System.out.println(langDir.getName()+"\t"+nrForms+"\t"+
+              mb(hashMapBytes)+"\t"+mb(compactBytes)+"\t"+ratio(hashMapBytes, compactBytes)+"\t"+
+              mb(automatonBytes)+"\t"+ratio(hashMapBytes, automatonBytes));
+      keep.clear();
+    }
+  }
+
+  private static String ratio(long bytes, long otherBytes) {
+    return String.format("%.1f", (double)bytes / Math.max(1, otherBytes));
+  }
+
+  private static String mb(long bytes) {
+    return String.format("%.1f", bytes / (1024.0 * 1024.0));
+  }
+
+  private static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    for(int i = 0; i < 4; i++) {
+      System.gc();
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
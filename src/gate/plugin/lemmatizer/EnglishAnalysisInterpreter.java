@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+/**
+ * Interprets the analyses of the English HFST model, e.g. <code>house[N]+N+PL</code>.
+ *
+ * @author Johann Petrak
+ */
+public class EnglishAnalysisInterpreter extends AbstractAnalysisInterpreter {
+
+  public EnglishAnalysisInterpreter() {
+    addRule("NOUN", "[N]+N", "[N]+N");
+    addRule("VERB", "[V]+V", "[V]+V");
+    addRule("ADJ", "[ADJ]+ADJ", "[ADJ]+ADJ");
+    addRule("ADV", "[ADV]+ADV", "[ADV]+ADV");
+  }
+
+  @Override
+  public String getLanguage() {
+    return "en";
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import gate.plugin.lemmatizer.HfstLemmatizer.TagMatcher;
+
+/**
+ * Interprets the analyses of a German HFST model in the SMOR format, e.g.
+ * <code>Haus&lt;NN&gt;T&uuml;r&lt;+NN&gt;&lt;Fem&gt;&lt;Nom&gt;&lt;Sg&gt;</code>, where the lemma of 
+ * compounds has to be put together from the parts.
+ *
+ * @author Johann Petrak
+ */
+public class GermanAnalysisInterpreter extends AbstractAnalysisInterpreter {
+
+  public GermanAnalysisInterpreter() {
+    addRule("NOUN", "<+NN>", "<+NN>");
+    addRule("VERB", "<+V>", "<+V>");
+    addRule("ADJ", "<+ADJ>", "<+ADJ>");
+    addRule("ADV", "<+ADV>", "<+ADV>");
+    addRule("CONJ", "<+KONJ>", "<+KONJ>");
+  }
+
+  @Override
+  public String getLanguage() {
+    return "de";
+  }
+
+  /**
+   * Put together the lemma from the compound parts in the analysis.
+   */
+  @Override
+  public String getLemma(String aWord, String analysis, TagMatcher matcher) {
+    String remaining = cutFrom(analysis, matcher.getCut());
+    String vals[] = split(remaining, '>');
+    StringBuilder buffer = new StringBuilder();
+    String suffix = "";
+    for (int i = 0; i < vals.length - 1; i++) {
+      String val = vals[i];
+      if (!val.startsWith("<CAP")) {
+        val = cutFrom(val, "<");
+        buffer.append(val.toLowerCase());
+      }
+    }
+    String lastWord = cutFrom(vals[vals.length - 1], "<");
+    if (lastWord.endsWith("<SUFF")) {
+      suffix = lastWord.toLowerCase();
+    }
+    String result = null;
+    String word = aWord.toLowerCase();
+    if (word.equals(buffer.toString())) {
+      return word;
+    } else {
+      // TODO: apparently the lastWord can be the empty string here sometimes!
+      if(lastWord.equals("")) {
+        return null;
+      }
+      String lastChar = lastWord.substring(lastWord.length() - 1, lastWord.length());
+      String local = buffer.toString() + lastChar;
+      if (local.equalsIgnoreCase(aWord)) {
+        return local;
+      }            
+      // TODO: this sometimes tries to take the substring using index -1
+      // TODO!! BUG!!!
+      // So we wrapped the if around it but not sure if this is the correct thing to do!!
+      if(lastWord.length() > 2) {
+        String last2Char = lastWord.substring(lastWord.length() - 2, lastWord.length());            
+        local = buffer.toString() + last2Char;
+      }
+      if (local.equalsIgnoreCase(aWord)) {
+        return local;
+      }
+    }
+    if (word.startsWith(buffer.toString()) && !buffer.toString().trim().equals("")) {
+      String wordRemaining = removeAll(word, buffer.toString());
+      wordRemaining = removeAll(wordRemaining, lastWord.toLowerCase());
+      if (!wordRemaining.trim().equals("") && wordRemaining.trim().length() <= 2) {
+        if (!suffix.equals("")) {
+          result = buffer.append(wordRemaining).toString();
+        } else {
+          String local = buffer.toString() + lastWord.toLowerCase();
+          if (word.startsWith(local)) {
+            result = local;
+          } else {
+            result = buffer.append(wordRemaining).append(lastWord.toLowerCase()).toString();
+          }
+        }
+      } else {
+        result = buffer.append(lastWord.toLowerCase()).toString();
+      }
+    } else if (buffer.toString().trim().equals("")) {
+      result = cutFrom(buffer.append(vals[vals.length - 1].toLowerCase()).toString(), "<");
+    }
+
+    if (result != null) {
+      result = removeChar(removeChar(result, '{'), '}');
+    }
+    return result;
+  }
+
+}
@@ -19,20 +19,17 @@
  */
 package gate.plugin.lemmatizer;
 
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 //import net.hfst.NoTokenizationException;
 import fi.seco.hfst.Transducer;
 import fi.seco.hfst.Transducer.Result;
-import fi.seco.hfst.TransducerAlphabet;
-import fi.seco.hfst.TransducerHeader;
-import fi.seco.hfst.TransducerStream;
 import fi.seco.hfst.UnweightedTransducer;
-import fi.seco.hfst.WeightedTransducer;
+import gate.util.GateRuntimeException;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
+import java.util.ServiceLoader;
 
 /**
  * A class representing the HFST lemmatizer transducer.
@@ -43,6 +40,10 @@ import java.util.zip.GZIPInputStream;
 public class HfstLemmatizer {
 
   private Transducer transducer = null;
+  // the same as transducer if that is one of ours, otherwise null
+  private OptimizedLookupTransducer lookupTransducer = null;
+  // if the analyses have weights, otherwise the first acceptable one is used
+  private boolean weighted;
   private String langCode = null;
   
   public final static long TRANSITION_TARGET_TABLE_START = 2147483648l; // 2^31 or UINT_MAX/2 rounded up
@@ -58,230 +59,269 @@ public class HfstLemmatizer {
   
   protected HfstLemmatizer(Transducer t, String langCode) {
     transducer = t;
+    if(t instanceof OptimizedLookupTransducer) {
+      lookupTransducer = (OptimizedLookupTransducer) t;
+      weighted = lookupTransducer.isWeighted();
+    } else {
+      weighted = !(t instanceof UnweightedTransducer);
+    }
     this.langCode = langCode;
+    initInterpreter();
   }
 
+  /**
+   * Load the transducer from a gzip-compressed HFST optimized-lookup file.
+   * <p>
+   * The transducer is loaded as {@link OptimizedLookupTransducer}, from its 
+   * cache file if there is one which is not older than the model file.
+   * 
+   * @param resourceFile the model file, e.g. en.hfst.ol.gz
+   * @param langCode the language of the model
+   * @return the lemmatizer
+   * @throws Exception if the model cannot be loaded
+   * @throws GateRuntimeException if there is no analysis interpreter for the language
+   */
   public static HfstLemmatizer load(File resourceFile, String langCode) throws Exception {
-    Transducer tr;
-    // TODO: the TransducerHeader and WeightedTransducer etc classes cannot
-    // handle InputStream they need FileInputStream so it is not possible
-    // to do on-the-fly compression of the model files. Would need to 
-    // change the library or find a version that can do this.
-    FileInputStream ifs = new FileInputStream(resourceFile);
-    GZIPInputStream gis = new GZIPInputStream(ifs);
-    TransducerStream ts = new TransducerStream(new DataInputStream(gis));
-    TransducerHeader h = new TransducerHeader(ts);
-    TransducerAlphabet a  = new TransducerAlphabet(ts, h.getSymbolCount());
-    if (h.isWeighted()) {
-      tr = new WeightedTransducer(ts, h, a);
-    } else {
-      tr = new UnweightedTransducer(ts, h, a);
+    OptimizedLookupTransducer olt = null;
+    File cacheFile = OptimizedLookupTransducer.cacheFileFor(resourceFile);
+    if(cacheFile.exists() && cacheFile.lastModified() >= resourceFile.lastModified()) {
+      try {
+        olt = OptimizedLookupTransducer.map(cacheFile);
+      } catch (IOException ex) {
+        System.err.println("Lemmatizer: ignoring HFST cache file, "+ex.getMessage());
+      }
+    }
+    if(olt == null) {
+      olt = OptimizedLookupTransducer.read(resourceFile);
+    }
+    HfstLemmatizer lemmatizer = new HfstLemmatizer(olt, langCode);
+    lemmatizer.memoryFootprint = olt.memoryFootprint();
+    return lemmatizer;
+  }
+  
+  private long memoryFootprint = 0;
+  
+  /**
+   * The number of heap bytes used by the transducer tables, 0 if the 
+   * transducer was not loaded by {@link #load(java.io.File, java.lang.String)}.
+   * 
+   * @return bytes
+   */
+  public long memoryFootprint() {
+    return memoryFootprint;
+  }
+
+  /**
+   * What to look for in the analyses of a word for a specific POS tag: 
+   * for the interpreters derived from {@link AbstractAnalysisInterpreter}
+   * an analysis is used if it contains the check string, the lemma 
+   * is obtained by removing everything from the first occurrence of the
+   * cut string.
+   */
+  public static class TagMatcher {
+    final String tag;
+    final String check;
+    final String cut;
+    public TagMatcher(String tag, String check, String cut) {
+      this.tag = tag;
+      this.check = check;
+      this.cut = cut;
+    }
+    /**
+     * True if analyses can be used for this tag at all.
+     * @return flag
+     */
+    public boolean canMatch() {
+      return check != null;
+    }
+    public String getTag() {
+      return tag;
+    }
+    public String getCheck() {
+      return check;
+    }
+    public String getCut() {
+      return cut;
     }
-    return new HfstLemmatizer(tr, langCode);
+  }
+  
+  // the interpreter for our language
+  private AnalysisInterpreter interpreter;
+  
+  // without an interpreter no analysis could ever be used, so rather than 
+  // silently not finding any lemma we refuse to load the model
+  private void initInterpreter() {
+    interpreter = findInterpreter(langCode);
+    if(interpreter == null) {
+      throw new GateRuntimeException("No analysis interpreter for HFST language "+langCode+
+              ", is META-INF/services/"+AnalysisInterpreter.class.getName()+" missing from the classpath?");
+    }
+  }
+  
+  /**
+   * Find the interpreter for a language among the registered services.
+   * 
+   * @param langCode the language code, case is ignored
+   * @return the interpreter or null if there is none
+   */
+  public static AnalysisInterpreter findInterpreter(String langCode) {
+    // use our own class loader, GATE loads each plugin with its own
+    ServiceLoader<AnalysisInterpreter> loader = 
+            ServiceLoader.load(AnalysisInterpreter.class, AnalysisInterpreter.class.getClassLoader());
+    for(AnalysisInterpreter candidate : loader) {
+      if(candidate.getLanguage().equalsIgnoreCase(langCode)) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+  
+  public AnalysisInterpreter getInterpreter() {
+    return interpreter;
+  }
+  
+  /**
+   * Get the matcher for a POS tag. This should be done once for each tag
+   * and the matcher re-used for all words with that tag.
+   * 
+   * @param aPOSType the POS tag, case is ignored
+   * @return the matcher, if the tag is not supported for the language, 
+   * a matcher which never matches anything
+   */
+  public TagMatcher getMatcher(String aPOSType) {
+    TagMatcher matcher = interpreter.getMatcher(aPOSType.toUpperCase());
+    if(matcher == null) {
+      matcher = new TagMatcher(aPOSType, null, null);
+    }
+    return matcher;
   }
 
   public String getLemma(String aWord, String aPOSType) throws Exception {
-    List<Result> analyses;
+    return getLemma(aWord, getMatcher(aPOSType));
+  }
+  
+  public String getLemma(String aWord, TagMatcher matcher) throws Exception {
+    return getLemma(aWord, matcher, HfstSearchLimits.UNLIMITED);
+  }
+  
+  /**
+   * Find the lemma of a word with a bounded search of the transducer.
+   * 
+   * @param aWord the word
+   * @param matcher the matcher for the tag of the word
+   * @param limits the bounds for the search
+   * @return the lemma or null if there is none
+   * @throws Exception if the transducer fails
+   */
+  public String getLemma(String aWord, TagMatcher matcher, HfstSearchLimits limits) throws Exception {
     // NOTE: this will not catch any exceptions so we can catch them in the caller
     // and do some debugging
-    analyses = transducer.analyze(aWord);
-    //for (Result analysis : analyses) {
-    //  System.err.println("DEBUG Lemmatizer analysis of "+aWord+": "+analysis);
-    //}
-    for (Result analysisResult : analyses) {
-      // TODO: this is incorrect, we need to change this
+    String analysis = findAnalysis(aWord, matcher, limits);
+    if(analysis == null) {
+      return null;
+    }
+    return interpreter.getLemma(aWord, analysis, matcher);
+  }
+  
+  public String findAnalysis(String aWord, TagMatcher matcher) throws Exception {
+    return findAnalysis(aWord, matcher, HfstSearchLimits.UNLIMITED);
+  }
+  
+  /**
+   * Find the best analysis of a word which the interpreter accepts: the 
+   * first one for an unweighted transducer, the one with the lowest weight
+   * for a weighted transducer. If several have the lowest weight, the one 
+   * which comes first in the order of {@link String#compareTo(java.lang.String)}
+   * is used, so the result does not depend on the order in which the 
+   * analyses are found.
+   * <p>
+   * If the interpreter is an {@link AbstractAnalysisInterpreter}, the 
+   * analyses are filtered by the check string of the matcher while the 
+   * transducer is traversed and the traversal stops as soon as the best
+   * one is known, so no other analysis is ever created and the limits are 
+   * applied, see {@link OptimizedLookupTransducer#findAnalysis(java.lang.String, java.lang.String, gate.plugin.lemmatizer.HfstSearchLimits)}. 
+   * Otherwise all analyses are created and passed to the interpreter.
+   * 
+   * @param aWord the word
+   * @param matcher the matcher for the tag of the word
+   * @param limits the bounds for the search
+   * @return the analysis, all symbols concatenated, or null if there is none
+   * @throws Exception if the transducer fails
+   */
+  public String findAnalysis(String aWord, TagMatcher matcher, HfstSearchLimits limits) throws Exception {
+    if(!matcher.canMatch()) {
+      if(lookupTransducer != null) {
+        // there is no search, so none was cut off
+        lookupTransducer.clearCutOff();
+      }
+      return null;
+    }
+    if(lookupTransducer != null && interpreter instanceof AbstractAnalysisInterpreter) {
+      return lookupTransducer.findAnalysis(aWord, matcher.getCheck(), limits);
+    }
+    String best = null;
+    float bestWeight = 0f;
+    for (Result analysisResult : transducer.analyze(aWord)) {
       String analysis = String.join("", analysisResult.getSymbols());
-      if ("en".equalsIgnoreCase(langCode)) {
-        String grammar = "NONE";
-        String grammarCheck = "NONE";
-        if ("NOUN".equalsIgnoreCase(aPOSType)) {
-          grammar = "\\[N\\]\\+N.*";
-          grammarCheck = "[N]+N";
-        } else if ("VERB".equalsIgnoreCase(aPOSType)) {
-          grammar = "\\[V\\]\\+V.*";
-          grammarCheck = "[V]+V";
-        } else if ("ADJ".equalsIgnoreCase(aPOSType)) {
-          grammar = "\\[ADJ\\]\\+ADJ.*";
-          grammarCheck = "[ADJ]+ADJ";
-        } else if ("ADV".equalsIgnoreCase(aPOSType)) {
-          grammar = "\\[ADV\\]\\+ADV.*";
-          grammarCheck = "[ADV]+ADV";
-        }
-        //System.out.println(analysis);
-        if (analysis.contains(grammarCheck)) {
-          String lemma = analysis.replaceAll(grammar, "");
-          if ((lemma.contains("+") && !lemma.contains("-")) && (aWord.contains("-") && !aWord.contains("+"))) {
-            lemma = lemma.replaceAll("\\+", "-");
-          }
-          if (lemma.contains("+") && !aWord.contains("+")) {
-            lemma = lemma.replaceAll("\\+", "");
-          }
-          return lemma.toLowerCase();
-        }
-      } else if ("de".equalsIgnoreCase(langCode)) {
-        String grammar = "NONE";
-        String grammar2 = ">";
-        String grammarCheck = "NONE";
-        if ("NOUN".equalsIgnoreCase(aPOSType)) {
-          grammar = "<\\+NN>.*";
-          grammarCheck = "<+NN>";
-        } else if ("VERB".equalsIgnoreCase(aPOSType)) {
-          grammar = "<\\+V>.*";
-          grammarCheck = "<+V>";
-        } else if ("ADJ".equalsIgnoreCase(aPOSType)) {
-          grammar = "<\\+ADJ>.*";
-          grammarCheck = "<+ADJ>";
-        } else if ("ADV".equalsIgnoreCase(aPOSType)) {
-          grammar = "<\\+ADV>.*";
-          grammarCheck = "<+ADV>";
-        } else if ("CONJ".equalsIgnoreCase(aPOSType)) {
-          grammar = "<\\+KONJ>.*";
-          grammarCheck = "<+KONJ>";
-        }
-        //System.out.println(analysis);
-        if (analysis.contains(grammarCheck)) {
-          String remaining = analysis.replaceAll(grammar, "");
-          String vals[] = remaining.split(grammar2);
-          StringBuffer buffer = new StringBuffer();
-          String suffix = "";
-          for (int i = 0; i < vals.length - 1; i++) {
-            String val = vals[i];
-            //System.out.println(val);
-            if (!val.startsWith("<CAP")) {
-              val = val.replaceAll("<.*", "");
-              buffer.append(val.toLowerCase());
-            }
-          }
-          String lastWord = vals[vals.length - 1].toString().replaceAll("<.*", "");
-          if (lastWord.endsWith("<SUFF")) {
-            suffix = lastWord.toLowerCase();
-          }
-          String result = null;
-//                    if (aWord.toLowerCase().startsWith(buffer.toString() + "s") && !buffer.toString().trim().equals("") && !secondWord.startsWith("s")) {
-//                        result = buffer.append("s").append(vals[vals.length - 1].toLowerCase()).toString().replaceAll("<.*", "");
-//                    } else 
-          if (aWord.toLowerCase().equals(buffer.toString())) {
-            return aWord.toLowerCase();
-          } else {
-            // TODO: apparently the lastWord can be the empty string here sometimes!
-            if(lastWord.equals("")) {
-              //System.err.println("DEBUG Lemmatizer: lastWord is empty, orig="+vals[vals.length-1]+", buffer="+buffer);
-              return null;
-            }
-            String lastChar = lastWord.substring(lastWord.length() - 1, lastWord.length());
-            String local = buffer.toString() + lastChar;
-            //System.out.println(local);
-            if (local.equalsIgnoreCase(aWord)) {
-              return local;
-            }            
-            // TODO: this sometimes tries to take the substring using index -1
-            // TODO!! BUG!!!
-            // So we wrapped the if around it but not sure if this is the correct thing to do!!
-            if(lastWord.length() > 2) {
-              String last2Char = lastWord.substring(lastWord.length() - 2, lastWord.length());            
-              local = buffer.toString() + last2Char;
-            }
-            //System.out.println(local);
-            if (local.equalsIgnoreCase(aWord)) {
-              return local;
-            }
-          }
-          if (aWord.toLowerCase().startsWith(buffer.toString()) && !buffer.toString().trim().equals("")) {
-            String wordRemaining = aWord.toLowerCase().replaceAll(buffer.toString(), "");
-            wordRemaining = wordRemaining.replaceAll(lastWord.toLowerCase(), "");
-            if (!wordRemaining.trim().equals("") && wordRemaining.trim().length() <= 2) {
-              if (!suffix.equals("")) {
-                result = buffer.append(wordRemaining).toString();
-              } else {
-                String local = buffer.toString() + lastWord.toLowerCase().toString();
-                if (aWord.toLowerCase().startsWith(local)) {
-                  result = local;
-                } else {
-                  //System.out.println("hep " + aWord + " _ " + buffer.toString() + " _ " + vals[vals.length - 1].toLowerCase().toString().replaceAll("<.*", "") + " _ " + wordRemaining);
-                  result = buffer.append(wordRemaining).append(lastWord.toLowerCase()).toString();
-                }
-              }
-            } else {
-              result = buffer.append(lastWord.toLowerCase()).toString();
-
-            }
-          } else if (buffer.toString().trim().equals("")) {
-            result = buffer.append(vals[vals.length - 1].toLowerCase()).toString().replaceAll("<.*", "");
-          }
-
-          if (result != null) {
-            result = result.replaceAll("\\{", "").replaceAll("\\}", "");
-          }
-          return result;
-        }
-      } else if ("it".equalsIgnoreCase(langCode)) {
-
-        String grammar = "NONE";
-        String grammarCheck = "NONE";
-        if ("NOUN".equalsIgnoreCase(aPOSType)) {
-          grammar = "#NOUN.*";
-          grammarCheck = "#NOUN";
-        } else if ("VERB".equalsIgnoreCase(aPOSType)) {
-          grammar = "#VER.*";
-          grammarCheck = "#VER";
-        } else if ("ADJ".equalsIgnoreCase(aPOSType)) {
-          grammar = "#ADJ.*";
-          grammarCheck = "#ADJ";
-        } else if ("ADV".equalsIgnoreCase(aPOSType)) {
-          grammar = "#ADV.*";
-          grammarCheck = "#ADV";
-        } else if ("CONJ".equalsIgnoreCase(aPOSType)) {
-          grammar = "#CON.*";
-          grammarCheck = "#CON";
-
-        }
-        //System.out.println(analysis);
-        if (analysis.contains(grammarCheck)) {
-          String lemma = analysis.replaceAll(grammar, "");
-          if ((lemma.contains("+") && !lemma.contains("-")) && (aWord.contains("-") && !aWord.contains("+"))) {
-            lemma = lemma.replaceAll("\\+", "-");
-          }
-          if (lemma.contains("+") && !aWord.contains("+")) {
-            lemma = lemma.replaceAll("\\+", "");
-          }
-          return lemma.toLowerCase();
-        }
-      } else if ("fr".equalsIgnoreCase(langCode)) {
-        String grammar = "NONE";
-        String grammarCheck = "NONE";
-        if ("NOUN".equalsIgnoreCase(aPOSType)) {
-          grammar = "\\+commonNoun.*";
-          grammarCheck = "+commonNoun";
-        } else if ("VERB".equalsIgnoreCase(aPOSType)) {
-          grammar = "\\+verb+.*";
-          grammarCheck = "+verb+";
-        } else if ("ADJ".equalsIgnoreCase(aPOSType)) {
-          grammar = "\\+adjective.*";
-          grammarCheck = "+adjective";
-        } else if ("ADV".equalsIgnoreCase(aPOSType)) {
-          grammar = "\\+adverb.*";
-          grammarCheck = "+adverb";
-        } else if ("PRON".equalsIgnoreCase(aPOSType) || "CONJ".equalsIgnoreCase(aPOSType)) {
-          grammar = "\\+functionWord.*";
-          grammarCheck = "+functionWord";
-
-        }
-        //System.out.println(analysis);
-        if (analysis.contains(grammarCheck)) {
-          String lemma = analysis.replaceAll(grammar, "");
-          if ((lemma.contains("+") && !lemma.contains("-")) && (aWord.contains("-") && !aWord.contains("+"))) {
-            lemma = lemma.replaceAll("\\+", "-");
-          }
-          if (lemma.contains("+") && !aWord.contains("+")) {
-            lemma = lemma.replaceAll("\\+", "");
-          }
-          return lemma.toLowerCase();
-        }
+      float weight = analysisResult.getWeight();
+      boolean better = best == null || (weighted && (weight < bestWeight || 
+              (weight == bestWeight && analysis.compareTo(best) < 0)));
+      if (better && interpreter.accepts(analysis, matcher)) {
+        best = analysis;
+        bestWeight = weight;
       }
     }
-    if (analyses.isEmpty()) {
+    return best;
+  }
+  
+  /**
+   * True if the last search of the calling thread for 
+   * {@link #findAnalysis(java.lang.String, gate.plugin.lemmatizer.HfstLemmatizer.TagMatcher, gate.plugin.lemmatizer.HfstSearchLimits)}
+   * was stopped by its limits, so that a better analysis may have been missed.
+   * 
+   * @return flag
+   */
+  public boolean wasCutOff() {
+    return lookupTransducer != null && lookupTransducer.wasCutOff();
+  }
+  
+  /**
+   * Run the transducer on a word.
+   * <p>
+   * This and {@link #getLemma(java.lang.String, java.util.List, gate.plugin.lemmatizer.HfstLemmatizer.TagMatcher)}
+   * do in two steps what {@link #getLemma(java.lang.String, gate.plugin.lemmatizer.HfstLemmatizer.TagMatcher)} 
+   * does in one, e.g. in order to time them separately.
+   * 
+   * @param aWord the word
+   * @return the analyses, each as one string
+   * @throws Exception if the transducer fails
+   */
+  public List<String> analyze(String aWord) throws Exception {
+    List<Result> analyses = transducer.analyze(aWord);
+    List<String> strings = new ArrayList<String>(analyses.size());
+    for (Result analysisResult : analyses) {
+      strings.add(String.join("", analysisResult.getSymbols()));
+    }
+    return strings;
+  }
+  
+  /**
+   * Find the lemma in the analyses of a word.
+   * 
+   * @param aWord the word
+   * @param analyses the analyses of the word as returned by {@link #analyze(java.lang.String)}
+   * @param matcher the matcher for the tag of the word
+   * @return the lemma or null if no analysis matches
+   */
+  public String getLemma(String aWord, List<String> analyses, TagMatcher matcher) {
+    if(!matcher.canMatch()) {
       return null;
     }
+    for (String analysis : analyses) {
+      if (interpreter.accepts(analysis, matcher)) {
+        return interpreter.getLemma(aWord, analysis, matcher);
+      }
+    }
     return null;
   }
 
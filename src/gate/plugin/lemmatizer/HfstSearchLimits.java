@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+/**
+ * Bounds for the search of the HFST for the analysis of one word, so that 
+ * no single token can take arbitrarily long.
+ * <p>
+ * The search may follow at most a number of transitions, each of which 
+ * extends a partial path, and may take at most a time budget. When one of 
+ * the bounds is reached, the search stops and uses the best analysis it has
+ * found so far, if any. The bound on the transitions gives the same result 
+ * every time, the time budget depends on the machine and its load. 
+ * Instances are immutable.
+ *
+ * @author Johann Petrak
+ */
+public final class HfstSearchLimits {
+
+  /**
+   * No bounds at all.
+   */
+  public static final HfstSearchLimits UNLIMITED = new HfstSearchLimits(0, 0);
+
+  private final int maxPaths;
+  private final long timeBudgetNanos;
+
+  /**
+   * Create limits.
+   * 
+   * @param maxPaths the maximum number of transitions followed, 0 for no limit
+   * @param timeBudgetNanos the maximum time in nanoseconds, 0 for no limit
+   */
+  public HfstSearchLimits(int maxPaths, long timeBudgetNanos) {
+    if(maxPaths < 0 || timeBudgetNanos < 0) {
+      throw new IllegalArgumentException("Search limits must not be negative: "+maxPaths+", "+timeBudgetNanos);
+    }
+    this.maxPaths = maxPaths;
+    this.timeBudgetNanos = timeBudgetNanos;
+  }
+
+  /**
+   * The maximum number of transitions followed for one word.
+   * @return the number, 0 if there is no limit
+   */
+  public int getMaxPaths() {
+    return maxPaths;
+  }
+
+  /**
+   * The maximum time for one word.
+   * @return nanoseconds, 0 if there is no limit
+   */
+  public long getTimeBudgetNanos() {
+    return timeBudgetNanos;
+  }
+
+  /**
+   * True if there are no bounds.
+   * @return flag
+   */
+  public boolean isUnlimited() {
+    return maxPaths == 0 && timeBudgetNanos == 0;
+  }
+
+  @Override
+  public String toString() {
+    return "HfstSearchLimits(maxPaths="+maxPaths+", timeBudgetNanos="+timeBudgetNanos+")";
+  }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import gate.util.GateRuntimeException;
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the resources for several languages loaded, up to a memory budget.
+ * <p>
+ * The pool is shared by a PR and all its duplicates through their shared
+ * data. It holds one reference to the resources of each resident language.
+ * When the estimated memory of all resident languages exceeds the budget, 
+ * the least recently used languages are released. Released resources are only 
+ * freed after every PR which still uses them has released them too.
+ * <p>
+ * The pool itself is reference counted like the resources: once the last
+ * user released it, it releases all resident languages and is removed from
+ * the shared data.
+ *
+ * @author Johann Petrak
+ */
+public class LanguageResourcesPool {
+  
+  private final ConcurrentMap<String, Object> sharedData;
+  private final File resourcesDir;
+  private final DictionaryBackend backend;
+  private final boolean lazy;
+  private volatile long budget;
+  
+  private int refCount = 0;
+  private String sharedKey = null;
+  
+  // access ordered, so the least recently used language comes first
+  private final LinkedHashMap<String, LemmatizerResources> resident = 
+          new LinkedHashMap<String, LemmatizerResources>(16, 0.75f, true);
+
+  /**
+   * Create a pool.
+   * 
+   * @param sharedData the map shared between the PR and all its duplicates
+   * @param resourcesDir the directory which contains the dictionaries and lemmaModels directories
+   * @param backend the data structure to use for the dictionaries
+   * @param lazy if true, dictionaries are loaded on first use
+   * @param budget the maximum estimated number of bytes for all resident 
+   * languages, 0 or less for no limit
+   */
+  public LanguageResourcesPool(ConcurrentMap<String, Object> sharedData, 
+          File resourcesDir, DictionaryBackend backend, boolean lazy, long budget) {
+    this.sharedData = sharedData;
+    this.resourcesDir = resourcesDir;
+    this.backend = backend;
+    this.lazy = lazy;
+    this.budget = budget;
+  }
+  
+  /**
+   * Get the shared pool from the shared data, creating it if necessary.
+   * <p>
+   * There is one pool for each combination of resources directory, backend
+   * and lazy loading, so a pool is never used with other settings than the 
+   * ones it was created with. The budget is changed for everyone using 
+   * the pool. Every call must be paired with a call to {@link #release()}.
+   * 
+   * @param sharedData the map shared between the PR and all its duplicates
+   * @param resourcesDir the directory which contains the dictionaries and lemmaModels directories
+   * @param backend the data structure to use for the dictionaries
+   * @param lazy if true, dictionaries are loaded on first use
+   * @param budget the maximum estimated number of bytes for all resident 
+   * languages, 0 or less for no limit
+   * @return the pool
+   */
+  public static LanguageResourcesPool getShared(ConcurrentMap<String, Object> sharedData, 
+          File resourcesDir, DictionaryBackend backend, boolean lazy, long budget) {
+    String key = SHARED_KEY_PREFIX + backend + ":" + lazy + ":" + resourcesDir.getAbsolutePath();
+    while(true) {
+      LanguageResourcesPool pool = (LanguageResourcesPool)sharedData.get(key);
+      if(pool == null) {
+        pool = new LanguageResourcesPool(sharedData, resourcesDir, backend, lazy, budget);
+        LanguageResourcesPool existing = (LanguageResourcesPool)sharedData.putIfAbsent(key, pool);
+        if(existing != null) {
+          pool = existing;
+        }
+      }
+      synchronized(pool) {
+        // if the last user released the pool meanwhile, it got removed 
+        // from the shared data and we have to try again
+        if(pool.refCount == 0 && pool.sharedKey != null) {
+          continue;
+        }
+        pool.sharedKey = key;
+        pool.refCount++;
+      }
+      pool.setBudget(budget);
+      return pool;
+    }
+  }
+  
+  /**
+   * Indicate that the caller does not use this pool any more. Once the last
+   * user has released the pool, the resources of all resident languages are
+   * released and the pool is removed from the shared data.
+   */
+  public synchronized void release() {
+    if(refCount <= 0) {
+      throw new GateRuntimeException("Language resources pool released too often");
+    }
+    refCount--;
+    if(refCount == 0) {
+      sharedData.remove(sharedKey, this);
+      clear();
+    }
+  }
+  
+  /**
+   * The number of current users of this pool.
+   * @return reference count
+   */
+  public synchronized int getReferenceCount() {
+    return refCount;
+  }
+  
+  private static final String SHARED_KEY_PREFIX = "gate.plugin.lemmatizer.LanguageResourcesPool:";
+  
+  public void setBudget(long budget) {
+    this.budget = budget;
+  }
+  
+  public long getBudget() {
+    return budget;
+  }
+  
+  /**
+   * Get the resources for a language, loading them if necessary. 
+   * <p>
+   * As with {@link LemmatizerResources#acquire}, the caller must call 
+   * {@link LemmatizerResources#release()} once it does not use the resources 
+   * any more.
+   * 
+   * @param languageCode the language 
+   * @return the resources
+   */
+  public LemmatizerResources acquire(String languageCode) {
+    // loading happens outside of the lock so that other languages can 
+    // be used meanwhile
+    LemmatizerResources res = LemmatizerResources.acquire(sharedData, resourcesDir, languageCode, backend, lazy);
+    synchronized(this) {
+      if(resident.get(languageCode) != res) {
+        LemmatizerResources old = resident.put(languageCode, 
+                LemmatizerResources.acquire(sharedData, resourcesDir, languageCode, backend, lazy));
+        if(old != null) {
+          old.release();
+        }
+      }
+      evict(languageCode);
+    }
+    return res;
+  }
+  
+  private void evict(String keep) {
+    if(budget <= 0) {
+      return;
+    }
+    long total = 0;
+    for(LemmatizerResources res : resident.values()) {
+      total += res.memoryFootprint();
+    }
+    Iterator<Map.Entry<String, LemmatizerResources>> it = resident.entrySet().iterator();
+    while(total > budget && it.hasNext()) {
+      Map.Entry<String, LemmatizerResources> entry = it.next();
+      if(entry.getKey().equals(keep)) {
+        continue;
+      }
+      System.err.println("Lemmatizer: memory budget exceeded, releasing resources for "+entry.getKey());
+      total -= entry.getValue().memoryFootprint();
+      entry.getValue().release();
+      it.remove();
+    }
+  }
+  
+  /**
+   * The languages which are currently resident, least recently used first.
+   * @return language codes
+   */
+  public synchronized String[] getResidentLanguages() {
+    return resident.keySet().toArray(new String[resident.size()]);
+  }
+  
+  /**
+   * Release the resources of all resident languages.
+   */
+  public synchronized void clear() {
+    for(LemmatizerResources res : resident.values()) {
+      res.release();
+    }
+    resident.clear();
+  }
+  
+}
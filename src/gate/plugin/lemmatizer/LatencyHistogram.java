@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * A histogram of latencies which can be updated by many threads without locking.
+ * <p>
+ * Latencies are counted in buckets whose width grows with the latency: each 
+ * power of two of nanoseconds is split into four buckets, so percentiles are 
+ * accurate to within 25%. The count, mean and maximum are exact.
+ *
+ * @author Johann Petrak
+ */
+public class LatencyHistogram {
+  
+  // number of bits used for the buckets within a power of two
+  private static final int SUB_BITS = 2;
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+  private static final int NR_BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+  
+  private final AtomicLongArray buckets = new AtomicLongArray(NR_BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(new LongBinaryOperator() {
+    @Override
+    public long applyAsLong(long left, long right) {
+      return Math.max(left, right);
+    }
+  }, 0);
+  
+  /**
+   * Add a latency.
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(long nanos) {
+    if(nanos < 0) {
+      nanos = 0;
+    }
+    buckets.incrementAndGet(bucketOf(nanos));
+    count.increment();
+    sum.add(nanos);
+    max.accumulate(nanos);
+  }
+  
+  private static int bucketOf(long nanos) {
+    if(nanos < SUB_BUCKETS) {
+      return (int)nanos;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    int sub = (int)(nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+  }
+  
+  // the largest latency which is counted in a bucket
+  private static long upperBoundOf(int bucket) {
+    if(bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+    long sub = bucket % SUB_BUCKETS;
+    return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+  }
+  
+  /**
+   * The number of latencies added.
+   * @return count
+   */
+  public long getCount() {
+    return count.sum();
+  }
+  
+  /**
+   * The mean latency in microseconds.
+   * @return mean or 0 if there are no latencies
+   */
+  public double getMeanMicros() {
+    long n = count.sum();
+    return n == 0 ? 0.0 : sum.sum() / (n * 1000.0);
+  }
+  
+  /**
+   * The largest latency in microseconds.
+   * @return maximum
+   */
+  public double getMaxMicros() {
+    return max.get() / 1000.0;
+  }
+  
+  /**
+   * The median latency in microseconds.
+   * @return median
+   */
+  public double getMedianMicros() {
+    return getPercentileMicros(50.0);
+  }
+  
+  /**
+   * The 99th percentile of the latencies in microseconds.
+   * @return 99th percentile
+   */
+  public double getP99Micros() {
+    return getPercentileMicros(99.0);
+  }
+  
+  /**
+   * A percentile of the latencies in microseconds: the upper bound of the 
+   * bucket which contains it, but never more than the maximum.
+   * 
+   * @param percentile the percentile, between 0 and 100
+   * @return the latency or 0 if there are no latencies
+   */
+  public double getPercentileMicros(double percentile) {
+    long[] counts = new long[NR_BUCKETS];
+    long total = 0;
+    for(int i = 0; i < NR_BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+      total += counts[i];
+    }
+    if(total == 0) {
+      return 0.0;
+    }
+    long rank = Math.max(1, (long)Math.ceil(total * percentile / 100.0));
+    long seen = 0;
+    for(int i = 0; i < NR_BUCKETS; i++) {
+      seen += counts[i];
+      if(seen >= rank) {
+        return Math.min(upperBoundOf(i), max.get()) / 1000.0;
+      }
+    }
+    return max.get() / 1000.0;
+  }
+  
+  /**
+   * Remove all latencies. Latencies added while this runs may get lost.
+   */
+  public void reset() {
+    for(int i = 0; i < NR_BUCKETS; i++) {
+      buckets.set(i, 0);
+    }
+    count.reset();
+    sum.reset();
+    max.reset();
+  }
+  
+  @Override
+  public String toString() {
+    return String.format("n=%d mean=%.2fus p50=%.2fus p99=%.2fus max=%.2fus", 
+            getCount(), getMeanMicros(), getMedianMicros(), getP99Micros(), getMaxMicros());
+  }
+  
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import gate.util.GateRuntimeException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A dictionary which gets loaded when it is used for the first time. 
+ * <p>
+ * If several threads use the dictionary before it has been loaded, it
+ * is loaded by one of them and the others wait for it. 
+ *
+ * @author Johann Petrak
+ */
+public class LazyLemmaDictionary implements LemmaDictionary {
+  
+  private final String name;
+  private final FutureTask<LemmaDictionary> task;
+  private volatile LemmaDictionary dictionary = null;
+
+  /**
+   * Create the dictionary.
+   * 
+   * @param name the name used in messages, e.g. the POS tag
+   * @param loader loads the actual dictionary
+   */
+  public LazyLemmaDictionary(String name, Callable<LemmaDictionary> loader) {
+    this.name = name;
+    task = new FutureTask<LemmaDictionary>(loader);
+  }
+  
+  /**
+   * Get the actual dictionary, loading it if necessary.
+   * 
+   * @return the loaded dictionary
+   */
+  public LemmaDictionary getDictionary() {
+    LemmaDictionary dict = dictionary;
+    if(dict == null) {
+      // this does nothing if another thread is already running or has run the task
+      task.run();
+      try {
+        dict = task.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new GateRuntimeException("Interrupted while waiting for dictionary "+name,ex);
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if(cause instanceof GateRuntimeException) {
+          throw (GateRuntimeException)cause;
+        }
+        throw new GateRuntimeException("Could not load dictionary "+name,cause);
+      }
+      dictionary = dict;
+    }
+    return dict;
+  }
+  
+  /**
+   * True if the dictionary has been loaded.
+   * @return flag
+   */
+  public boolean isLoaded() {
+    return dictionary != null;
+  }
+
+  @Override
+  public String get(CharSequence form) {
+    return getDictionary().get(form);
+  }
+
+  /**
+   * The size of the dictionary, 0 if it has not been loaded yet.
+   */
+  @Override
+  public int size() {
+    LemmaDictionary dict = dictionary;
+    return dict == null ? 0 : dict.size();
+  }
+
+  /**
+   * The memory footprint of the dictionary, 0 if it has not been loaded yet.
+   */
+  @Override
+  public long memoryFootprint() {
+    LemmaDictionary dict = dictionary;
+    return dict == null ? 0 : dict.memoryFootprint();
+  }
+  
+}
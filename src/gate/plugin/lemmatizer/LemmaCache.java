@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe, size-bounded cache for lemmata which are expensive to 
+ * find, e.g. with the HFST.
+ * <p>
+ * Entries are kept per language, POS tag and word form. The fact that no 
+ * lemma could be found is cached too, as {@link #NO_LEMMA}. The cache is 
+ * split into segments which are locked independently and each segment 
+ * evicts its least recently used entry when it is full.
+ *
+ * @author Johann Petrak
+ */
+public class LemmaCache {
+
+  /**
+   * Returned by {@link #get} if it is known that there is no lemma.
+   */
+  public static final String NO_LEMMA = new String("");
+  
+  private static final int MAX_SEGMENTS = 16;
+
+  private static class Key {
+    final String language;
+    final String tag;
+    final String form;
+    final int hash;
+    Key(String language, String tag, String form) {
+      this.language = language;
+      this.tag = tag;
+      this.form = form;
+      hash = (language.hashCode() * 31 + tag.hashCode()) * 31 + form.hashCode();
+    }
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+    @Override
+    public boolean equals(Object obj) {
+      if(!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key)obj;
+      return hash == other.hash && form.equals(other.form) && 
+              tag.equals(other.tag) && language.equals(other.language);
+    }
+  }
+
+  private static class Segment extends LinkedHashMap<Key, String> {
+    private static final long serialVersionUID = 1L;
+    private final int capacity;
+    Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+      return size() > capacity;
+    }
+  }
+
+  private final int capacity;
+  private final Segment[] segments;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Create a cache.
+   * @param capacity the maximum number of entries, must be positive
+   */
+  public LemmaCache(int capacity) {
+    this.capacity = capacity;
+    // a power of two number of segments, at most one per entry, and the
+    // capacity split among them so that together they never hold more
+    int nrSegments = Integer.highestOneBit(Math.max(1, Math.min(MAX_SEGMENTS, capacity)));
+    segments = new Segment[nrSegments];
+    for(int i = 0; i < nrSegments; i++) {
+      int segmentCapacity = capacity / nrSegments + (i < capacity % nrSegments ? 1 : 0);
+      segments[i] = new Segment(Math.max(1, segmentCapacity));
+    }
+  }
+
+  private Segment segment(Key key) {
+    int h = key.hash;
+    h ^= (h >>> 16);
+    return segments[h & (segments.length - 1)];
+  }
+
+  /**
+   * Get a cached lemma.
+   *
+   * @param language the language code
+   * @param tag the POS tag
+   * @param form the word form
+   * @return the lemma, {@link #NO_LEMMA} if it is known there is no lemma, 
+   * or null if nothing is cached
+   */
+  public String get(String language, String tag, String form) {
+    Key key = new Key(language, tag, form);
+    Segment segment = segment(key);
+    String lemma;
+    synchronized(segment) {
+      lemma = segment.get(key);
+    }
+    if(lemma == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return lemma;
+  }
+
+  /**
+   * Add a lemma to the cache.
+   *
+   * @param language the language code
+   * @param tag the POS tag
+   * @param form the word form
+   * @param lemma the lemma, null or empty if there is none
+   */
+  public void put(String language, String tag, String form, String lemma) {
+    if(lemma == null || lemma.isEmpty()) {
+      lemma = NO_LEMMA;
+    }
+    Key key = new Key(language, tag, form);
+    Segment segment = segment(key);
+    synchronized(segment) {
+      segment.put(key, lemma);
+    }
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * The current number of entries.
+   * @return number of entries
+   */
+  public int size() {
+    int size = 0;
+    for(Segment segment : segments) {
+      synchronized(segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+}
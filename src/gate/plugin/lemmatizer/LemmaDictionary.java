@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+/**
+ * A read-only mapping from (lower-cased) word forms to lemmata.
+ * <p>
+ * Forms are lower-cased character by character, see {@link CharSpan#toLowerCase(String)}, 
+ * so that they can be looked up through a lower-casing {@link CharSpan} without
+ * creating a new string.
+ * <p>
+ * Implementations must be safe to use from several threads concurrently
+ * once they have been created.
+ *
+ * @author Johann Petrak
+ */
+public interface LemmaDictionary {
+
+  /**
+   * Look up the lemma for a word form.
+   *
+   * @param form the lower-cased word form
+   * @return the lemma or null if the form is not in the dictionary
+   */
+  public String get(CharSequence form);
+
+  /**
+   * The number of word forms in the dictionary.
+   * @return number of forms
+   */
+  public int size();
+
+  /**
+   * An estimate of the number of heap bytes used by this dictionary.
+   * @return estimated bytes
+   */
+  public long memoryFootprint();
+
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import gate.util.GateRuntimeException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds the lemmata of words, independent of GATE documents and annotations.
+ * <p>
+ * An engine combines the resources for one language with a POS tag mapping,
+ * a {@link ResolutionChain} and optionally a cache for HFST results: the 
+ * tiers of the chain are tried in order until one finds a lemma, by default 
+ * each word is first looked up in the dictionary for its POS tag and if it 
+ * is not found there, the HFST is used if there is one. The lemma is only
+ * guessed from the suffix of the word if the chain includes that tier. If no
+ * lemma is found, the word itself is used.
+ * <p>
+ * Engines are thread-safe. Everything that changes while lemmatizing is kept 
+ * in a {@link Context}, which must not be used by several threads at the 
+ * same time. For lemmatizing many words, the batch methods are more 
+ * efficient than lemmatizing each word on its own. How the lemmata were 
+ * found is counted in the {@link LemmatizerStatistics} of the engine, if 
+ * it has any, and some of the words are timed.
+ * <p>
+ * Engines can be used without initializing GATE, e.g.:
+ * <pre>
+ * LemmatizerEngine engine = LemmatizerEngine.load(new File("resources"), "en");
+ * String[] lemmas = new String[words.length];
+ * engine.lemmatize(words, udTags, lemmas);
+ * </pre>
+ *
+ * @author Johann Petrak
+ */
+public class LemmatizerEngine {
+  
+  private final LemmatizerResources resources;
+  private final String languageCode;
+  private final HfstLemmatizer hfstLemmatizer;
+  private final TagDispatchTable tagTable;
+  private final LemmaCache hfstCache;
+  private final HfstSearchLimits hfstLimits;
+  private final ResolutionChain chain;
+  private final ResolutionChain.Tier[] tiers;
+  
+  private final LemmatizerStatistics statistics;
+  
+  /**
+   * What changes while lemmatizing: the status of the last word.
+   */
+  public static class Context {
+    private final CharSpan lowerCaseSpan = new CharSpan(true);
+    private String status = null;
+    // the number of words until the next one is timed and if the last one was timed
+    private int untilSample = 0;
+    boolean sampled = false;
+    
+    /**
+     * How the lemma of the last word was found, e.g. "NOUN-FOUND" if it was
+     * found in the noun dictionary.
+     * @return status
+     */
+    public String getStatus() {
+      return status;
+    }
+  }
+
+  /**
+   * Create an engine.
+   * 
+   * @param resources the resources for the language
+   * @param mapping the mapping from the POS tags used to universal dependency tags
+   * @param hfstCache the cache for HFST results, may be null
+   */
+  public LemmatizerEngine(LemmatizerResources resources, PosTagMapping mapping, LemmaCache hfstCache) {
+    this(resources, mapping, hfstCache, null);
+  }
+  
+  /**
+   * Create an engine which counts how the lemmata were found.
+   * 
+   * @param resources the resources for the language
+   * @param mapping the mapping from the POS tags used to universal dependency tags
+   * @param hfstCache the cache for HFST results, may be null
+   * @param statistics the statistics to count in, may be null and may be shared by several engines
+   */
+  public LemmatizerEngine(LemmatizerResources resources, PosTagMapping mapping, LemmaCache hfstCache,
+          LemmatizerStatistics statistics) {
+    this(resources, mapping, hfstCache, statistics, HfstSearchLimits.UNLIMITED);
+  }
+  
+  /**
+   * Create an engine which bounds the HFST search for each word.
+   * <p>
+   * If the search for a word is cut off, the lemma from the best analysis
+   * found so far is used, if any, but it is not cached.
+   * 
+   * @param resources the resources for the language
+   * @param mapping the mapping from the POS tags used to universal dependency tags
+   * @param hfstCache the cache for HFST results, may be null
+   * @param statistics the statistics to count in, may be null and may be shared by several engines
+   * @param hfstLimits the bounds for the HFST search for one word
+   */
+  public LemmatizerEngine(LemmatizerResources resources, PosTagMapping mapping, LemmaCache hfstCache,
+          LemmatizerStatistics statistics, HfstSearchLimits hfstLimits) {
+    this(resources, mapping, hfstCache, statistics, hfstLimits, null);
+  }
+  
+  /**
+   * Create an engine which tries the given tiers to find a lemma.
+   * 
+   * @param resources the resources for the language
+   * @param mapping the mapping from the POS tags used to universal dependency tags
+   * @param hfstCache the cache for HFST results, may be null
+   * @param statistics the statistics to count in, may be null and may be shared by several engines
+   * @param hfstLimits the bounds for the HFST search for one word
+   * @param chain the tiers to try, null for the default for the language, 
+   * see {@link ResolutionChain#defaultFor(gate.plugin.lemmatizer.LemmatizerResources)}
+   */
+  public LemmatizerEngine(LemmatizerResources resources, PosTagMapping mapping, LemmaCache hfstCache,
+          LemmatizerStatistics statistics, HfstSearchLimits hfstLimits, ResolutionChain chain) {
+    this.resources = resources;
+    this.languageCode = resources.getLanguageCode();
+    this.hfstLemmatizer = resources.getHfstLemmatizer();
+    this.chain = chain == null ? ResolutionChain.defaultFor(resources) : chain;
+    this.tiers = this.chain.getTiers();
+    this.tagTable = new TagDispatchTable(mapping, resources, statistics, this.chain);
+    this.hfstCache = hfstCache;
+    this.hfstLimits = hfstLimits;
+    this.statistics = statistics;
+  }
+  
+  /**
+   * Load the resources for a language and create an engine which expects
+   * universal dependency tags. 
+   * 
+   * @param resourcesDir the directory which contains the dictionaries and lemmaModels directories
+   * @param languageCode the language 
+   * @return the engine
+   */
+  public static LemmatizerEngine load(File resourcesDir, String languageCode) {
+    return new LemmatizerEngine(
+            LemmatizerResources.load(resourcesDir, languageCode, DictionaryBackend.HASHTABLE),
+            PosTagMapping.UNIVERSAL, new LemmaCache(DEFAULT_CACHE_SIZE), new LemmatizerStatistics());
+  }
+  
+  private static final int DEFAULT_CACHE_SIZE = 50000;
+  
+  public LemmatizerResources getResources() {
+    return resources;
+  }
+  
+  public String getLanguageCode() {
+    return languageCode;
+  }
+  
+  /**
+   * The statistics this engine counts in.
+   * @return the statistics or null if nothing is counted
+   */
+  public LemmatizerStatistics getStatistics() {
+    return statistics;
+  }
+  
+  public HfstSearchLimits getHfstLimits() {
+    return hfstLimits;
+  }
+  
+  /**
+   * The tiers tried to find a lemma.
+   * @return the chain
+   */
+  public ResolutionChain getChain() {
+    return chain;
+  }
+  
+  /**
+   * Find the lemma of a word.
+   * 
+   * @param word the word
+   * @param pos the POS tag of the word
+   * @return the lemma
+   */
+  public String lemmatize(String word, String pos) {
+    return lemmatize(word, pos, new Context());
+  }
+  
+  /**
+   * Find the lemmata of a sequence of words, e.g. a sentence.
+   * 
+   * @param words the words
+   * @param pos the POS tags of the words
+   * @param lemmas receives the lemmata, null for words which are null or have no POS tag
+   */
+  public void lemmatize(String[] words, String[] pos, String[] lemmas) {
+    lemmatize(words, pos, lemmas, null, new Context());
+  }
+  
+  /**
+   * Find the lemmata of a sequence of words, e.g. a sentence.
+   * 
+   * @param words the words
+   * @param pos the POS tags of the words
+   * @param lemmas receives the lemmata, null for words which are null or have no POS tag
+   * @param statuses if not null, receives how each lemma was found
+   * @param context the context to use 
+   */
+  public void lemmatize(String[] words, String[] pos, String[] lemmas, String[] statuses, Context context) {
+    lemmatize(words, pos, lemmas, statuses, 0, words.length, context);
+  }
+  
+  /**
+   * Find the lemmata of a range of words. 
+   * <p>
+   * Only the elements from index from (inclusive) to index to (exclusive)
+   * of the arrays are used, so several threads can work on different 
+   * ranges of the same arrays, each with its own context.
+   * 
+   * @param words the words
+   * @param pos the POS tags of the words
+   * @param lemmas receives the lemmata, null for words which are null or have no POS tag
+   * @param statuses if not null, receives how each lemma was found
+   * @param from the first index
+   * @param to the index after the last
+   * @param context the context to use 
+   */
+  public void lemmatize(String[] words, String[] pos, String[] lemmas, String[] statuses, 
+          int from, int to, Context context) {
+    if(pos.length < to || lemmas.length < to || words.length < to || 
+            (statuses != null && statuses.length < to)) {
+      throw new IllegalArgumentException("Arrays for words, POS tags, lemmata and statuses must be at least as long as the range");
+    }
+    // consecutive words often have the same tag, so we remember the last one
+    String lastTag = null;
+    TagDispatchTable.Entry entry = null;
+    for(int i = from; i < to; i++) {
+      String word = words[i];
+      String tag = pos[i];
+      String lemma = null;
+      String status = null;
+      if(word != null && tag != null && !tag.isEmpty()) {
+        if(!tag.equals(lastTag)) {
+          entry = tagTable.get(tag);
+          lastTag = tag;
+        }
+        lemma = lemmatize(word, entry, context);
+        status = context.status;
+      }
+      lemmas[i] = lemma;
+      if(statuses != null) {
+        statuses[i] = status;
+      }
+    }
+  }
+  
+  /**
+   * Lemmatize a list of sample words, so that the code used for lemmatization 
+   * gets compiled by the JIT before the first real document is processed.
+   * <p>
+   * The file contains one word and its POS tag per line, separated by a tab.
+   * The words are counted in the statistics and cached like all others, so
+   * the engine for warming up should not share them with the engine used 
+   * for documents.
+   *
+   * @param sampleFile the file with the sample words
+   * @param rounds how often to lemmatize all the words
+   * @return the number of words lemmatized
+   */
+  public int warmUp(File sampleFile, int rounds) {
+    List<String> words = new ArrayList<String>();
+    List<String> pos = new ArrayList<String>();
+    BufferedReader in = null;
+    try {
+      in = new BufferedReader(new InputStreamReader(new FileInputStream(sampleFile), "UTF-8"));
+      String line;
+      while((line = in.readLine()) != null) {
+        String[] fields = line.split("\t");
+        if(fields.length == 2) {
+          words.add(fields[0]);
+          pos.add(fields[1]);
+        }
+      }
+      in.close();
+    } catch (Exception ex) {
+      throw new GateRuntimeException("Could not read warm-up words from "+sampleFile,ex);
+    }
+    String[] wordArray = words.toArray(new String[words.size()]);
+    String[] posArray = pos.toArray(new String[pos.size()]);
+    String[] lemmas = new String[wordArray.length];
+    String[] statuses = new String[wordArray.length];
+    Context context = new Context();
+    for(int round = 0; round < rounds; round++) {
+      lemmatize(wordArray, posArray, lemmas, statuses, context);
+    }
+    return rounds * wordArray.length;
+  }
+  
+  /**
+   * Find the lemma of a word.
+   * <p>
+   * The word can be any character sequence, e.g. a {@link CharSpan} over the 
+   * text of a document. How the lemma was found is stored in the context.
+   * 
+   * @param word the word
+   * @param pos the POS tag of the word
+   * @param context the context to use
+   * @return the lemma
+   */
+  public String lemmatize(CharSequence word, String pos, Context context) {
+    return lemmatize(word, tagTable.get(pos), context);
+  }
+  
+  private String lemmatize(CharSequence word, TagDispatchTable.Entry entry, Context context) {
+    // the string for the word is only created when needed for the HFST or as the lemma
+    String wordString = null;
+    String lemma = null;
+    boolean sampled = false;
+    if(statistics != null) {
+      int interval = statistics.getSamplingInterval();
+      if(interval > 0 && --context.untilSample <= 0) {
+        context.untilSample = interval;
+        sampled = true;
+      }
+    }
+    context.sampled = sampled;
+    // how the lemma was found or, if no tier finds one, what the HFST did if it was tried
+    int status = TagDispatchTable.STATUS_NOHFST;
+    for(ResolutionChain.Tier tier : tiers) {
+      // tiers without resources for the tag are skipped, the time of a tier
+      // does not include counting and recording it
+      long start = sampled ? System.nanoTime() : 0L;
+      long elapsed = 0L;
+      if(tier == ResolutionChain.Tier.DICTIONARY) {
+        if(entry.dictionary == null) {
+          continue;
+        }
+        lemma = entry.dictionary.get(context.lowerCaseSpan.set(word));
+        if(sampled) {
+          elapsed = System.nanoTime() - start;
+          statistics.record(LemmatizerStatistics.Stage.DICTIONARY_LOOKUP, elapsed);
+        }
+        if(lemma != null) {
+          status = TagDispatchTable.STATUS_FOUND;
+        }
+      } else if(tier == ResolutionChain.Tier.HFST) {
+        if(hfstLemmatizer == null) {
+          continue;
+        }
+        if(wordString == null) {
+          wordString = word.toString();
+        }
+        try {
+          lemma = hfstLemma(wordString, entry.hfstMatcher, sampled);
+          if(sampled) {
+            elapsed = System.nanoTime() - start;
+          }
+          if(lemma != null && !lemma.isEmpty()) {
+            status = TagDispatchTable.STATUS_HFST_HAVE;
+          } else {
+            lemma = null;
+            status = TagDispatchTable.STATUS_HFST_EMPTY;
+          }
+        } catch (Exception ex) {
+          System.err.println("Exception for "+wordString+": "+ex.getClass()+", "+ex.getMessage());
+          ex.printStackTrace(System.err);
+          lemma = null;
+          status = TagDispatchTable.STATUS_HFST_ERROR;
+        }
+      } else {
+        if(entry.suffixLemmatizer == null) {
+          continue;
+        }
+        lemma = entry.suffixLemmatizer.getLemma(word);
+        if(sampled) {
+          elapsed = System.nanoTime() - start;
+          statistics.record(LemmatizerStatistics.Stage.SUFFIX_RULES, elapsed);
+        }
+        if(lemma != null) {
+          status = TagDispatchTable.STATUS_SUFFIX;
+        }
+      }
+      if(statistics != null) {
+        statistics.countTier(tier, lemma != null);
+        if(sampled) {
+          statistics.recordTier(tier, elapsed);
+        }
+      }
+      if(lemma != null) {
+        break;
+      }
+    }
+    if(lemma == null) {
+      lemma = wordString != null ? wordString : word.toString();
+    }
+    context.status = entry.statuses[status];
+    LongAdder[] counters = entry.counters;
+    if(counters != null) {
+      counters[STATUS_PATHS[status].ordinal()].increment();
+    }
+    return lemma;
+  }
+  
+  // how a lemma was found for each status index of TagDispatchTable
+  private static final LemmatizerStatistics.Path[] STATUS_PATHS = new LemmatizerStatistics.Path[] {
+    LemmatizerStatistics.Path.DICTIONARY,
+    LemmatizerStatistics.Path.HFST,
+    LemmatizerStatistics.Path.HFST_EMPTY,
+    LemmatizerStatistics.Path.ERROR,
+    LemmatizerStatistics.Path.PASS_THROUGH,
+    LemmatizerStatistics.Path.SUFFIX
+  };
+  
+  /**
+   * Get the lemma from the HFST cache or the HFST.
+   */
+  private String hfstLemma(String wordString, HfstLemmatizer.TagMatcher matcher, boolean sampled) throws Exception {
+    if(hfstCache != null) {
+      String cached = hfstCache.get(languageCode, matcher.getTag(), wordString);
+      if(cached != null) {
+        return cached;
+      }
+    }
+    if(statistics != null) {
+      statistics.countHfstInvocation();
+    }
+    String lemma;
+    if(sampled) {
+      lemma = timedHfstLemma(wordString, matcher);
+    } else {
+      lemma = hfstLemmatizer.getLemma(wordString, matcher, hfstLimits);
+    }
+    // the flag is only about this word if there was a search at all
+    if(matcher.canMatch() && hfstLemmatizer.wasCutOff()) {
+      // a better lemma may have been missed, so try again next time
+      if(statistics != null) {
+        statistics.countHfstCutoff();
+      }
+    } else if(hfstCache != null) {
+      hfstCache.put(languageCode, matcher.getTag(), wordString, lemma);
+    }
+    return lemma;
+  }
+  
+  private String timedHfstLemma(String word, HfstLemmatizer.TagMatcher matcher) throws Exception {
+    if(!matcher.canMatch()) {
+      return null;
+    }
+    long start = System.nanoTime();
+    String analysis = hfstLemmatizer.findAnalysis(word, matcher, hfstLimits);
+    long analyzed = System.nanoTime();
+    String lemma = analysis == null ? null : hfstLemmatizer.getInterpreter().getLemma(word, analysis, matcher);
+    statistics.record(LemmatizerStatistics.Stage.HFST_ANALYSIS, analyzed - start);
+    statistics.record(LemmatizerStatistics.Stage.POST_PROCESSING, System.nanoTime() - analyzed);
+    return lemma;
+  }
+  
+}
@@ -0,0 +1,590 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import gate.util.GateRuntimeException;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The read-only resources needed to lemmatize one language: the
+ * dictionaries for each of the supported universal dependency POS tags
+ * and, if available, the HFST transducer and the rules for guessing the 
+ * lemma of words which are not in the dictionaries from their suffix, see 
+ * {@link SuffixLemmatizer}.
+ * <p>
+ * Instances are loaded at most once per language for a PR and all its
+ * duplicates: they get stored in the shared data map of the PR and
+ * are reference counted. Each user must call {@link #release()} once it
+ * does not need the resources any more, after the last user released
+ * the bundle it gets removed from the shared data.
+ *
+ * @author Johann Petrak
+ */
+public class LemmatizerResources {
+
+  /**
+   * The universal dependency POS tags for which we have dictionaries.
+   */
+  public static final String[] DICTIONARY_TAGS = new String[] {
+    "ADJ", "ADP", "ADV", "DET", "NOUN", "PART", "PRON", "VERB"
+  };
+
+  /**
+   * Prefix of the key used to store the resources in the shared data map.
+   */
+  public static final String SHARED_KEY_PREFIX = "gate.plugin.lemmatizer.LemmatizerResources:";
+
+  private final String languageCode;
+  private final DictionaryBackend backend;
+  private final Map<String, LemmaDictionary> dictionaries;
+  private final HfstLemmatizer hfstLemmatizer;
+  // the suffix rules are loaded when first used, null if there are none
+  private final FutureTask<Map<String, SuffixLemmatizer>> suffixTask;
+  private volatile Map<String, SuffixLemmatizer> suffixLemmatizers = null;
+  private final boolean haveLists;
+
+  private final AtomicInteger refCount = new AtomicInteger(0);
+  private ConcurrentMap<String, Object> sharedData = null;
+  private String sharedKey = null;
+  private Object sharedEntry = null;
+
+
+  protected LemmatizerResources(String languageCode,
+          DictionaryBackend backend,
+          Map<String, LemmaDictionary> dictionaries,
+          boolean haveLists,
+          HfstLemmatizer hfstLemmatizer,
+          Callable<Map<String, SuffixLemmatizer>> suffixLoader) {
+    this.languageCode = languageCode;
+    this.backend = backend;
+    this.dictionaries = Collections.unmodifiableMap(dictionaries);
+    this.haveLists = haveLists;
+    this.hfstLemmatizer = hfstLemmatizer;
+    this.suffixTask = suffixLoader == null ? null : new FutureTask<Map<String, SuffixLemmatizer>>(suffixLoader);
+  }
+
+  public String getLanguageCode() {
+    return languageCode;
+  }
+
+  public DictionaryBackend getBackend() {
+    return backend;
+  }
+
+  /**
+   * Return the dictionary for the given universal dependency POS tag.
+   *
+   * @param udTag one of the tags in {@link #DICTIONARY_TAGS}
+   * @return the dictionary, an empty dictionary if none was loaded for that tag
+   */
+  public LemmaDictionary getDictionary(String udTag) {
+    LemmaDictionary dict = dictionaries.get(udTag);
+    if(dict == null) {
+      return CompactLemmaDictionary.EMPTY;
+    }
+    return dict;
+  }
+
+  /**
+   * True if the dictionaries were loaded, false if only empty dictionaries are used.
+   * @return flag
+   */
+  public boolean haveLists() {
+    return haveLists;
+  }
+
+  /**
+   * The HFST lemmatizer or null if there is none or if its use has been disabled.
+   * @return the HFST lemmatizer or null
+   */
+  public HfstLemmatizer getHfstLemmatizer() {
+    return hfstLemmatizer;
+  }
+
+  /**
+   * Return the suffix rules for the given universal dependency POS tag.
+   * <p>
+   * The rules for all tags are loaded when this is first called. If several
+   * threads call this at the same time, the rules are loaded by one of them
+   * and the others wait for it.
+   *
+   * @param udTag one of the tags in {@link #DICTIONARY_TAGS}
+   * @return the rules or null if there are none for that tag, which is always
+   * the case for the closed-class tags not in {@link SuffixLemmatizer#TAGS}
+   */
+  public SuffixLemmatizer getSuffixLemmatizer(String udTag) {
+    Map<String, SuffixLemmatizer> lemmatizers = suffixLemmatizers;
+    if(lemmatizers == null) {
+      if(suffixTask == null) {
+        return null;
+      }
+      // this does nothing if another thread is already running or has run the task
+      suffixTask.run();
+      try {
+        lemmatizers = suffixTask.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new GateRuntimeException("Interrupted while waiting for the suffix rules for "+languageCode,ex);
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if(cause instanceof GateRuntimeException) {
+          throw (GateRuntimeException)cause;
+        }
+        throw new GateRuntimeException("Could not load the suffix rules for "+languageCode,cause);
+      }
+      suffixLemmatizers = lemmatizers;
+    }
+    return lemmatizers.get(udTag);
+  }
+
+  /**
+   * An estimate of the number of heap bytes used by the dictionaries 
+   * and suffix rules loaded so far and the HFST transducer.
+   * @return estimated bytes
+   */
+  public long memoryFootprint() {
+    long bytes = 0;
+    for(LemmaDictionary dict : dictionaries.values()) {
+      bytes += dict.memoryFootprint();
+    }
+    Map<String, SuffixLemmatizer> lemmatizers = suffixLemmatizers;
+    if(lemmatizers != null) {
+      for(SuffixLemmatizer suffixLemmatizer : lemmatizers.values()) {
+        bytes += suffixLemmatizer.memoryFootprint();
+      }
+    }
+    if(hfstLemmatizer != null) {
+      bytes += hfstLemmatizer.memoryFootprint();
+    }
+    return bytes;
+  }
+
+  /**
+   * The number of current users of this bundle.
+   * @return reference count
+   */
+  public int getReferenceCount() {
+    return refCount.get();
+  }
+
+  /**
+   * Get the resources for a language from the shared data map, loading them
+   * if necessary.
+   *
+   * If several duplicates of a PR call this concurrently for the same
+   * language, the resources get loaded exactly once and all callers
+   * receive the same instance. The reference count of the instance returned
+   * is incremented, so every call must be paired with a call to {@link #release()}.
+   *
+   * @param sharedData the map shared between the PR and all its duplicates
+   * @param resourcesDir the directory which contains the dictionaries and lemmaModels directories
+   * @param languageCode the language to load
+   * @param backend the data structure to use for the dictionaries
+   * @return the shared resources
+   */
+  public static LemmatizerResources acquire(ConcurrentMap<String, Object> sharedData,
+          File resourcesDir, String languageCode, DictionaryBackend backend) {
+    return acquire(sharedData, resourcesDir, languageCode, backend, false);
+  }
+  
+  /**
+   * Get the resources for a language from the shared data map, loading them
+   * if necessary, optionally loading each dictionary only when it is first used.
+   * <p>
+   * Whether the dictionaries are loaded lazily is decided by whoever 
+   * actually loads the resources.
+   *
+   * @param sharedData the map shared between the PR and all its duplicates
+   * @param resourcesDir the directory which contains the dictionaries and lemmaModels directories
+   * @param languageCode the language to load
+   * @param backend the data structure to use for the dictionaries
+   * @param lazy if true, dictionaries are loaded on first use
+   * @return the shared resources
+   */
+  public static LemmatizerResources acquire(ConcurrentMap<String, Object> sharedData,
+          final File resourcesDir, final String languageCode, 
+          final DictionaryBackend backend, final boolean lazy) {
+    String key = SHARED_KEY_PREFIX + languageCode + ":" + backend;
+    while(true) {
+      FutureTask<LemmatizerResources> task = new FutureTask<LemmatizerResources>(
+              new Callable<LemmatizerResources>() {
+        @Override
+        public LemmatizerResources call() throws Exception {
+          return load(resourcesDir, languageCode, backend, lazy);
+        }
+      });
+      Object existing = sharedData.putIfAbsent(key, task);
+      @SuppressWarnings("unchecked")
+      FutureTask<LemmatizerResources> theTask =
+              existing == null ? task : (FutureTask<LemmatizerResources>)existing;
+      if(existing == null) {
+        task.run();
+      }
+      LemmatizerResources res;
+      try {
+        res = theTask.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new GateRuntimeException("Interrupted while waiting for the lemmatizer resources for "+languageCode,ex);
+      } catch (ExecutionException ex) {
+        // do not keep the failed attempt around, so that a later attempt can
+        // try again
+        sharedData.remove(key, theTask);
+        Throwable cause = ex.getCause();
+        if(cause instanceof GateRuntimeException) {
+          throw (GateRuntimeException)cause;
+        }
+        throw new GateRuntimeException("Could not load the lemmatizer resources for "+languageCode,cause);
+      }
+      synchronized(res) {
+        // if the last user released the resources while we were waiting,
+        // the task got removed from the shared data and we have to try again
+        if(res.refCount.get() == 0 && res.sharedData != null) {
+          continue;
+        }
+        res.sharedData = sharedData;
+        res.sharedKey = key;
+        res.sharedEntry = theTask;
+        res.refCount.incrementAndGet();
+      }
+      return res;
+    }
+  }
+
+  /**
+   * Indicate that the caller does not use these resources any more.
+   * Once the last user has released the resources, they are removed from
+   * the shared data.
+   */
+  public void release() {
+    synchronized(this) {
+      int n = refCount.decrementAndGet();
+      if(n < 0) {
+        throw new GateRuntimeException("Lemmatizer resources for "+languageCode+" released too often");
+      }
+      if(n == 0 && sharedData != null) {
+        sharedData.remove(sharedKey, sharedEntry);
+      }
+    }
+  }
+
+  /**
+   * Load the resources for the language from the given resources directory.
+   *
+   * This does not store the resources anywhere, normally {@link #acquire}
+   * should get used instead.
+   *
+   * @param resourcesDir the directory which contains the dictionaries and lemmaModels directories
+   * @param languageCode the language to load
+   * @param backend the data structure to use for the dictionaries
+   * @return the resources
+   */
+  public static LemmatizerResources load(File resourcesDir, String languageCode, DictionaryBackend backend) {
+    return load(resourcesDir, languageCode, backend, false);
+  }
+  
+  /**
+   * Load the resources for the language from the given resources directory.
+   * <p>
+   * If lazy is true, the dictionaries are only loaded when they are used for 
+   * the first time, see {@link LazyLemmaDictionary}. Compiled dictionaries
+   * are always mapped immediately since that does not read them.
+   * <p>
+   * The suffix rules are only read from their compiled file or, if that does
+   * not exist or is outdated, learned from the text dictionaries when they
+   * are first used.
+   *
+   * @param resourcesDir the directory which contains the dictionaries and lemmaModels directories
+   * @param languageCode the language to load
+   * @param backend the data structure to use for the dictionaries
+   * @param lazy if true, dictionaries are loaded on first use
+   * @return the resources
+   */
+  public static LemmatizerResources load(File resourcesDir, final String languageCode, 
+          final DictionaryBackend backend, boolean lazy) {
+    final File dictDir = new File(new File(resourcesDir,"dictionaries"),languageCode);
+    // if there are no dictionaries or the use of dictionaries has been disabled,
+    // create empty ones, and only the hfst is used.
+    // Otherwise load the dictionaries, at least the ones which are there
+    boolean noLists = false;
+    if(!dictDir.exists()) {
+      System.err.println("List directory "+dictDir+" for language "+languageCode+" does not exist, not using lists.");
+      noLists = true;
+    }
+    String noListsProp = System.getProperty("gateplugin-Lemmatizer.noLists");
+    if(noListsProp != null && !noListsProp.toLowerCase().equals("false")) {
+      System.err.println("DEBUG: gateplugin-Lemmatizer.noLists is set, not using lists");
+      noLists = true;
+    }
+    String noListsEnv = System.getenv("GATEPLUGIN_LEMMATIZER_NOLISTS");
+    if(noListsEnv != null && !noListsEnv.toLowerCase().equals("false")) {
+      System.err.println("DEBUG: GATEPLUGIN_LEMMATIZER_NOLISTS is set, not using lists");
+      noLists = true;
+    }
+    long startTime = System.nanoTime();
+    // The dictionaries and the HFST model are loaded in parallel, we collect
+    // everything that needs loading first, then run it all in a fork-join pool
+    Map<String, LemmaDictionary> dicts = new HashMap<String, LemmaDictionary>();
+    Map<String, Callable<LemmaDictionary>> dictLoaders = new LinkedHashMap<String, Callable<LemmaDictionary>>();
+    if(!noLists) {
+      File compiledFile = new File(dictDir, MappedLemmaDictionary.FILE_NAME);
+      if(backend != DictionaryBackend.AUTOMATON && isUpToDate(compiledFile, dictDir)) {
+        System.err.println("Lemmatizer: mapping compiled dictionaries for "+languageCode);
+        dicts.putAll(MappedLemmaDictionary.open(compiledFile));
+      } else {
+        if(backend != DictionaryBackend.AUTOMATON && compiledFile.exists()) {
+          System.err.println("Lemmatizer: WARNING - compiled dictionary "+compiledFile+
+                  " is older than the text dictionaries, not using it");
+        }
+        // lemmata which occur in several dictionaries are stored only once
+        final ConcurrentMap<String, String> lemmaPool = new ConcurrentHashMap<String, String>();
+        if(lazy) {
+          System.err.println("Lemmatizer: dictionaries for "+languageCode+" will be loaded when first used");
+        } else {
+          System.err.println("Lemmatizer: loading dictionaries for "+languageCode+" ("+backend+")");
+        }
+        // largest first, so that these start loading as early as possible
+        for(final String tag : tagsBySize(dictDir)) {
+          Callable<LemmaDictionary> loader = timed(languageCode+"/"+tag, new Callable<LemmaDictionary>() {
+            @Override
+            public LemmaDictionary call() {
+              return loadDictionary(dictDir, tag, backend, lemmaPool);
+            }
+          });
+          if(lazy) {
+            dicts.put(tag, new LazyLemmaDictionary(languageCode+"/"+tag, loader));
+          } else {
+            dictLoaders.put(tag, loader);
+          }
+        }
+      }
+    }
+
+    // Load the hfst lemmatizer if it exists for the language, otherwise
+    // the hfstLemmatizer variable remains null
+    Callable<HfstLemmatizer> hfstLoader = null;
+    File lemmatizerDir = new File(resourcesDir,"lemmaModels");
+    final File lemmatizerFile = new File(lemmatizerDir,languageCode+".hfst.ol.gz");
+    if(lemmatizerFile.exists()) {
+      boolean noHfst = false;
+      String noHfstProp = System.getProperty("gateplugin-Lemmatizer.noHfst");
+      if(noHfstProp != null && !noHfstProp.toLowerCase().equals("false")) {
+        System.err.println("DEBUG: gateplugin-Lemmatizer.noHfst is set, not using  HFST");
+        noHfst = true;
+      }
+      String noHfstEnv = System.getenv("GATEPLUGIN_LEMMATIZER_NOHFST");
+      if(noHfstEnv != null && !noHfstEnv.toLowerCase().equals("false")) {
+        System.err.println("DEBUG: GATEPLUGIN_LEMMATIZER_NOHFST is set, not using  HFST");
+        noHfst = true;
+      }
+      if(!noHfst) {
+        System.err.println("Lemmatizer: loading HFST model for "+languageCode);
+        hfstLoader = timed(languageCode+"/HFST", new Callable<HfstLemmatizer>() {
+          @Override
+          public HfstLemmatizer call() {
+            try {
+              return HfstLemmatizer.load(lemmatizerFile,languageCode);
+            } catch (Exception ex) {
+              throw new GateRuntimeException("Could not load lemmatization transducer "+lemmatizerFile,ex);
+            }
+          }
+        });
+      }
+    }
+    
+    // The rules for guessing the lemma of words which are not in the dictionaries
+    // from their suffix, only used if the resolution chain includes them
+    Callable<Map<String, SuffixLemmatizer>> suffixLoader = null;
+    if(!noLists) {
+      final File rulesFile = new File(dictDir, SuffixLemmatizer.FILE_NAME);
+      if(isUpToDate(rulesFile, dictDir)) {
+        suffixLoader = timed(languageCode+"/suffix rules", new Callable<Map<String, SuffixLemmatizer>>() {
+          @Override
+          public Map<String, SuffixLemmatizer> call() {
+            try {
+              return SuffixLemmatizer.read(rulesFile);
+            } catch (IOException ex) {
+              System.err.println("Lemmatizer: WARNING - "+ex.getMessage()+", learning the suffix rules instead");
+              return SuffixLemmatizer.learnAll(dictDir);
+            }
+          }
+        });
+      } else {
+        suffixLoader = timed(languageCode+"/suffix rules", new Callable<Map<String, SuffixLemmatizer>>() {
+          @Override
+          public Map<String, SuffixLemmatizer> call() {
+            return SuffixLemmatizer.learnAll(dictDir);
+          }
+        });
+      }
+    }
+    
+    HfstLemmatizer hfstLemmatizer = null;
+    int nrTasks = dictLoaders.size() + (hfstLoader == null ? 0 : 1);
+    if(nrTasks > 0) {
+      ForkJoinPool pool = new ForkJoinPool(Math.min(nrTasks, Runtime.getRuntime().availableProcessors()));
+      try {
+        // the HFST model is the largest single resource, so start it first
+        ForkJoinTask<HfstLemmatizer> hfstTask = null;
+        if(hfstLoader != null) {
+          hfstTask = pool.submit(hfstLoader);
+        }
+        Map<String, ForkJoinTask<LemmaDictionary>> dictTasks = new LinkedHashMap<String, ForkJoinTask<LemmaDictionary>>();
+        for(Map.Entry<String, Callable<LemmaDictionary>> entry : dictLoaders.entrySet()) {
+          dictTasks.put(entry.getKey(), pool.submit(entry.getValue()));
+        }
+        for(Map.Entry<String, ForkJoinTask<LemmaDictionary>> entry : dictTasks.entrySet()) {
+          dicts.put(entry.getKey(), entry.getValue().join());
+        }
+        if(hfstTask != null) {
+          hfstLemmatizer = hfstTask.join();
+        }
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+    System.err.println("Lemmatizer: resources for "+languageCode+" loaded in "+
+            (System.nanoTime()-startTime)/1000000+"ms");
+    return new LemmatizerResources(languageCode, backend, dicts, !noLists, hfstLemmatizer, suffixLoader);
+  }
+
+  /**
+   * The dictionary tags, ordered by decreasing size of their text dictionary files.
+   */
+  private static String[] tagsBySize(final File dictDir) {
+    String[] tags = DICTIONARY_TAGS.clone();
+    Arrays.sort(tags, new Comparator<String>() {
+      @Override
+      public int compare(String t1, String t2) {
+        long l1 = new File(dictDir,t1+"-Dict.txt.gz").length();
+        long l2 = new File(dictDir,t2+"-Dict.txt.gz").length();
+        return l1 < l2 ? 1 : (l1 > l2 ? -1 : 0);
+      }
+    });
+    return tags;
+  }
+
+  /**
+   * Wrap a loader so that the time it takes gets logged.
+   */
+  private static <T> Callable<T> timed(final String what, final Callable<T> loader) {
+    return new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        long start = System.nanoTime();
+        T result = loader.call();
+        System.err.println("Lemmatizer: loaded "+what+" in "+(System.nanoTime()-start)/1000000+"ms");
+        return result;
+      }
+    };
+  }
+
+  /**
+   * Load the text dictionary for a tag with the given backend.
+   */
+  private static LemmaDictionary loadDictionary(File dictDir, String tag, 
+          DictionaryBackend backend, ConcurrentMap<String, String> lemmaPool) {
+    File dictFile = new File(dictDir,tag+"-Dict.txt.gz");
+    if(backend == DictionaryBackend.AUTOMATON) {
+      return AutomatonLemmaDictionary.load(dictFile);
+    } else {
+      return CompactLemmaDictionary.load(dictFile, lemmaPool);
+    }
+  }
+
+  /**
+   * Check if a compiled file exists and is not older than any of the 
+   * text dictionaries in the directory.
+   */
+  private static boolean isUpToDate(File compiledFile, File dictDir) {
+    if(!compiledFile.exists()) {
+      return false;
+    }
+    for(String tag : DICTIONARY_TAGS) {
+      File textFile = new File(dictDir,tag+"-Dict.txt.gz");
+      if(textFile.exists() && textFile.lastModified() > compiledFile.lastModified()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Load a dictionary into a plain hash map.
+   * <p>
+   * This needs several times the memory of {@link CompactLemmaDictionary}
+   * and is only kept for backwards compatibility and for comparison.
+   * 
+   * @param dictFile the gzip-compressed dictionary file
+   * @return map from lower-cased forms to lemmata
+   */
+  public static Map<String, String> loadDictionary(File dictFile) {
+    Map<String, String> map = new HashMap<String, String>();
+    if(!dictFile.exists()) {
+      System.err.println("LemmatizerPR: WARNING - dictionary file does not exist:  "+dictFile.getAbsolutePath());
+      return map;
+    }
+    BufferedReader in = null;
+    try {
+      in = new BufferedReader(
+              new InputStreamReader(
+                      new GZIPInputStream(
+                              new FileInputStream(dictFile)), "UTF-8"));
+      String str;
+      while ((str = in.readLine()) != null) {
+        if (!"".equals(str.trim())) {
+          String values[] = str.split("===");
+          if (values.length == 2) {
+            String vals[] = values[1].split(";");
+            for (int i = 0; i < vals.length; i++) {
+              String val = vals[i];
+              map.put(CharSpan.toLowerCase(val), values[0].trim());
+
+            }
+          }
+        }
+      }
+      in.close();
+      return map;
+    } catch (Exception ex) {
+      throw new GateRuntimeException("Could not read dictionary " + dictFile.getAbsolutePath(), ex);
+    }
+  }
+
+}
@@ -0,0 +1,542 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * Counts how the lemmata of the tokens were found, for each POS tag, and 
+ * how long the stages of finding them take.
+ * <p>
+ * For each tier of the {@link ResolutionChain}, the number of times it was
+ * tried, how often it found a lemma and an estimate of the total time spent 
+ * in it are kept, so that the order of the tiers can be tuned.
+ * <p>
+ * The counters can be updated by many threads without contention. A PR
+ * and all its duplicates share one instance through their shared data, so
+ * the counts are for all of them together. Counts are kept until 
+ * {@link #reset()} is called.
+ * <p>
+ * Measuring the time of every token would slow down lemmatization noticeably,
+ * so only every n-th token is timed, see {@link #setSamplingInterval(int)}.
+ * The statistics can be registered as a JMX MXBean with {@link #register(String)}.
+ *
+ * @author Johann Petrak
+ */
+public class LemmatizerStatistics implements LemmatizerStatisticsMXBean {
+  
+  /**
+   * How the lemma of a token was found.
+   */
+  public static enum Path {
+    /** Found in the dictionary for the tag. */
+    DICTIONARY,
+    /** Found by the HFST (or in the cache of HFST results). */
+    HFST,
+    /** The HFST did not find a lemma, the token is used. */
+    HFST_EMPTY,
+    /** The HFST failed with an error, the token is used. */
+    ERROR,
+    /** The lemma was guessed from the suffix of the token by the SUFFIX tier. */
+    SUFFIX,
+    /** Nothing could be used, e.g. there is no HFST, or the token is a number 
+     * or punctuation, the token is used. */
+    PASS_THROUGH
+  }
+  
+  private static final Path[] PATHS = Path.values();
+  
+  /**
+   * The stages for which latencies are measured.
+   */
+  public static enum Stage {
+    /** Looking up a token in a dictionary. */
+    DICTIONARY_LOOKUP,
+    /** Running the HFST for a token, up to the first accepted analysis. */
+    HFST_ANALYSIS,
+    /** Getting the lemma from the accepted analysis of the HFST. */
+    POST_PROCESSING,
+    /** Guessing the lemma from the suffix of a token. */
+    SUFFIX_RULES,
+    /** Setting the features of a token. */
+    FEATURE_WRITING,
+    /** Processing a whole document. */
+    DOCUMENT
+  }
+  
+  private static final Stage[] STAGES = Stage.values();
+  
+  private static final ResolutionChain.Tier[] TIERS = ResolutionChain.Tier.values();
+  
+  /**
+   * By default, every 64th token is timed.
+   */
+  public static final int DEFAULT_SAMPLING_INTERVAL = 64;
+  
+  // do not let the map grow without limits if we get garbage tags
+  private static final int MAX_TAGS = 1000;
+  
+  /**
+   * The tag under which tokens are counted once there are too many distinct tags.
+   */
+  public static final String OTHER_TAGS = "OTHER";
+  
+  private final ConcurrentMap<String, LongAdder[]> counters = new ConcurrentHashMap<String, LongAdder[]>();
+  // for each tier: how often it was tried, how often it found nothing, 
+  // and the time of the sampled tries
+  private final LongAdder[] tierCalls = newAdders(TIERS.length);
+  private final LongAdder[] tierMisses = newAdders(TIERS.length);
+  private final LongAdder[] tierSampledNanos = newAdders(TIERS.length);
+  private final LongAdder[] tierSamples = newAdders(TIERS.length);
+  private final LongAdder hfstInvocations = new LongAdder();
+  private final LongAdder hfstCutoffs = new LongAdder();
+  private final LatencyHistogram[] latencies = new LatencyHistogram[STAGES.length];
+  private volatile int samplingInterval = DEFAULT_SAMPLING_INTERVAL;
+  private ObjectName objectName = null;
+  
+  public LemmatizerStatistics() {
+    for(int i = 0; i < latencies.length; i++) {
+      latencies[i] = new LatencyHistogram();
+    }
+  }
+  
+  private static LongAdder[] newAdders(int n) {
+    LongAdder[] adders = new LongAdder[n];
+    for(int i = 0; i < n; i++) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+  
+  private static final String SHARED_KEY = "gate.plugin.lemmatizer.LemmatizerStatistics";
+  
+  /**
+   * Get the statistics shared by a PR and its duplicates, creating them if necessary.
+   * 
+   * @param sharedData the map shared between the PR and all its duplicates
+   * @return the statistics
+   */
+  public static LemmatizerStatistics getShared(ConcurrentMap<String, Object> sharedData) {
+    LemmatizerStatistics stats = (LemmatizerStatistics)sharedData.get(SHARED_KEY);
+    if(stats == null) {
+      stats = new LemmatizerStatistics();
+      LemmatizerStatistics existing = (LemmatizerStatistics)sharedData.putIfAbsent(SHARED_KEY, stats);
+      if(existing != null) {
+        stats = existing;
+      }
+    }
+    return stats;
+  }
+  
+  /**
+   * Get the counters for a tag, indexed by the ordinal of the path. This 
+   * should be done once per tag, incrementing a counter is then cheap.
+   * 
+   * @param tag the POS tag
+   * @return the counters
+   */
+  LongAdder[] countersFor(String tag) {
+    LongAdder[] tagCounters = counters.get(tag);
+    if(tagCounters == null) {
+      if(counters.size() >= MAX_TAGS) {
+        tag = OTHER_TAGS;
+      }
+      tagCounters = newAdders(PATHS.length);
+      LongAdder[] existing = counters.putIfAbsent(tag, tagCounters);
+      if(existing != null) {
+        tagCounters = existing;
+      }
+    }
+    return tagCounters;
+  }
+  
+  /**
+   * Count a token.
+   * 
+   * @param tag the POS tag of the token
+   * @param path how its lemma was found
+   */
+  public void count(String tag, Path path) {
+    countersFor(tag)[path.ordinal()].increment();
+  }
+  
+  /**
+   * Count that a tier of the resolution chain was tried.
+   * 
+   * @param tier the tier
+   * @param found true if it found a lemma
+   */
+  void countTier(ResolutionChain.Tier tier, boolean found) {
+    tierCalls[tier.ordinal()].increment();
+    if(!found) {
+      tierMisses[tier.ordinal()].increment();
+    }
+  }
+  
+  /**
+   * Add the time of a sampled try of a tier.
+   * 
+   * @param tier the tier
+   * @param nanos the time it took in nanoseconds
+   */
+  void recordTier(ResolutionChain.Tier tier, long nanos) {
+    tierSampledNanos[tier.ordinal()].add(nanos);
+    tierSamples[tier.ordinal()].increment();
+  }
+  
+  void countHfstInvocation() {
+    hfstInvocations.increment();
+  }
+  
+  void countHfstCutoff() {
+    hfstCutoffs.increment();
+  }
+  
+  /**
+   * Add the latency of a stage.
+   * 
+   * @param stage the stage
+   * @param nanos the time it took in nanoseconds
+   */
+  public void record(Stage stage, long nanos) {
+    latencies[stage.ordinal()].record(nanos);
+  }
+  
+  /**
+   * The latencies measured for a stage.
+   * @param stage the stage
+   * @return the histogram
+   */
+  public LatencyHistogram getLatency(Stage stage) {
+    return latencies[stage.ordinal()];
+  }
+  
+  @Override
+  public Map<String, LatencyHistogram> getLatencies() {
+    Map<String, LatencyHistogram> map = new LinkedHashMap<String, LatencyHistogram>();
+    for(Stage stage : STAGES) {
+      map.put(stage.toString(), latencies[stage.ordinal()]);
+    }
+    return map;
+  }
+  
+  @Override
+  public int getSamplingInterval() {
+    return samplingInterval;
+  }
+  
+  /**
+   * Set how often tokens are timed: 1 times every token, 0 or less disables
+   * timing tokens. Documents are always timed.
+   * 
+   * @param interval the number of tokens per timed token
+   */
+  @Override
+  public void setSamplingInterval(int interval) {
+    samplingInterval = interval;
+  }
+  
+  /**
+   * Register the statistics with the platform MBean server, unless they 
+   * have already been registered.
+   * 
+   * @param name the name to use in the object name, usually the name of the PR
+   */
+  public synchronized void register(String name) {
+    if(objectName != null) {
+      return;
+    }
+    try {
+      ObjectName on = new ObjectName("gate.plugin.lemmatizer:type=LemmatizerStatistics,name=" + 
+              ObjectName.quote(name) + ",id=" + System.identityHashCode(this));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+      objectName = on;
+    } catch (Exception ex) {
+      System.err.println("Lemmatizer: could not register statistics with JMX: "+ex.getMessage());
+    }
+  }
+  
+  /**
+   * Remove the statistics from the platform MBean server if they have been registered.
+   */
+  public synchronized void unregister() {
+    if(objectName == null) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (Exception ex) {
+      System.err.println("Lemmatizer: could not unregister statistics from JMX: "+ex.getMessage());
+    }
+    objectName = null;
+  }
+  
+  /**
+   * The number of tokens counted.
+   * @return number of tokens
+   */
+  @Override
+  public long getTokens() {
+    long n = 0;
+    for(Path path : PATHS) {
+      n += getCount(path);
+    }
+    return n;
+  }
+  
+  /**
+   * The number of tokens for which the lemma was found in a certain way.
+   * @param path how the lemma was found
+   * @return number of tokens
+   */
+  public long getCount(Path path) {
+    long n = 0;
+    for(LongAdder[] tagCounters : counters.values()) {
+      n += tagCounters[path.ordinal()].sum();
+    }
+    return n;
+  }
+  
+  /**
+   * The number of tokens with a tag for which the lemma was found in a certain way.
+   * @param tag the POS tag
+   * @param path how the lemma was found
+   * @return number of tokens
+   */
+  public long getCount(String tag, Path path) {
+    LongAdder[] tagCounters = counters.get(tag);
+    return tagCounters == null ? 0 : tagCounters[path.ordinal()].sum();
+  }
+  
+  /**
+   * The tags counted so far, sorted.
+   * @return tags
+   */
+  public List<String> getTags() {
+    List<String> tags = new ArrayList<String>(counters.keySet());
+    Collections.sort(tags);
+    return tags;
+  }
+  
+  /**
+   * A snapshot of all counts, for each tag.
+   * @return map from tags (sorted) to the counts for each path
+   */
+  public Map<String, Map<Path, Long>> getCounts() {
+    Map<String, Map<Path, Long>> counts = new LinkedHashMap<String, Map<Path, Long>>();
+    for(String tag : getTags()) {
+      Map<Path, Long> tagCounts = new EnumMap<Path, Long>(Path.class);
+      for(Path path : PATHS) {
+        tagCounts.put(path, getCount(tag, path));
+      }
+      counts.put(tag, tagCounts);
+    }
+    return counts;
+  }
+  
+  @Override
+  public Map<String, Long> getCountsByPath() {
+    Map<String, Long> map = new LinkedHashMap<String, Long>();
+    for(Path path : PATHS) {
+      map.put(path.toString(), getCount(path));
+    }
+    return map;
+  }
+  
+  @Override
+  public Map<String, Long> getCountsByTag() {
+    Map<String, Long> map = new LinkedHashMap<String, Long>();
+    for(String tag : getTags()) {
+      long n = 0;
+      for(Path path : PATHS) {
+        n += getCount(tag, path);
+      }
+      map.put(tag, n);
+    }
+    return map;
+  }
+  
+  /**
+   * The number of tokens looked up in a dictionary.
+   * @return number of lookups
+   */
+  @Override
+  public long getDictionaryLookups() {
+    return getTierCalls(ResolutionChain.Tier.DICTIONARY);
+  }
+  
+  /**
+   * The number of tokens looked up in a dictionary and not found.
+   * @return number of lookups
+   */
+  @Override
+  public long getDictionaryMisses() {
+    return tierMisses[ResolutionChain.Tier.DICTIONARY.ordinal()].sum();
+  }
+  
+  /**
+   * How often a tier of the resolution chain was tried.
+   * @param tier the tier
+   * @return number of tries
+   */
+  public long getTierCalls(ResolutionChain.Tier tier) {
+    return tierCalls[tier.ordinal()].sum();
+  }
+  
+  /**
+   * How often a tier of the resolution chain found a lemma.
+   * @param tier the tier
+   * @return number of lemmata found
+   */
+  public long getTierHits(ResolutionChain.Tier tier) {
+    // read the misses first, so that concurrent counting cannot make this negative
+    long misses = tierMisses[tier.ordinal()].sum();
+    return Math.max(0, tierCalls[tier.ordinal()].sum() - misses);
+  }
+  
+  /**
+   * An estimate of the total time spent in a tier of the resolution chain:
+   * the mean time of the sampled tries times the number of tries.
+   * @param tier the tier
+   * @return nanoseconds, 0 if no try was sampled
+   */
+  public long getTierTimeNanos(ResolutionChain.Tier tier) {
+    long samples = tierSamples[tier.ordinal()].sum();
+    if(samples == 0) {
+      return 0;
+    }
+    return (long)((double)tierSampledNanos[tier.ordinal()].sum() / samples * getTierCalls(tier));
+  }
+  
+  @Override
+  public Map<String, Long> getCallsByTier() {
+    Map<String, Long> map = new LinkedHashMap<String, Long>();
+    for(ResolutionChain.Tier tier : TIERS) {
+      map.put(tier.toString(), getTierCalls(tier));
+    }
+    return map;
+  }
+  
+  @Override
+  public Map<String, Double> getHitRateByTier() {
+    Map<String, Double> map = new LinkedHashMap<String, Double>();
+    for(ResolutionChain.Tier tier : TIERS) {
+      long calls = getTierCalls(tier);
+      map.put(tier.toString(), calls == 0 ? 0.0 : (double)getTierHits(tier) / calls);
+    }
+    return map;
+  }
+  
+  @Override
+  public Map<String, Long> getMillisByTier() {
+    Map<String, Long> map = new LinkedHashMap<String, Long>();
+    for(ResolutionChain.Tier tier : TIERS) {
+      map.put(tier.toString(), getTierTimeNanos(tier) / 1000000);
+    }
+    return map;
+  }
+  
+  /**
+   * The number of times the HFST was actually used, i.e. not counting
+   * results found in the cache.
+   * @return number of invocations
+   */
+  @Override
+  public long getHfstInvocations() {
+    return hfstInvocations.sum();
+  }
+  
+  /**
+   * The number of times the HFST search was stopped by its limits, see
+   * {@link HfstSearchLimits}.
+   * @return number of searches cut off
+   */
+  @Override
+  public long getHfstCutoffs() {
+    return hfstCutoffs.sum();
+  }
+  
+  /**
+   * Set all counts to zero and remove all latencies. Counts made while this 
+   * runs may get lost.
+   */
+  @Override
+  public void reset() {
+    for(LongAdder[] tagCounters : counters.values()) {
+      for(LongAdder counter : tagCounters) {
+        counter.reset();
+      }
+    }
+    for(int i = 0; i < TIERS.length; i++) {
+      tierCalls[i].reset();
+      tierMisses[i].reset();
+      tierSampledNanos[i].reset();
+      tierSamples[i].reset();
+    }
+    hfstInvocations.reset();
+    hfstCutoffs.reset();
+    for(LatencyHistogram histogram : latencies) {
+      histogram.reset();
+    }
+  }
+  
+  /**
+   * The counts as a table with one line per tag, followed by the tiers of the
+   * resolution chain and the latencies.
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("%-20s", "tag"));
+    for(Path path : PATHS) {
+      sb.append(String.format(" %12s", path));
+    }
+    sb.append("\n");
+    for(Map.Entry<String, Map<Path, Long>> entry : getCounts().entrySet()) {
+      sb.append(String.format("%-20s", entry.getKey()));
+      for(Path path : PATHS) {
+        sb.append(String.format(" %12d", entry.getValue().get(path)));
+      }
+      sb.append("\n");
+    }
+    sb.append(String.format("%-20s %12s %12s %9s %12s%n", "tier", "calls", "hits", "hit rate", "time (ms)"));
+    for(ResolutionChain.Tier tier : TIERS) {
+      long calls = getTierCalls(tier);
+      long hits = getTierHits(tier);
+      sb.append(String.format("%-20s %12d %12d %8.1f%% %12d%n", tier, calls, hits, 
+              calls == 0 ? 0.0 : 100.0 * hits / calls, getTierTimeNanos(tier) / 1000000));
+    }
+    for(Stage stage : STAGES) {
+      sb.append(String.format("%-20s %s%n", stage, latencies[stage.ordinal()]));
+    }
+    return sb.toString();
+  }
+  
+}
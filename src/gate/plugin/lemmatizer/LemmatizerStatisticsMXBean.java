@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.util.Map;
+
+/**
+ * What the {@link LemmatizerStatistics} show through JMX.
+ *
+ * @author Johann Petrak
+ */
+public interface LemmatizerStatisticsMXBean {
+  
+  /**
+   * The number of tokens counted.
+   * @return number of tokens
+   */
+  public long getTokens();
+  
+  /**
+   * The number of tokens for each way the lemma was found.
+   * @return map from the name of the path to the count
+   */
+  public Map<String, Long> getCountsByPath();
+  
+  /**
+   * The number of tokens for each POS tag.
+   * @return map from the tag to the count
+   */
+  public Map<String, Long> getCountsByTag();
+  
+  public long getDictionaryLookups();
+  
+  public long getDictionaryMisses();
+  
+  public long getHfstInvocations();
+  
+  public long getHfstCutoffs();
+  
+  /**
+   * How often each tier of the resolution chain was tried.
+   * @return map from the name of the tier to the count
+   */
+  public Map<String, Long> getCallsByTier();
+  
+  /**
+   * The fraction of the tries of each tier of the resolution chain which found a lemma.
+   * @return map from the name of the tier to the rate
+   */
+  public Map<String, Double> getHitRateByTier();
+  
+  /**
+   * An estimate of the total time spent in each tier of the resolution chain, 
+   * from the sampled tokens.
+   * @return map from the name of the tier to milliseconds
+   */
+  public Map<String, Long> getMillisByTier();
+  
+  /**
+   * The latencies of the stages of lemmatization.
+   * @return map from the name of the stage to its latencies
+   */
+  public Map<String, LatencyHistogram> getLatencies();
+  
+  public int getSamplingInterval();
+  
+  public void setSamplingInterval(int interval);
+  
+  public void reset();
+  
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import gate.util.GateRuntimeException;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A lemma dictionary which is looked up directly in a memory-mapped 
+ * compiled dictionary file.
+ * <p>
+ * The file is created by {@link DictionaryCompiler} and contains the 
+ * dictionaries for all POS tags of a language. Since the file is only 
+ * mapped, opening it is almost instantaneous and the pages are shared
+ * between all JVMs on the same host which use the same file.
+ * <p>
+ * The file format (all numbers big-endian) is:
+ * <pre>
+ * int magic, int version, int nrDicts
+ * nrDicts times: short tagLength, tagLength chars, int offset of dictionary
+ * lemma pool: int nrLemmas, int[nrLemmas+1] lemmaStart, char[] lemma characters
+ * each dictionary: int nrForms, int tableSize, int[tableSize] table, 
+ *   int[nrForms+1] formStart, int[nrForms] formLemma, char[] form characters
+ * </pre>
+ * The table uses the same open addressing scheme and hash function as 
+ * {@link CompactLemmaDictionary}.
+ *
+ * @author Johann Petrak
+ */
+public class MappedLemmaDictionary implements LemmaDictionary {
+
+  public static final int MAGIC = 0x474c4d44; // "GLMD"
+  public static final int VERSION = 2;
+  
+  /**
+   * The name of the compiled dictionary file in the dictionary directory of a language.
+   */
+  public static final String FILE_NAME = "dictionaries.bin";
+  
+  private final ByteBuffer buffer;
+  private final int nrForms;
+  private final int mask;
+  private final int tableOffset;
+  private final int formStartOffset;
+  private final int formLemmaOffset;
+  private final int formCharsOffset;
+  private final int lemmaStartOffset;
+  private final int lemmaCharsOffset;
+  
+  private MappedLemmaDictionary(ByteBuffer buffer, int offset, int lemmaPoolOffset) {
+    this.buffer = buffer;
+    nrForms = buffer.getInt(offset);
+    int tableSize = buffer.getInt(offset + 4);
+    mask = tableSize - 1;
+    tableOffset = offset + 8;
+    formStartOffset = tableOffset + 4 * tableSize;
+    formLemmaOffset = formStartOffset + 4 * (nrForms + 1);
+    formCharsOffset = formLemmaOffset + 4 * nrForms;
+    int nrLemmas = buffer.getInt(lemmaPoolOffset);
+    lemmaStartOffset = lemmaPoolOffset + 4;
+    lemmaCharsOffset = lemmaStartOffset + 4 * (nrLemmas + 1);
+  }
+
+  @Override
+  public String get(CharSequence form) {
+    int len = form.length();
+    int slot = CompactLemmaDictionary.hash(form) & mask;
+    int entry;
+    while((entry = buffer.getInt(tableOffset + 4 * slot)) != 0) {
+      int idx = entry - 1;
+      int from = buffer.getInt(formStartOffset + 4 * idx);
+      int to = buffer.getInt(formStartOffset + 4 * idx + 4);
+      if(to - from == len) {
+        int pos = formCharsOffset + 2 * from;
+        int i = 0;
+        while(i < len && buffer.getChar(pos + 2 * i) == form.charAt(i)) {
+          i++;
+        }
+        if(i == len) {
+          return lemma(buffer.getInt(formLemmaOffset + 4 * idx));
+        }
+      }
+      slot = (slot + 1) & mask;
+    }
+    return null;
+  }
+  
+  private String lemma(int lemmaId) {
+    int from = buffer.getInt(lemmaStartOffset + 4 * lemmaId);
+    int to = buffer.getInt(lemmaStartOffset + 4 * lemmaId + 4);
+    char[] chars = new char[to - from];
+    int pos = lemmaCharsOffset + 2 * from;
+    for(int i = 0; i < chars.length; i++) {
+      chars[i] = buffer.getChar(pos + 2 * i);
+    }
+    return new String(chars);
+  }
+
+  @Override
+  public int size() {
+    return nrForms;
+  }
+
+  /**
+   * The heap used by this object, the mapped file is not counted 
+   * because it lives outside of the heap.
+   * @return estimated bytes
+   */
+  @Override
+  public long memoryFootprint() {
+    return 64;
+  }
+  
+  /**
+   * Map a compiled dictionary file and return the dictionaries it contains.
+   * 
+   * @param file the compiled dictionary file
+   * @return a map from POS tag to dictionary
+   */
+  public static Map<String, LemmaDictionary> open(File file) {
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(file, "r");
+      FileChannel channel = raf.getChannel();
+      // the mapping stays valid after the channel is closed
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      raf.close();
+      if(buffer.getInt(0) != MAGIC) {
+        throw new GateRuntimeException("Not a compiled dictionary file: "+file.getAbsolutePath());
+      }
+      if(buffer.getInt(4) != VERSION) {
+        throw new GateRuntimeException("Compiled dictionary file "+file.getAbsolutePath()+
+                " has version "+buffer.getInt(4)+", expected "+VERSION+", please re-compile");
+      }
+      int nrDicts = buffer.getInt(8);
+      int pos = 12;
+      String[] tags = new String[nrDicts];
+      int[] offsets = new int[nrDicts];
+      for(int i = 0; i < nrDicts; i++) {
+        int tagLength = buffer.getShort(pos);
+        pos += 2;
+        char[] tag = new char[tagLength];
+        for(int j = 0; j < tagLength; j++) {
+          tag[j] = buffer.getChar(pos);
+          pos += 2;
+        }
+        tags[i] = new String(tag);
+        offsets[i] = buffer.getInt(pos);
+        pos += 4;
+      }
+      // the lemma pool directly follows the directory
+      int lemmaPoolOffset = pos;
+      Map<String, LemmaDictionary> dicts = new HashMap<String, LemmaDictionary>();
+      for(int i = 0; i < nrDicts; i++) {
+        dicts.put(tags[i], new MappedLemmaDictionary(buffer, offsets[i], lemmaPoolOffset));
+      }
+      return dicts;
+    } catch (GateRuntimeException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new GateRuntimeException("Could not map compiled dictionary file "+file.getAbsolutePath(), ex);
+    } finally {
+      if(raf != null) {
+        try {
+          raf.close();
+        } catch (Exception ex) {
+          // ignore
+        }
+      }
+    }
+  }
+  
+}
@@ -0,0 +1,1151 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import com.carrotsearch.hppc.CharIntHashMap;
+import com.carrotsearch.hppc.CharObjectHashMap;
+import com.carrotsearch.hppc.ObjectIntHashMap;
+import fi.seco.hfst.Transducer;
+import gate.util.GateRuntimeException;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An HFST optimized-lookup transducer whose tables are kept in flat 
+ * primitive arrays.
+ * <p>
+ * The transducers of the hfst library decode the model stream value by
+ * value into int and long arrays and build the alphabet and the input
+ * tokenizer from several hash maps. This class reads the whole uncompressed
+ * model into one buffer and copies the tables from there into char and int
+ * arrays, which takes less than half the heap. Analyses are exactly the same
+ * as those of {@link fi.seco.hfst.UnweightedTransducer} or, for weighted 
+ * transducers, {@link fi.seco.hfst.WeightedTransducer}, in the same order
+ * and with the same weights.
+ * <p>
+ * For lemmatizing, only one analysis of a word is needed: 
+ * {@link #findAnalysis(java.lang.String, java.lang.String, gate.plugin.lemmatizer.HfstSearchLimits)} 
+ * returns the first one for unweighted transducers and the one with the 
+ * lowest weight for weighted transducers, and the search can be bounded.
+ * <p>
+ * Loading can be made faster still with a cache file, see
+ * {@link #writeCache(java.io.File)}: it contains the tables in the order
+ * in which they are kept in memory, so the file is only memory-mapped and
+ * copied in bulk. The cache file is written by {@link DictionaryCompiler}.
+ * <p>
+ * The cache file format (all numbers big-endian) is:
+ * <pre>
+ * int magic, int version, int nrInputSymbols, int nrSymbols, int indexSize, int targetSize, int weighted
+ * nrSymbols times: short symbolLength, symbolLength chars
+ * char[indexSize] index inputs, int[indexSize] index targets
+ * char[targetSize] transition inputs, char[targetSize] transition outputs, int[targetSize] transition targets
+ * only if weighted is 1: float[targetSize] transition weights
+ * </pre>
+ *
+ * @author Johann Petrak
+ */
+public class OptimizedLookupTransducer implements Transducer {
+
+  public static final int MAGIC = 0x474c4854; // "GLHT"
+  public static final int VERSION = 2;
+
+  /**
+   * The extension which replaces ".gz" in the name of the model file to get
+   * the name of the cache file, e.g. en.hfst.ol.bin for en.hfst.ol.gz.
+   */
+  public static final String CACHE_EXTENSION = ".bin";
+
+  private static final char NO_SYMBOL = (char) HfstLemmatizer.NO_SYMBOL_NUMBER;
+  // an index target of the table index type, as stored in the int arrays
+  private static final int NO_TABLE_INDEX = (int) HfstLemmatizer.NO_TABLE_INDEX;
+  private static final int TRANSITION_TARGET_TABLE_START = (int) HfstLemmatizer.TRANSITION_TARGET_TABLE_START;
+
+  private static final int OL_HEADER_SIZE = 56;
+
+  // flag diacritic operators, 0 if the symbol is not a flag diacritic
+  private static final byte FLAG_P = 1;
+  private static final byte FLAG_N = 2;
+  private static final byte FLAG_R = 3;
+  private static final byte FLAG_D = 4;
+  private static final byte FLAG_C = 5;
+  private static final byte FLAG_U = 6;
+
+  private final int nrInputSymbols;
+  private final String[] symbols;
+  // the output string of each symbol, empty for epsilon and the flag diacritics
+  private final String[] keyTable;
+  private final byte[] flagOperators;
+  private final int[] flagFeatures;
+  private final int[] flagValues;
+  private final int nrFeatures;
+  private final TrieNode letterTrie;
+
+  private final char[] indexInputs;
+  private final int[] indexTargets;
+  private final char[] transitionInputs;
+  private final char[] transitionOutputs;
+  private final int[] transitionTargets;
+  // null if the transducer is unweighted, in the index table of a weighted 
+  // transducer the target of a final entry is the bits of its final weight
+  private final float[] transitionWeights;
+
+  private OptimizedLookupTransducer(int nrInputSymbols, String[] symbols,
+          char[] indexInputs, int[] indexTargets, char[] transitionInputs, 
+          char[] transitionOutputs, int[] transitionTargets, float[] transitionWeights) {
+    this.nrInputSymbols = nrInputSymbols;
+    this.symbols = symbols;
+    this.indexInputs = indexInputs;
+    this.indexTargets = indexTargets;
+    this.transitionInputs = transitionInputs;
+    this.transitionOutputs = transitionOutputs;
+    this.transitionTargets = transitionTargets;
+    this.transitionWeights = transitionWeights;
+    keyTable = new String[symbols.length];
+    flagOperators = new byte[symbols.length];
+    flagFeatures = new int[symbols.length];
+    flagValues = new int[symbols.length];
+    // parse the flag diacritics the same way as fi.seco.hfst.TransducerAlphabet
+    ObjectIntHashMap<String> features = new ObjectIntHashMap<String>();
+    ObjectIntHashMap<String> values = new ObjectIntHashMap<String>();
+    values.put("", 0);
+    for(int i = 0; i < symbols.length; i++) {
+      String symbol = symbols[i];
+      keyTable[i] = symbol;
+      if(symbol.length() > 5 && symbol.charAt(0) == '@' &&
+              symbol.charAt(symbol.length()-1) == '@' && symbol.charAt(2) == '.') {
+        keyTable[i] = "";
+        String[] parts = symbol.substring(1, symbol.length()-1).split("\\.");
+        if(parts.length < 2) {
+          continue;
+        }
+        byte op = flagOperator(parts[0]);
+        if(op == 0) {
+          continue;
+        }
+        String value = parts.length == 3 ? parts[2] : "";
+        if(!values.containsKey(value)) {
+          values.put(value, values.size());
+        }
+        if(!features.containsKey(parts[1])) {
+          features.put(parts[1], features.size());
+        }
+        flagOperators[i] = op;
+        flagFeatures[i] = features.get(parts[1]);
+        flagValues[i] = values.get(value);
+      }
+    }
+    if(keyTable.length > 0) {
+      keyTable[0] = "";
+    }
+    nrFeatures = features.size();
+    letterTrie = new TrieNode();
+    for(int i = 0; i < nrInputSymbols && i < keyTable.length; i++) {
+      letterTrie.add(keyTable[i], 0, i);
+    }
+    noFilter = filterTable("");
+  }
+
+  private static byte flagOperator(String op) {
+    if(op.equals("P")) {
+      return FLAG_P;
+    } else if(op.equals("N")) {
+      return FLAG_N;
+    } else if(op.equals("R")) {
+      return FLAG_R;
+    } else if(op.equals("D")) {
+      return FLAG_D;
+    } else if(op.equals("C")) {
+      return FLAG_C;
+    } else if(op.equals("U")) {
+      return FLAG_U;
+    }
+    return 0;
+  }
+
+  /**
+   * Read a transducer from a gzip-compressed HFST optimized-lookup file.
+   *
+   * @param modelFile the model file, e.g. en.hfst.ol.gz
+   * @return the transducer
+   * @throws IOException if the file cannot be read
+   */
+  public static OptimizedLookupTransducer read(File modelFile) throws IOException {
+    InputStream in = new GZIPInputStream(new FileInputStream(modelFile), 1 << 16);
+    byte[] bytes;
+    try {
+      // the uncompressed size is usually 3 to 4 times the compressed size
+      bytes = new byte[(int)Math.min(Integer.MAX_VALUE - 8, Math.max(1 << 16, modelFile.length() * 4))];
+      int length = 0;
+      int n;
+      while((n = in.read(bytes, length, bytes.length - length)) > 0) {
+        length += n;
+        if(length == bytes.length) {
+          bytes = Arrays.copyOf(bytes, bytes.length + (bytes.length >> 1));
+        }
+      }
+      return read(ByteBuffer.wrap(bytes, 0, length));
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Read a transducer from the uncompressed content of an HFST optimized-lookup file.
+   *
+   * @param buffer the content, from the current position
+   * @return the transducer
+   * @throws IOException if the content is not a valid transducer
+   */
+  public static OptimizedLookupTransducer read(ByteBuffer buffer) throws IOException {
+    ByteBuffer b = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+    if(b.remaining() > 8 && b.get(0) == 'H' && b.get(1) == 'F' && b.get(2) == 'S' &&
+            b.get(3) == 'T' && b.get(4) == 0) {
+      // HFST3 header: the length of the properties, a zero byte and the properties
+      int length = b.getShort(5) & 0xffff;
+      b.position(8 + length);
+    }
+    if(b.remaining() < OL_HEADER_SIZE) {
+      throw new IOException("Not an HFST optimized-lookup transducer, the header is incomplete");
+    }
+    int start = b.position();
+    int nrInputSymbols = b.getShort() & 0xffff;
+    int nrSymbols = b.getShort() & 0xffff;
+    int indexSize = b.getInt();
+    int targetSize = b.getInt();
+    boolean weighted = b.getInt(start + 20) != 0;
+    b.position(start + OL_HEADER_SIZE);
+    String[] symbols = new String[nrSymbols];
+    for(int i = 0; i < nrSymbols; i++) {
+      int end = b.position();
+      while(b.get(end) != 0) {
+        end++;
+      }
+      symbols[i] = new String(b.array(), b.arrayOffset() + b.position(), end - b.position(), StandardCharsets.UTF_8);
+      b.position(end + 1);
+    }
+    int transitionSize = weighted ? 12 : 8;
+    if(indexSize < 0 || targetSize < 0 || b.remaining() < 6L * indexSize + (long) transitionSize * targetSize) {
+      throw new IOException("Not an HFST optimized-lookup transducer, the tables are incomplete");
+    }
+    char[] indexInputs = new char[indexSize];
+    int[] indexTargets = new int[indexSize];
+    for(int i = 0; i < indexSize; i++) {
+      indexInputs[i] = b.getChar();
+      indexTargets[i] = b.getInt();
+    }
+    char[] transitionInputs = new char[targetSize];
+    char[] transitionOutputs = new char[targetSize];
+    int[] transitionTargets = new int[targetSize];
+    float[] transitionWeights = weighted ? new float[targetSize] : null;
+    for(int i = 0; i < targetSize; i++) {
+      transitionInputs[i] = b.getChar();
+      transitionOutputs[i] = b.getChar();
+      transitionTargets[i] = b.getInt();
+      if(weighted) {
+        transitionWeights[i] = b.getFloat();
+      }
+    }
+    return new OptimizedLookupTransducer(nrInputSymbols, symbols, indexInputs, indexTargets, 
+            transitionInputs, transitionOutputs, transitionTargets, transitionWeights);
+  }
+
+  /**
+   * The name of the cache file for a model file.
+   *
+   * @param modelFile the model file, e.g. en.hfst.ol.gz
+   * @return the cache file, e.g. en.hfst.ol.bin, which may not exist
+   */
+  public static File cacheFileFor(File modelFile) {
+    String name = modelFile.getName();
+    if(name.endsWith(".gz")) {
+      name = name.substring(0, name.length() - 3);
+    }
+    return new File(modelFile.getParentFile(), name + CACHE_EXTENSION);
+  }
+
+  /**
+   * Load a transducer from a cache file written by {@link #writeCache(java.io.File)}.
+   *
+   * @param cacheFile the cache file
+   * @return the transducer
+   * @throws IOException if the file cannot be read or has the wrong format
+   */
+  public static OptimizedLookupTransducer map(File cacheFile) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(cacheFile, "r");
+    ByteBuffer b;
+    try {
+      FileChannel channel = raf.getChannel();
+      b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      // the mapping stays valid after the file is closed
+      raf.close();
+    }
+    if(b.remaining() < 28 || b.getInt() != MAGIC) {
+      throw new IOException("Not a transducer cache file: "+cacheFile);
+    }
+    int version = b.getInt();
+    if(version != VERSION) {
+      throw new IOException("Transducer cache file "+cacheFile+" has version "+version+", expected "+VERSION);
+    }
+    int nrInputSymbols = b.getInt();
+    int nrSymbols = b.getInt();
+    int indexSize = b.getInt();
+    int targetSize = b.getInt();
+    boolean weighted = b.getInt() != 0;
+    String[] symbols = new String[nrSymbols];
+    for(int i = 0; i < nrSymbols; i++) {
+      char[] chars = new char[b.getShort()];
+      b.asCharBuffer().get(chars);
+      b.position(b.position() + 2 * chars.length);
+      symbols[i] = new String(chars);
+    }
+    if(b.remaining() != 6L * indexSize + (weighted ? 12L : 8L) * targetSize) {
+      throw new IOException("Transducer cache file "+cacheFile+" has the wrong size");
+    }
+    char[] indexInputs = new char[indexSize];
+    b.asCharBuffer().get(indexInputs);
+    b.position(b.position() + 2 * indexSize);
+    int[] indexTargets = new int[indexSize];
+    b.asIntBuffer().get(indexTargets);
+    b.position(b.position() + 4 * indexSize);
+    char[] transitionInputs = new char[targetSize];
+    b.asCharBuffer().get(transitionInputs);
+    b.position(b.position() + 2 * targetSize);
+    char[] transitionOutputs = new char[targetSize];
+    b.asCharBuffer().get(transitionOutputs);
+    b.position(b.position() + 2 * targetSize);
+    int[] transitionTargets = new int[targetSize];
+    b.asIntBuffer().get(transitionTargets);
+    b.position(b.position() + 4 * targetSize);
+    float[] transitionWeights = null;
+    if(weighted) {
+      transitionWeights = new float[targetSize];
+      b.asFloatBuffer().get(transitionWeights);
+    }
+    return new OptimizedLookupTransducer(nrInputSymbols, symbols, indexInputs, indexTargets, 
+            transitionInputs, transitionOutputs, transitionTargets, transitionWeights);
+  }
+
+  /**
+   * Write the transducer into a cache file which can be loaded with
+   * {@link #map(java.io.File)}.
+   *
+   * @param cacheFile the file to write
+   */
+  public void writeCache(File cacheFile) {
+    File tmpFile = new File(cacheFile.getPath()+".tmp");
+    try {
+      DataOutputStream out = new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(nrInputSymbols);
+      out.writeInt(symbols.length);
+      out.writeInt(indexInputs.length);
+      out.writeInt(transitionInputs.length);
+      out.writeInt(transitionWeights == null ? 0 : 1);
+      for(String symbol : symbols) {
+        out.writeShort(symbol.length());
+        out.writeChars(symbol);
+      }
+      for(char c : indexInputs) {
+        out.writeChar(c);
+      }
+      for(int target : indexTargets) {
+        out.writeInt(target);
+      }
+      for(char c : transitionInputs) {
+        out.writeChar(c);
+      }
+      for(char c : transitionOutputs) {
+        out.writeChar(c);
+      }
+      for(int target : transitionTargets) {
+        out.writeInt(target);
+      }
+      if(transitionWeights != null) {
+        for(float weight : transitionWeights) {
+          out.writeFloat(weight);
+        }
+      }
+      out.close();
+    } catch (Exception ex) {
+      tmpFile.delete();
+      throw new GateRuntimeException("Could not write transducer cache file "+cacheFile.getAbsolutePath(), ex);
+    }
+    if(cacheFile.exists() && !cacheFile.delete()) {
+      throw new GateRuntimeException("Could not replace transducer cache file "+cacheFile.getAbsolutePath());
+    }
+    if(!tmpFile.renameTo(cacheFile)) {
+      throw new GateRuntimeException("Could not rename "+tmpFile.getAbsolutePath()+" to "+cacheFile.getAbsolutePath());
+    }
+  }
+
+  /**
+   * The number of heap bytes used by the tables.
+   *
+   * @return bytes
+   */
+  public long memoryFootprint() {
+    return 6L * indexInputs.length + (transitionWeights == null ? 8L : 12L) * transitionInputs.length;
+  }
+
+  /**
+   * True if the transducer has weights.
+   * 
+   * @return flag
+   */
+  public boolean isWeighted() {
+    return transitionWeights != null;
+  }
+
+  @Override
+  public List<String> getAlphabet() {
+    return Collections.unmodifiableList(Arrays.asList(keyTable));
+  }
+
+  @Override
+  public List<Result> analyze(String input) {
+    Walker walker = walkers.get();
+    walker.limit(HfstSearchLimits.UNLIMITED);
+    List<Result> results = new ArrayList<Result>();
+    if(!walker.tokenize(input)) {
+      return Collections.emptyList();
+    }
+    walker.walk(noFilter, 0, results);
+    return results;
+  }
+
+  /**
+   * Find the analysis of a word which contains a string.
+   * <p>
+   * For an unweighted transducer, this is the first analysis in the list 
+   * returned by {@link #analyze(java.lang.String)} whose symbols, concatenated, 
+   * contain the string. For a weighted transducer, it is the one among them 
+   * with the lowest weight: the paths are extended best-first, in the order
+   * of their weights, and the search stops when all paths with the weight 
+   * of the first one which reached a final state have been extended. If 
+   * several analyses have that weight, the one which comes first in the 
+   * order of {@link String#compareTo(java.lang.String)} is used, the same 
+   * as by {@link HfstLemmatizer#findAnalysis(java.lang.String, gate.plugin.lemmatizer.HfstLemmatizer.TagMatcher, gate.plugin.lemmatizer.HfstSearchLimits)}
+   * for all analyses. The lowest weight is only guaranteed to be found if 
+   * there are no negative weights.
+   * <p>
+   * Only the analysis found is ever turned into a string: while the transducer 
+   * is traversed, how much of the string has been output so far is tracked 
+   * through a precomputed table, and only final states where all of it has
+   * been output count. 
+   * <p>
+   * If the search reaches one of its limits, it stops and {@link #wasCutOff()} 
+   * returns true. For a weighted transducer, the analysis with the lowest 
+   * weight found so far is returned, for an unweighted one there is none.
+   * 
+   * @param word the word
+   * @param contains the string the analysis must contain, e.g. the POS tag
+   * @param limits the bounds for the search
+   * @return the analysis, all symbols concatenated, or null if there is none
+   */
+  public String findAnalysis(String word, String contains, HfstSearchLimits limits) {
+    int[] filter = filters.get(contains);
+    if(filter == null) {
+      filter = filterTable(contains);
+      if(filters.size() < MAX_FILTERS) {
+        filters.put(contains, filter);
+      }
+    }
+    Walker walker = walkers.get();
+    walker.limit(limits);
+    if(!walker.tokenize(word)) {
+      return null;
+    }
+    if(transitionWeights == null) {
+      return walker.walk(filter, contains.length(), null);
+    }
+    return walker.search(filter, contains.length());
+  }
+
+  /**
+   * True if the last search of the calling thread was stopped by its limits.
+   * 
+   * @return flag
+   */
+  public boolean wasCutOff() {
+    return walkers.get().cutOff;
+  }
+
+  /**
+   * Reset the flag returned by {@link #wasCutOff()} for the calling thread, 
+   * e.g. if a word is not searched at all.
+   */
+  public void clearCutOff() {
+    walkers.get().cutOff = false;
+  }
+
+  // do not let the filters grow without limits if we get garbage tags
+  private static final int MAX_FILTERS = 100;
+
+  private final Map<String, int[]> filters = new ConcurrentHashMap<String, int[]>();
+  private final int[] noFilter;
+
+  private final ThreadLocal<Walker> walkers = new ThreadLocal<Walker>() {
+    @Override
+    protected Walker initialValue() {
+      return new Walker();
+    }
+  };
+
+  /**
+   * Create the table which tracks how much of a string has been output:
+   * for the number s of characters of the string which match the end of 
+   * the output so far and an output symbol y, the entry s * nrSymbols + y is 
+   * that number after y has been output. Once the whole string has been 
+   * matched, the number stays at its length.
+   */
+  private int[] filterTable(String contains) {
+    int m = contains.length();
+    // the failure function of the Knuth-Morris-Pratt algorithm
+    int[] failure = new int[m + 1];
+    failure[0] = -1;
+    for(int i = 1, k = 0; i < m; i++) {
+      while(k > 0 && contains.charAt(i) != contains.charAt(k)) {
+        k = failure[k];
+      }
+      if(contains.charAt(i) == contains.charAt(k)) {
+        k++;
+      }
+      failure[i + 1] = k;
+    }
+    int[] table = new int[(m + 1) * keyTable.length];
+    for(int s = 0; s <= m; s++) {
+      for(int y = 0; y < keyTable.length; y++) {
+        int state = s;
+        String symbol = keyTable[y];
+        for(int i = 0; i < symbol.length() && state < m; i++) {
+          char c = symbol.charAt(i);
+          while(state > 0 && contains.charAt(state) != c) {
+            state = failure[state];
+          }
+          if(contains.charAt(state) == c) {
+            state++;
+          }
+        }
+        table[s * keyTable.length + y] = state;
+      }
+    }
+    return table;
+  }
+
+  /**
+   * A node of the trie which splits the input into input symbols, preferring
+   * the longest symbol at each position.
+   */
+  private static final class TrieNode {
+    // the symbols which end with a character at this node
+    private final CharIntHashMap symbols = new CharIntHashMap();
+    private final CharObjectHashMap<TrieNode> children = new CharObjectHashMap<TrieNode>();
+
+    void add(String symbol, int from, int key) {
+      if(symbol.length() - from > 1) {
+        char c = symbol.charAt(from);
+        TrieNode child = children.get(c);
+        if(child == null) {
+          child = new TrieNode();
+          children.put(c, child);
+        }
+        child.add(symbol, from + 1, key);
+      } else if(symbol.length() - from == 1) {
+        symbols.put(symbol.charAt(from), key);
+      }
+    }
+  }
+
+  private static final byte PHASE_EPSILON = 0;
+  private static final byte PHASE_SYMBOL = 1;
+
+  // the value of a flag diacritic feature if the flag diacritic is not allowed
+  private static final int REJECTED = Integer.MIN_VALUE;
+
+  private static final int TIME_CHECK_INTERVAL = 64;
+
+  /**
+   * Traverses the transducer for one word at a time, with all state in
+   * primitive arrays which are re-used for the next word. Each thread has 
+   * its own walker.
+   * <p>
+   * The depth-first traversal follows the paths in the same order as the 
+   * recursive traversal of {@link fi.seco.hfst.UnweightedTransducer}: from 
+   * each state, first the epsilon and flag diacritic transitions, then the 
+   * finality of the state if the input has been consumed, otherwise the 
+   * transitions for the next input symbol. Weights are summed up in the 
+   * same way as by {@link fi.seco.hfst.WeightedTransducer}, so they are
+   * exactly the same. 
+   * <p>
+   * The best-first search follows the same transitions, but keeps the paths
+   * as a tree of nodes and always extends the one with the lowest weight 
+   * next, the one created first if several have the same weight. Once a 
+   * final node has been reached, the other nodes with its weight are still
+   * extended, since they can lead to other analyses with the same weight.
+   */
+  private final class Walker {
+    // the input symbols of the word, terminated by NO_SYMBOL
+    char[] input = new char[32];
+    int inputPointer;
+    // the end of the longest symbol found by the last call to findKey
+    int keyEnd;
+    // one entry per depth: the state, the next transition to follow, 
+    // the phase, if a flag diacritic was pushed to get there,
+    // the filter state of the output up to there and the weight of the 
+    // transition to get there
+    int[] states = new int[64];
+    int[] next = new int[64];
+    byte[] phases = new byte[64];
+    boolean[] flagPushed = new boolean[64];
+    int[] filterStates = new int[64];
+    float[] weights = new float[64];
+    float currentWeight;
+    // the output symbol of the transition into each depth
+    char[] output = new char[64];
+    // the flag diacritic feature values, a stack of nrFeatures values per level
+    int[] flagStack = new int[8 * Math.max(1, nrFeatures)];
+    int flagTop;
+    final StringBuilder analysis = new StringBuilder();
+    // the nodes of the best-first search: the node a node was reached from, 
+    // the output symbol, the state, the input position (-1 for a final state 
+    // with an accepted output), the filter state, the weight and where the 
+    // flag diacritic feature values start in flagStack
+    int[] parents;
+    char[] nodeOutputs;
+    int[] nodeStates;
+    int[] nodeInputs;
+    int[] nodeFilters;
+    float[] nodeWeights;
+    int[] nodeFlags;
+    int nrNodes;
+    // the nodes still to be extended, a binary heap ordered by before()
+    int[] heap;
+    int heapSize;
+    // the limits of the current search, how far it got and when the 
+    // limits have to be checked next
+    int maxPaths;
+    boolean timed;
+    long deadline;
+    int paths;
+    int nextCheck;
+    boolean cutOff;
+
+    void limit(HfstSearchLimits limits) {
+      maxPaths = limits.getMaxPaths();
+      long budget = limits.getTimeBudgetNanos();
+      timed = budget > 0;
+      deadline = timed ? System.nanoTime() + budget : 0;
+      paths = 0;
+      cutOff = false;
+      nextCheck = 0;
+      checkLimits();
+    }
+
+    /**
+     * Count a transition which is followed. 
+     * 
+     * @return true if a limit has been reached and the search must stop
+     */
+    private boolean exhausted() {
+      return ++paths >= nextCheck && checkLimits();
+    }
+
+    // check the limits, the clock is only read every TIME_CHECK_INTERVAL transitions
+    private boolean checkLimits() {
+      if((maxPaths > 0 && paths > maxPaths) || (timed && System.nanoTime() - deadline > 0)) {
+        cutOff = true;
+        return true;
+      }
+      nextCheck = maxPaths > 0 ? maxPaths + 1 : Integer.MAX_VALUE;
+      if(timed) {
+        nextCheck = Math.min(nextCheck, paths + TIME_CHECK_INTERVAL);
+      }
+      return false;
+    }
+
+    /**
+     * Split the word into input symbols.
+     * 
+     * @return false if the word contains something which is not an input symbol
+     */
+    boolean tokenize(String word) {
+      if(input.length <= word.length()) {
+        input = new char[word.length() + 1];
+      }
+      int n = 0;
+      int pos = 0;
+      while(pos < word.length()) {
+        char key = findKey(word, pos);
+        if(key == NO_SYMBOL) {
+          n = 0;
+          break;
+        }
+        input[n++] = key;
+        pos = keyEnd;
+      }
+      input[n] = NO_SYMBOL;
+      return n > 0;
+    }
+
+    private char findKey(String word, int from) {
+      TrieNode node = letterTrie;
+      int key = 0;
+      for(int i = from; i < word.length() && node != null; i++) {
+        char c = word.charAt(i);
+        int k = node.symbols.get(c);
+        if(k != 0) {
+          key = k;
+          keyEnd = i + 1;
+        }
+        node = node.children.get(c);
+      }
+      return key == 0 ? NO_SYMBOL : (char) key;
+    }
+
+    /**
+     * Follow all paths for the tokenized input, depth-first.
+     * 
+     * @param filter the filter table, see filterTable
+     * @param accepted the filter state of an output which is accepted
+     * @param results if not null, receives all accepted analyses
+     * @return if results is null, the first accepted analysis or null
+     */
+    String walk(int[] filter, int accepted, List<Result> results) {
+      int nrSymbols = keyTable.length;
+      inputPointer = 0;
+      flagTop = 0;
+      currentWeight = 0f;
+      int depth = 0;
+      states[0] = 0;
+      filterStates[0] = 0;
+      flagPushed[0] = false;
+      weights[0] = 0f;
+      enter(0);
+      while(depth >= 0) {
+        int state = states[depth];
+        int i = next[depth];
+        if(phases[depth] == PHASE_EPSILON) {
+          if(i >= 0) {
+            char symbol = transitionInputs[i];
+            boolean flag = symbol < flagOperators.length && flagOperators[symbol] != 0;
+            if(flag || symbol == 0) {
+              next[depth] = i + 1;
+              if(exhausted()) {
+                return null;
+              }
+              if(!flag || pushFlag(symbol)) {
+                depth = push(depth, i, flag, filter, nrSymbols);
+              }
+              continue;
+            }
+          }
+          if(input[inputPointer] == NO_SYMBOL) {
+            if(filterStates[depth] == accepted && isFinal(state)) {
+              if(results == null) {
+                return analysis(depth);
+              }
+              if(transitionWeights == null) {
+                results.add(new Result(symbols(depth), 1.0f));
+              } else {
+                float finalWeight = finalWeight(state);
+                currentWeight += finalWeight;
+                results.add(new Result(symbols(depth), currentWeight));
+                currentWeight -= finalWeight;
+              }
+            }
+            depth = pop(depth);
+            continue;
+          }
+          char symbol = input[inputPointer++];
+          phases[depth] = PHASE_SYMBOL;
+          next[depth] = transitions(state, symbol);
+        } else {
+          char symbol = input[inputPointer - 1];
+          if(i >= 0 && transitionInputs[i] != NO_SYMBOL && transitionInputs[i] == symbol) {
+            next[depth] = i + 1;
+            if(exhausted()) {
+              return null;
+            }
+            depth = push(depth, i, false, filter, nrSymbols);
+          } else {
+            inputPointer--;
+            depth = pop(depth);
+          }
+        }
+      }
+      return null;
+    }
+
+    // set up the current depth for the state stored there
+    private void enter(int depth) {
+      phases[depth] = PHASE_EPSILON;
+      next[depth] = epsilons(states[depth]);
+    }
+
+    // follow transition i from the current depth
+    private int push(int depth, int i, boolean flag, int[] filter, int nrSymbols) {
+      if(depth + 1 == states.length) {
+        int size = states.length * 2;
+        states = Arrays.copyOf(states, size);
+        next = Arrays.copyOf(next, size);
+        phases = Arrays.copyOf(phases, size);
+        flagPushed = Arrays.copyOf(flagPushed, size);
+        filterStates = Arrays.copyOf(filterStates, size);
+        weights = Arrays.copyOf(weights, size);
+        output = Arrays.copyOf(output, size);
+      }
+      char out = transitionOutputs[i];
+      output[depth] = out;
+      depth++;
+      filterStates[depth] = filter[filterStates[depth - 1] * nrSymbols + out];
+      flagPushed[depth] = flag;
+      states[depth] = transitionTargets[i];
+      if(transitionWeights != null) {
+        weights[depth] = transitionWeights[i];
+        currentWeight += weights[depth];
+      }
+      enter(depth);
+      return depth;
+    }
+
+    private int pop(int depth) {
+      if(flagPushed[depth]) {
+        flagTop -= nrFeatures;
+      }
+      if(transitionWeights != null) {
+        currentWeight -= weights[depth];
+      }
+      return depth - 1;
+    }
+
+    /**
+     * Follow the paths for the tokenized input best-first until the best
+     * one ends in a final state with an accepted output.
+     * 
+     * @param filter the filter table, see filterTable
+     * @param accepted the filter state of an output which is accepted
+     * @return the analysis with the lowest weight or null
+     */
+    String search(int[] filter, int accepted) {
+      int nrSymbols = keyTable.length;
+      if(parents == null) {
+        growNodes(64);
+        heap = new int[64];
+      }
+      nrNodes = 0;
+      heapSize = 0;
+      flagTop = 0;
+      // the final node with the lowest weight so far and its analysis, the 
+      // smallest one among those with the same weight
+      int best = -1;
+      String bestAnalysis = null;
+      // if the best final node has been reached, so that it is known
+      // that no analysis with a lower weight can follow
+      boolean bestReached = false;
+      offer(node(-1, NO_SYMBOL, 0, 0, 0, 0f, 0));
+      while(heapSize > 0) {
+        int n = poll();
+        if(bestReached && nodeWeights[n] > nodeWeights[best]) {
+          break;
+        }
+        int position = nodeInputs[n];
+        if(position < 0) {
+          bestReached = true;
+          continue;
+        }
+        int state = nodeStates[n];
+        for(int i = epsilons(state); i >= 0; i++) {
+          char symbol = transitionInputs[i];
+          boolean flag = symbol < flagOperators.length && flagOperators[symbol] != 0;
+          if(!flag && symbol != 0) {
+            break;
+          }
+          if(exhausted()) {
+            return bestAnalysis;
+          }
+          int flags = nodeFlags[n];
+          if(flag && (flags = applyFlag(symbol, flags)) < 0) {
+            continue;
+          }
+          char out = transitionOutputs[i];
+          offer(node(n, out, transitionTargets[i], position, filter[nodeFilters[n] * nrSymbols + out],
+                  nodeWeights[n] + transitionWeights[i], flags));
+        }
+        char symbol = input[position];
+        if(symbol == NO_SYMBOL) {
+          if(nodeFilters[n] == accepted && isFinal(state)) {
+            int f = node(n, NO_SYMBOL, state, -1, accepted, nodeWeights[n] + finalWeight(state), nodeFlags[n]);
+            if(best < 0 || nodeWeights[f] <= nodeWeights[best]) {
+              String fAnalysis = pathAnalysis(f);
+              if(best < 0 || nodeWeights[f] < nodeWeights[best] || fAnalysis.compareTo(bestAnalysis) < 0) {
+                best = f;
+                bestAnalysis = fAnalysis;
+              }
+            }
+            offer(f);
+          }
+          continue;
+        }
+        for(int i = transitions(state, symbol); 
+                i >= 0 && transitionInputs[i] != NO_SYMBOL && transitionInputs[i] == symbol; i++) {
+          if(exhausted()) {
+            return bestAnalysis;
+          }
+          char out = transitionOutputs[i];
+          offer(node(n, out, transitionTargets[i], position + 1, filter[nodeFilters[n] * nrSymbols + out],
+                  nodeWeights[n] + transitionWeights[i], nodeFlags[n]));
+        }
+      }
+      return bestAnalysis;
+    }
+
+    private int node(int parent, char out, int state, int position, int filterState, float weight, int flags) {
+      if(nrNodes == parents.length) {
+        growNodes(nrNodes * 2);
+      }
+      int n = nrNodes++;
+      parents[n] = parent;
+      nodeOutputs[n] = out;
+      nodeStates[n] = state;
+      nodeInputs[n] = position;
+      nodeFilters[n] = filterState;
+      nodeWeights[n] = weight;
+      nodeFlags[n] = flags;
+      return n;
+    }
+
+    private void growNodes(int size) {
+      if(parents == null) {
+        parents = new int[size];
+        nodeOutputs = new char[size];
+        nodeStates = new int[size];
+        nodeInputs = new int[size];
+        nodeFilters = new int[size];
+        nodeWeights = new float[size];
+        nodeFlags = new int[size];
+      } else {
+        parents = Arrays.copyOf(parents, size);
+        nodeOutputs = Arrays.copyOf(nodeOutputs, size);
+        nodeStates = Arrays.copyOf(nodeStates, size);
+        nodeInputs = Arrays.copyOf(nodeInputs, size);
+        nodeFilters = Arrays.copyOf(nodeFilters, size);
+        nodeWeights = Arrays.copyOf(nodeWeights, size);
+        nodeFlags = Arrays.copyOf(nodeFlags, size);
+      }
+    }
+
+    // the node with the lower weight comes first, for the same weight the one created first
+    private boolean before(int a, int b) {
+      return nodeWeights[a] < nodeWeights[b] || (nodeWeights[a] == nodeWeights[b] && a < b);
+    }
+
+    private void offer(int n) {
+      if(heapSize == heap.length) {
+        heap = Arrays.copyOf(heap, heapSize * 2);
+      }
+      int k = heapSize++;
+      while(k > 0) {
+        int parent = (k - 1) >>> 1;
+        if(!before(n, heap[parent])) {
+          break;
+        }
+        heap[k] = heap[parent];
+        k = parent;
+      }
+      heap[k] = n;
+    }
+
+    private int poll() {
+      int first = heap[0];
+      int last = heap[--heapSize];
+      int k = 0;
+      while(2 * k + 1 < heapSize) {
+        int child = 2 * k + 1;
+        if(child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+          child++;
+        }
+        if(!before(heap[child], last)) {
+          break;
+        }
+        heap[k] = heap[child];
+        k = child;
+      }
+      heap[k] = last;
+      return first;
+    }
+
+    // the analysis for the path to a final node
+    private String pathAnalysis(int node) {
+      int length = 0;
+      for(int n = parents[node]; parents[n] >= 0; n = parents[n]) {
+        length++;
+      }
+      if(output.length < length) {
+        output = new char[length];
+      }
+      int i = length;
+      for(int n = parents[node]; parents[n] >= 0; n = parents[n]) {
+        output[--i] = nodeOutputs[n];
+      }
+      return analysis(length);
+    }
+
+    // the first epsilon or flag diacritic transition of a state, -1 if there is none
+    private int epsilons(int state) {
+      if(state < 0) {
+        return state - TRANSITION_TARGET_TABLE_START + 1;
+      }
+      return indexInputs[state + 1] == 0 ? pivot(indexTargets[state + 1]) : -1;
+    }
+
+    // the first transition of a state for an input symbol, -1 if there is none
+    private int transitions(int state, char symbol) {
+      if(state < 0) {
+        return state - TRANSITION_TARGET_TABLE_START + 1;
+      }
+      return indexInputs[state + 1 + symbol] == symbol ? pivot(indexTargets[state + 1 + symbol]) : -1;
+    }
+
+    private boolean isFinal(int state) {
+      if(state < 0) {
+        int t = state - TRANSITION_TARGET_TABLE_START;
+        return t < transitionInputs.length && transitionInputs[t] == NO_SYMBOL &&
+                transitionOutputs[t] == NO_SYMBOL && transitionTargets[t] == 1;
+      }
+      return indexInputs[state] == NO_SYMBOL && indexTargets[state] != NO_TABLE_INDEX;
+    }
+
+    // the final weight of a final state of a weighted transducer
+    private float finalWeight(int state) {
+      if(state < 0) {
+        return transitionWeights[state - TRANSITION_TARGET_TABLE_START];
+      }
+      return Float.intBitsToFloat(indexTargets[state]);
+    }
+
+    private int pivot(int target) {
+      return target < 0 ? target - TRANSITION_TARGET_TABLE_START : target;
+    }
+
+    private String analysis(int depth) {
+      analysis.setLength(0);
+      for(int i = 0; i < depth; i++) {
+        analysis.append(keyTable[output[i]]);
+      }
+      return analysis.toString();
+    }
+
+    private List<String> symbols(int depth) {
+      List<String> result = new ArrayList<String>(depth);
+      for(int i = 0; i < depth; i++) {
+        result.add(keyTable[output[i]]);
+      }
+      return result;
+    }
+
+    /**
+     * Apply a flag diacritic: if it is allowed, push the new feature values
+     * and return true.
+     */
+    private boolean pushFlag(char symbol) {
+      int feature = flagFeatures[symbol];
+      int value = flagValue(symbol, flagStack[flagTop + feature]);
+      if(value == REJECTED) {
+        return false;
+      }
+      flagTop = copyFlags(flagTop);
+      flagStack[flagTop + feature] = value;
+      return true;
+    }
+
+    /**
+     * Apply a flag diacritic to the feature values of a node of the 
+     * best-first search.
+     * 
+     * @return where the new feature values start in flagStack, -1 if the
+     * flag diacritic is not allowed
+     */
+    private int applyFlag(char symbol, int flags) {
+      int feature = flagFeatures[symbol];
+      int value = flagValue(symbol, flagStack[flags + feature]);
+      if(value == REJECTED) {
+        return -1;
+      }
+      if(value == flagStack[flags + feature]) {
+        return flags;
+      }
+      flagTop = copyFlags(flags);
+      flagStack[flagTop + feature] = value;
+      return flagTop;
+    }
+
+    // copy the feature values which start at from to the top of the stack
+    private int copyFlags(int from) {
+      int top = flagTop + nrFeatures;
+      if(top + nrFeatures > flagStack.length) {
+        flagStack = Arrays.copyOf(flagStack, flagStack.length * 2);
+      }
+      System.arraycopy(flagStack, from, flagStack, top, nrFeatures);
+      return top;
+    }
+
+    // the new value of the feature of a flag diacritic, REJECTED if it is not allowed
+    private int flagValue(char symbol, int current) {
+      int value = flagValues[symbol];
+      switch(flagOperators[symbol]) {
+        case FLAG_P:
+          return value;
+        case FLAG_N:
+          return -value;
+        case FLAG_R:
+          return (value == 0 ? current == 0 : current != value) ? REJECTED : current;
+        case FLAG_D:
+          return (value == 0 ? current != 0 : current == value) ? REJECTED : current;
+        case FLAG_C:
+          return 0;
+        case FLAG_U:
+          return (current != 0 && current != value && current >= 0) ? REJECTED : value;
+        default:
+          return REJECTED;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import gate.util.GateRuntimeException;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A mapping from the tags of some POS tag set to universal dependency tags.
+ * <p>
+ * Tags which are not in the mapping are used unchanged, so the universal
+ * dependency tags themselves do not need to be listed. With a mapping file,
+ * some universal dependency tags are then mapped to the tag whose dictionary
+ * or HFST analysis should get used: auxiliary verbs are treated as verbs and
+ * the conjunction tags of universal dependencies version 2 as the 
+ * version 1 CONJ tag. Without a mapping file ({@link #UNIVERSAL}) all tags
+ * are used as they are.
+ * <p>
+ * Mapping files are UTF-8 text files with one tag and the universal 
+ * dependency tag it maps to per line, separated by white space. Empty 
+ * lines and lines starting with # are ignored. 
+ *
+ * @author Johann Petrak
+ */
+public class PosTagMapping {
+
+  private static final Map<String, String> UD_TAGS_TO_USE = new HashMap<String, String>();
+  static {
+    UD_TAGS_TO_USE.put("AUX", "VERB");
+    UD_TAGS_TO_USE.put("CCONJ", "CONJ");
+    UD_TAGS_TO_USE.put("SCONJ", "CONJ");
+  }
+  
+  /**
+   * The mapping used if no mapping file is specified: the tags are 
+   * expected to be universal dependency tags already and are only
+   * converted to upper case.
+   */
+  public static final PosTagMapping UNIVERSAL = new PosTagMapping(new HashMap<String, String>(), false);
+
+  private final Map<String, String> map;
+  // if the universal dependency tags get mapped to the tags to use
+  private final boolean mapUdTags;
+
+  protected PosTagMapping(Map<String, String> map, boolean mapUdTags) {
+    this.map = Collections.unmodifiableMap(map);
+    this.mapUdTags = mapUdTags;
+  }
+
+  /**
+   * Map a tag to the universal dependency tag.
+   *
+   * @param tag the tag
+   * @return the universal dependency tag to use, upper case
+   */
+  public String map(String tag) {
+    String ud = map.get(tag);
+    if(ud == null) {
+      ud = map.get(tag.toUpperCase());
+    }
+    if(ud == null) {
+      ud = tag.toUpperCase();
+    }
+    if(!mapUdTags) {
+      return ud;
+    }
+    String use = UD_TAGS_TO_USE.get(ud);
+    return use == null ? ud : use;
+  }
+
+  /**
+   * Load a mapping file.
+   *
+   * @param url the location of the mapping file
+   * @return the mapping
+   */
+  public static PosTagMapping load(URL url) {
+    Map<String, String> map = new HashMap<String, String>();
+    BufferedReader in = null;
+    try {
+      in = new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8"));
+      String line;
+      int lineNr = 0;
+      while((line = in.readLine()) != null) {
+        lineNr++;
+        line = line.trim();
+        if(line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split("\\s+");
+        if(fields.length != 2) {
+          throw new GateRuntimeException("POS tag mapping "+url+", line "+lineNr+
+                  ": expected a tag and a universal dependency tag, got "+line);
+        }
+        map.put(fields[0], fields[1].toUpperCase());
+      }
+      in.close();
+    } catch (GateRuntimeException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      throw new GateRuntimeException("Could not read POS tag mapping "+url, ex);
+    }
+    return new PosTagMapping(map, true);
+  }
+
+}
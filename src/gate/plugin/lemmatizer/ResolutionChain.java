@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The tiers which are tried, in order, to find the lemma of a word.
+ * <p>
+ * The first tier which finds a lemma ends the chain, if none finds one,
+ * the word itself is used. Tiers for which a language has no resources, 
+ * e.g. the HFST for a language without a model, are skipped. The HFST tier
+ * includes the cache of HFST results, if the engine has one.
+ * <p>
+ * Chains can be given as text, e.g. {@code "dictionary, suffix, hfst"}: the 
+ * names of the tiers in any case, separated by commas, whitespace or arrows
+ * ({@code ->}), optionally ending with {@code identity}.
+ * Instances are immutable.
+ *
+ * @author Johann Petrak
+ */
+public final class ResolutionChain {
+
+  /**
+   * The ways a lemma can be found.
+   */
+  public static enum Tier {
+    /** Look up the word in the dictionary for its tag. */
+    DICTIONARY,
+    /** Analyze the word with the HFST. */
+    HFST,
+    /** Guess the lemma from the suffix of the word, see {@link SuffixLemmatizer}. */
+    SUFFIX
+  }
+
+  /**
+   * The chain used for languages with an HFST model if nothing else is configured.
+   */
+  public static final ResolutionChain DICTIONARY_HFST = new ResolutionChain(Tier.DICTIONARY, Tier.HFST);
+
+  /**
+   * The chain used for languages without an HFST model if nothing else is configured.
+   * The suffix rules are not included, they have to be enabled explicitly,
+   * e.g. with {@code "dictionary, suffix"}.
+   */
+  public static final ResolutionChain DICTIONARY = new ResolutionChain(Tier.DICTIONARY);
+
+  private static final String IDENTITY = "IDENTITY";
+
+  private final Tier[] tiers;
+
+  /**
+   * Create a chain.
+   * 
+   * @param tiers the tiers in the order they are tried, each at most once
+   */
+  public ResolutionChain(Tier... tiers) {
+    for(int i = 0; i < tiers.length; i++) {
+      if(tiers[i] == null) {
+        throw new IllegalArgumentException("Tier must not be null");
+      }
+      for(int j = 0; j < i; j++) {
+        if(tiers[j] == tiers[i]) {
+          throw new IllegalArgumentException("Tier "+tiers[i]+" is used more than once");
+        }
+      }
+    }
+    this.tiers = tiers.clone();
+  }
+
+  /**
+   * Parse a chain from its text form.
+   * 
+   * @param spec the tiers, e.g. "dictionary,hfst,suffix"
+   * @return the chain
+   * @throws IllegalArgumentException if a name is not known or a tier is given twice
+   */
+  public static ResolutionChain parse(String spec) {
+    List<Tier> tiers = new ArrayList<Tier>();
+    String[] names = spec.trim().split("\\s*(,|->|\\u2192|\\s)\\s*");
+    for(int i = 0; i < names.length; i++) {
+      String name = names[i].toUpperCase();
+      if(name.isEmpty()) {
+        continue;
+      }
+      if(name.equals(IDENTITY)) {
+        // the word itself is always the last resort
+        if(i != names.length - 1) {
+          throw new IllegalArgumentException("identity must be the last tier: "+spec);
+        }
+        continue;
+      }
+      try {
+        tiers.add(Tier.valueOf(name));
+      } catch (IllegalArgumentException ex) {
+        throw new IllegalArgumentException("Unknown tier "+names[i]+" in "+spec+
+                ", known are "+Arrays.toString(Tier.values())+" and "+IDENTITY);
+      }
+    }
+    return new ResolutionChain(tiers.toArray(new Tier[tiers.size()]));
+  }
+
+  /**
+   * The chain used for some resources if nothing else is configured: the
+   * dictionary, then the HFST if there is one.
+   * 
+   * @param resources the resources of a language
+   * @return the chain
+   */
+  public static ResolutionChain defaultFor(LemmatizerResources resources) {
+    return resources.getHfstLemmatizer() != null ? DICTIONARY_HFST : DICTIONARY;
+  }
+
+  /**
+   * The tiers in the order they are tried.
+   * @return a copy of the tiers
+   */
+  public Tier[] getTiers() {
+    return tiers.clone();
+  }
+
+  /**
+   * True if the chain uses a tier.
+   * @param tier the tier
+   * @return flag
+   */
+  public boolean contains(Tier tier) {
+    for(Tier t : tiers) {
+      if(t == tier) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof ResolutionChain && Arrays.equals(tiers, ((ResolutionChain)other).tiers);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(tiers);
+  }
+
+  /**
+   * The text form of the chain, which can be parsed again.
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for(Tier tier : tiers) {
+      sb.append(tier.toString().toLowerCase()).append(",");
+    }
+    return sb.append(IDENTITY.toLowerCase()).toString();
+  }
+
+}
@@ -0,0 +1,672 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.IntIntHashMap;
+import com.carrotsearch.hppc.ObjectIntHashMap;
+import gate.util.GateRuntimeException;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Guesses the lemma of a word which is not in the dictionary from its suffix.
+ * <p>
+ * The rules are learned from a dictionary: for each form, the rule which 
+ * turns it into its lemma is to remove a number of characters from the end
+ * and append a string, e.g. "remove 3, append y" for "studies". Every lemma
+ * also counts as a form of itself, even if the dictionary does not list it,
+ * so that words which already are a lemma are left alone. The rules 
+ * are kept in a trie of the reversed, lower-cased suffixes of the forms, 
+ * where each node has the rule used most often by the forms which end with 
+ * its suffix, if that rule is used by at least {@value #MIN_SHARE_PERCENT}% 
+ * of these forms. Otherwise the node has no rule and words ending with its
+ * suffix get no lemma. A word gets the rule of the node for its longest 
+ * suffix in the trie. Nodes which have the same rule as their parent are 
+ * removed and the trie is stored in flat arrays, so that a lookup only takes
+ * a few array accesses per character of the suffix.
+ * <p>
+ * Rules are only learned for the open word classes in {@link #TAGS}: the
+ * words of the other classes are few and irregular, the dictionaries 
+ * should have all of them and a guess from the suffix is mostly wrong.
+ * <p>
+ * Learning the rules for a large dictionary takes about a second, so
+ * {@link DictionaryCompiler} writes the rules for all tags of a language into 
+ * the file {@value #FILE_NAME}, which is read with {@link #read(java.io.File)}.
+ * <p>
+ * Instances are immutable and can be used by several threads concurrently.
+ * The {@link #main(java.lang.String[])} method reports the accuracy and 
+ * throughput on dictionary entries which were held out from learning.
+ *
+ * @author Johann Petrak
+ */
+public class SuffixLemmatizer {
+
+  /**
+   * The name of the file with the rules for all tags in the dictionary directory of a language.
+   */
+  public static final String FILE_NAME = "suffixRules.bin";
+  
+  public static final int MAGIC = 0x474c5352; // "GLSR"
+  public static final int VERSION = 2;
+  
+  /**
+   * The universal dependency tags for which rules are learned.
+   */
+  public static final String[] TAGS = new String[] { "ADJ", "ADV", "NOUN", "VERB" };
+
+  /**
+   * The longest suffix of a word which is used to choose its rule.
+   */
+  public static final int MAX_SUFFIX_LENGTH = 8;
+  
+  // the rule of a node is only used if at least this many forms end with its 
+  // suffix, otherwise the rule of its parent is used
+  private static final int MIN_SUPPORT = 2;
+  
+  /**
+   * The share of the forms ending with the suffix of a node, in percent, 
+   * which must use the most frequent rule for the node to have a rule.
+   */
+  public static final int MIN_SHARE_PERCENT = 90;
+
+  // the nodes in breadth-first order, node 0 is the root: the character which 
+  // leads to each node, the first child of each node, with the children of 
+  // node i ending before the first child of node i+1, sorted by character, 
+  // and the rule for the suffix of each node, -1 if words with the suffix 
+  // should get no lemma
+  private final char[] nodeChars;
+  private final int[] firstChild;
+  private final int[] nodeRules;
+  // the number of characters each rule removes and the string it appends
+  private final int[] ruleStrip;
+  private final String[] ruleAppend;
+
+  private SuffixLemmatizer(char[] nodeChars, int[] firstChild, int[] nodeRules, 
+          int[] ruleStrip, String[] ruleAppend) {
+    this.nodeChars = nodeChars;
+    this.firstChild = firstChild;
+    this.nodeRules = nodeRules;
+    this.ruleStrip = ruleStrip;
+    this.ruleAppend = ruleAppend;
+  }
+
+  /**
+   * Guess the lemma of a word.
+   * <p>
+   * The case of the word is ignored for choosing the rule, the lemma keeps 
+   * the case of the part of the word which is not removed.
+   * 
+   * @param word the word
+   * @return the lemma or null if no rule applies to the word
+   */
+  public String getLemma(CharSequence word) {
+    int length = word.length();
+    int node = 0;
+    int rule = -1;
+    for(int depth = 1; depth <= length; depth++) {
+      node = child(node, Character.toLowerCase(word.charAt(length - depth)));
+      if(node < 0) {
+        break;
+      }
+      int r = nodeRules[node];
+      if(r < 0) {
+        rule = -1;
+      } else if(ruleStrip[r] < length) {
+        // at least one character of the word must be kept
+        rule = r;
+      }
+    }
+    if(rule < 0) {
+      return null;
+    }
+    int stem = length - ruleStrip[rule];
+    String append = ruleAppend[rule];
+    if(stem == length && append.isEmpty()) {
+      return word.toString();
+    }
+    return new StringBuilder(stem + append.length()).append(word, 0, stem).append(append).toString();
+  }
+
+  // the child of a node for a character, -1 if there is none
+  private int child(int node, char c) {
+    int low = firstChild[node];
+    int high = firstChild[node + 1] - 1;
+    while(low <= high) {
+      int mid = (low + high) >>> 1;
+      char m = nodeChars[mid];
+      if(m < c) {
+        low = mid + 1;
+      } else if(m > c) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * The number of distinct rules.
+   * @return number of rules
+   */
+  public int nrRules() {
+    return ruleStrip.length;
+  }
+
+  /**
+   * The number of nodes of the trie.
+   * @return number of nodes
+   */
+  public int nrNodes() {
+    return nodeRules.length;
+  }
+
+  /**
+   * An estimate of the number of heap bytes used.
+   * @return estimated bytes
+   */
+  public long memoryFootprint() {
+    long bytes = 16 + 2L * nodeChars.length + 16 + 4L * firstChild.length + 16 + 4L * nodeRules.length;
+    bytes += 16 + 4L * ruleStrip.length + 16 + 4L * ruleAppend.length;
+    for(String append : ruleAppend) {
+      bytes += 24 + 16 + 2L * append.length();
+    }
+    return bytes;
+  }
+
+  /**
+   * Read the rules for all tags from a file written by {@link #write(java.util.Map, java.io.File)}.
+   *
+   * @param file the file
+   * @return map from tags to lemmatizers, in the order they were written
+   * @throws IOException if the file cannot be read or has the wrong format
+   */
+  public static Map<String, SuffixLemmatizer> read(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    ByteBuffer b;
+    try {
+      FileChannel channel = raf.getChannel();
+      b = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      // the mapping stays valid after the file is closed
+      raf.close();
+    }
+    if(b.remaining() < 12 || b.getInt() != MAGIC) {
+      throw new IOException("Not a suffix rules file: "+file);
+    }
+    int version = b.getInt();
+    if(version != VERSION) {
+      throw new IOException("Suffix rules file "+file+" has version "+version+", expected "+VERSION);
+    }
+    Map<String, SuffixLemmatizer> lemmatizers = new LinkedHashMap<String, SuffixLemmatizer>();
+    int nrTags = b.getInt();
+    for(int t = 0; t < nrTags; t++) {
+      String tag = readString(b);
+      int nrRules = b.getInt();
+      int[] ruleStrip = new int[nrRules];
+      String[] ruleAppend = new String[nrRules];
+      for(int r = 0; r < nrRules; r++) {
+        ruleStrip[r] = b.getInt();
+        ruleAppend[r] = readString(b);
+      }
+      int nrNodes = b.getInt();
+      char[] nodeChars = new char[nrNodes];
+      b.asCharBuffer().get(nodeChars);
+      b.position(b.position() + 2 * nrNodes);
+      int[] firstChild = new int[nrNodes + 1];
+      b.asIntBuffer().get(firstChild);
+      b.position(b.position() + 4 * (nrNodes + 1));
+      int[] nodeRules = new int[nrNodes];
+      b.asIntBuffer().get(nodeRules);
+      b.position(b.position() + 4 * nrNodes);
+      lemmatizers.put(tag, new SuffixLemmatizer(nodeChars, firstChild, nodeRules, ruleStrip, ruleAppend));
+    }
+    return lemmatizers;
+  }
+
+  private static String readString(ByteBuffer b) {
+    char[] chars = new char[b.getShort()];
+    b.asCharBuffer().get(chars);
+    b.position(b.position() + 2 * chars.length);
+    return new String(chars);
+  }
+
+  /**
+   * Write the rules for several tags into a file which can be read with
+   * {@link #read(java.io.File)}.
+   *
+   * @param lemmatizers map from tags to lemmatizers
+   * @param file the file to write
+   */
+  public static void write(Map<String, SuffixLemmatizer> lemmatizers, File file) {
+    File tmpFile = new File(file.getPath()+".tmp");
+    try {
+      DataOutputStream out = new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(tmpFile), 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(lemmatizers.size());
+      for(Map.Entry<String, SuffixLemmatizer> entry : lemmatizers.entrySet()) {
+        SuffixLemmatizer lemmatizer = entry.getValue();
+        out.writeShort(entry.getKey().length());
+        out.writeChars(entry.getKey());
+        out.writeInt(lemmatizer.ruleStrip.length);
+        for(int r = 0; r < lemmatizer.ruleStrip.length; r++) {
+          out.writeInt(lemmatizer.ruleStrip[r]);
+          out.writeShort(lemmatizer.ruleAppend[r].length());
+          out.writeChars(lemmatizer.ruleAppend[r]);
+        }
+        out.writeInt(lemmatizer.nodeChars.length);
+        for(char c : lemmatizer.nodeChars) {
+          out.writeChar(c);
+        }
+        for(int child : lemmatizer.firstChild) {
+          out.writeInt(child);
+        }
+        for(int rule : lemmatizer.nodeRules) {
+          out.writeInt(rule);
+        }
+      }
+      out.close();
+    } catch (Exception ex) {
+      tmpFile.delete();
+      throw new GateRuntimeException("Could not write suffix rules file "+file.getAbsolutePath(), ex);
+    }
+    if(file.exists() && !file.delete()) {
+      throw new GateRuntimeException("Could not replace suffix rules file "+file.getAbsolutePath());
+    }
+    if(!tmpFile.renameTo(file)) {
+      throw new GateRuntimeException("Could not rename "+tmpFile.getAbsolutePath()+" to "+file.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Report how well the rules work for the dictionaries of some languages.
+   * <p>
+   * Usage: {@code java -cp <classpath> gate.plugin.lemmatizer.SuffixLemmatizer dir...}
+   * where each directory is the dictionary directory of a language, e.g. 
+   * {@code resources/dictionaries/de}. For each dictionary, every tenth 
+   * lemma is held out with all its forms, the rules are learned from the 
+   * others and then used for the forms held out, including the lemma itself. 
+   * For each dictionary and in total, this prints how many of these forms 
+   * got a lemma (coverage), how many got the right one when the form itself
+   * is used if there is no guess (accuracy) and for comparison how many are
+   * the same as their lemma, i.e. how many would be right if the form 
+   * itself were always used, as well as the number of lookups per second.
+   * <p>
+   * Forms held out from the dictionary are not the same as the unknown 
+   * words of running text, which are often names, compounds or words of 
+   * the closed classes, so this overestimates the accuracy on real text.
+   * 
+   * @param args the dictionary directories
+   */
+  public static void main(String[] args) {
+    if(args.length == 0) {
+      System.err.println("Usage: SuffixLemmatizer dictionaryDir...");
+      System.exit(1);
+    }
+    System.out.println(String.format("%-10s %8s %6s %7s %9s %9s %9s %12s", 
+            "dictionary", "held out", "rules", "nodes", "coverage", "accuracy", "identity", "lookups/s"));
+    for(String arg : args) {
+      File dir = new File(arg);
+      long total = 0;
+      long covered = 0;
+      long correct = 0;
+      long identical = 0;
+      long lookups = 0;
+      long nanos = 0;
+      for(String tag : TAGS) {
+        List<String[]> entries = readEntries(new File(dir, tag+"-Dict.txt.gz"));
+        if(entries.isEmpty()) {
+          continue;
+        }
+        List<String[]> learnEntries = new ArrayList<String[]>();
+        List<String> forms = new ArrayList<String>();
+        List<String> lemmas = new ArrayList<String>();
+        for(int i = 0; i < entries.size(); i++) {
+          String[] entry = entries.get(i);
+          if(i % 10 == 9) {
+            boolean lemmaListed = false;
+            for(int j = 1; j < entry.length; j++) {
+              forms.add(entry[j]);
+              lemmas.add(entry[0]);
+              lemmaListed |= entry[j].equals(entry[0]);
+            }
+            if(!lemmaListed) {
+              forms.add(entry[0]);
+              lemmas.add(entry[0]);
+            }
+          } else {
+            learnEntries.add(entry);
+          }
+        }
+        SuffixLemmatizer lemmatizer = learn(learnEntries);
+        int tagCovered = 0;
+        int tagCorrect = 0;
+        int tagIdentical = 0;
+        for(int i = 0; i < forms.size(); i++) {
+          String lemma = lemmatizer.getLemma(forms.get(i));
+          if(lemma != null) {
+            tagCovered++;
+          } else {
+            lemma = forms.get(i);
+          }
+          if(lemma.equals(lemmas.get(i))) {
+            tagCorrect++;
+          }
+          if(forms.get(i).equals(lemmas.get(i))) {
+            tagIdentical++;
+          }
+        }
+        // warm up first, then time enough rounds over the held out forms 
+        // to get a stable number
+        int found = 0;
+        for(int round = 0; round < 3; round++) {
+          for(String form : forms) {
+            if(lemmatizer.getLemma(form) != null) {
+              found++;
+            }
+          }
+        }
+        int rounds = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+          for(String form : forms) {
+            if(lemmatizer.getLemma(form) != null) {
+              found++;
+            }
+          }
+          rounds++;
+          elapsed = System.nanoTime() - start;
+        } while(elapsed < 200000000L && found >= 0);
+        long tagLookups = (long) rounds * forms.size();
+        System.out.println(String.format("%-10s %8d %6d %7d %8.1f%% %8.1f%% %8.1f%% %12.0f", 
+                dir.getName()+"/"+tag, forms.size(), lemmatizer.nrRules(), lemmatizer.nrNodes(),
+                percent(tagCovered, forms.size()), percent(tagCorrect, forms.size()), 
+                percent(tagIdentical, forms.size()), tagLookups * 1e9 / elapsed));
+        total += forms.size();
+        covered += tagCovered;
+        correct += tagCorrect;
+        identical += tagIdentical;
+        lookups += tagLookups;
+        nanos += elapsed;
+      }
+      System.out.println(String.format("%-10s %8d %6s %7s %8.1f%% %8.1f%% %8.1f%% %12.0f", 
+              dir.getName(), total, "", "", percent(covered, total), percent(correct, total), 
+              percent(identical, total), nanos == 0 ? 0.0 : lookups * 1e9 / nanos));
+    }
+  }
+
+  private static double percent(long count, long total) {
+    return total == 0 ? 0.0 : 100.0 * count / total;
+  }
+
+  /**
+   * Learn the rules from a gzip-compressed text dictionary.
+   * 
+   * @param dictFile the dictionary file, with lines of the format {@code lemma===form1;form2;...}
+   * @return the lemmatizer
+   */
+  public static SuffixLemmatizer learn(File dictFile) {
+    return learn(readEntries(dictFile));
+  }
+
+  /**
+   * Learn the rules for each tag in {@link #TAGS} from the text dictionaries of a language.
+   * 
+   * @param dictDir the dictionary directory of the language
+   * @return map from the tags for which there is a dictionary to their lemmatizers
+   */
+  public static Map<String, SuffixLemmatizer> learnAll(File dictDir) {
+    Map<String, SuffixLemmatizer> lemmatizers = new LinkedHashMap<String, SuffixLemmatizer>();
+    for(String tag : TAGS) {
+      File dictFile = new File(dictDir, tag+"-Dict.txt.gz");
+      if(dictFile.exists()) {
+        lemmatizers.put(tag, learn(dictFile));
+      }
+    }
+    return lemmatizers;
+  }
+
+  /**
+   * Read the entries of a gzip-compressed text dictionary.
+   * 
+   * @param dictFile the dictionary file
+   * @return one array per line, the lemma followed by its forms
+   */
+  public static List<String[]> readEntries(File dictFile) {
+    List<String[]> entries = new ArrayList<String[]>();
+    if(!dictFile.exists()) {
+      return entries;
+    }
+    BufferedReader in = null;
+    try {
+      in = new BufferedReader(
+              new InputStreamReader(
+                      new GZIPInputStream(
+                              new FileInputStream(dictFile)), "UTF-8"));
+      String str;
+      while ((str = in.readLine()) != null) {
+        String values[] = str.split("===");
+        if (values.length == 2) {
+          String forms[] = values[1].split(";");
+          String entry[] = new String[forms.length + 1];
+          entry[0] = values[0].trim();
+          System.arraycopy(forms, 0, entry, 1, forms.length);
+          entries.add(entry);
+        }
+      }
+      in.close();
+    } catch (Exception ex) {
+      throw new GateRuntimeException("Could not read dictionary " + dictFile.getAbsolutePath(), ex);
+    }
+    return entries;
+  }
+
+  private static class Sample {
+    // the reversed, lower-cased suffix of the form
+    final String key;
+    final int rule;
+    Sample(String key, int rule) {
+      this.key = key;
+      this.rule = rule;
+    }
+  }
+
+  private static class BuildNode {
+    final char c;
+    final int rule;
+    final List<BuildNode> children = new ArrayList<BuildNode>();
+    BuildNode(char c, int rule) {
+      this.c = c;
+      this.rule = rule;
+    }
+  }
+
+  /**
+   * Learn the rules from dictionary entries.
+   * 
+   * @param entries one array per lemma, the lemma followed by its forms
+   * @return the lemmatizer
+   */
+  public static SuffixLemmatizer learn(List<String[]> entries) {
+    ObjectIntHashMap<String> ruleIds = new ObjectIntHashMap<String>();
+    IntArrayList strips = new IntArrayList();
+    List<String> appends = new ArrayList<String>();
+    List<Sample> samples = new ArrayList<Sample>();
+    for(String[] entry : entries) {
+      String lemma = entry[0];
+      String lowerLemma = CharSpan.toLowerCase(lemma);
+      if(lemma.isEmpty()) {
+        continue;
+      }
+      // the lemma itself is learned as a form too, unless it is listed anyway
+      boolean lemmaListed = false;
+      for(int i = 1; i < entry.length; i++) {
+        if(entry[i].equals(lemma)) {
+          lemmaListed = true;
+        }
+      }
+      for(int i = lemmaListed ? 1 : 0; i < entry.length; i++) {
+        String form = entry[i];
+        if(form.isEmpty()) {
+          continue;
+        }
+        String lowerForm = CharSpan.toLowerCase(form);
+        int prefix = 0;
+        int max = Math.min(lowerForm.length(), lowerLemma.length());
+        while(prefix < max && lowerForm.charAt(prefix) == lowerLemma.charAt(prefix)) {
+          prefix++;
+        }
+        int strip = form.length() - prefix;
+        if(strip > MAX_SUFFIX_LENGTH) {
+          // the rule could never be chosen by a suffix
+          continue;
+        }
+        String append = lemma.substring(prefix);
+        String ruleKey = strip + ":" + append;
+        int rule;
+        int index = ruleIds.indexOf(ruleKey);
+        if(ruleIds.indexExists(index)) {
+          rule = ruleIds.indexGet(index);
+        } else {
+          rule = strips.size();
+          strips.add(strip);
+          appends.add(append);
+          ruleIds.indexInsert(index, ruleKey, rule);
+        }
+        int keyLength = Math.min(lowerForm.length(), MAX_SUFFIX_LENGTH);
+        StringBuilder key = new StringBuilder(keyLength);
+        for(int j = 1; j <= keyLength; j++) {
+          key.append(lowerForm.charAt(lowerForm.length() - j));
+        }
+        samples.add(new Sample(key.toString(), rule));
+      }
+    }
+    Collections.sort(samples, new Comparator<Sample>() {
+      @Override
+      public int compare(Sample s1, Sample s2) {
+        return s1.key.compareTo(s2.key);
+      }
+    });
+    int[] ruleStrip = strips.toArray();
+    BuildNode root = build(samples, 0, samples.size(), 0, -1, (char) 0, ruleStrip, new IntIntHashMap());
+    // number the nodes breadth-first, so that the children of each node are consecutive
+    List<BuildNode> nodes = new ArrayList<BuildNode>();
+    IntArrayList firstChildren = new IntArrayList();
+    ArrayDeque<BuildNode> queue = new ArrayDeque<BuildNode>();
+    queue.add(root);
+    int next = 1;
+    while(!queue.isEmpty()) {
+      BuildNode node = queue.poll();
+      nodes.add(node);
+      firstChildren.add(next);
+      next += node.children.size();
+      queue.addAll(node.children);
+    }
+    firstChildren.add(next);
+    char[] nodeChars = new char[nodes.size()];
+    int[] nodeRules = new int[nodes.size()];
+    for(int i = 0; i < nodes.size(); i++) {
+      nodeChars[i] = nodes.get(i).c;
+      nodeRules[i] = nodes.get(i).rule;
+    }
+    return new SuffixLemmatizer(nodeChars, firstChildren.toArray(), nodeRules, 
+            ruleStrip, appends.toArray(new String[appends.size()]));
+  }
+
+  /**
+   * Build the subtree for the samples from index from to index to, which
+   * all share the first depth characters of their keys.
+   * 
+   * @return the node or null if it is not needed because it has the same
+   * rule as its parent and no children
+   */
+  private static BuildNode build(List<Sample> samples, int from, int to, int depth, 
+          int inherited, char c, int[] ruleStrip, IntIntHashMap counts) {
+    counts.clear();
+    int best = -1;
+    int bestCount = 0;
+    for(int i = from; i < to; i++) {
+      int rule = samples.get(i).rule;
+      // rules which remove more than the suffix cannot be used for it
+      if(ruleStrip[rule] <= depth) {
+        int count = counts.addTo(rule, 1);
+        if(count > bestCount || (count == bestCount && rule < best)) {
+          best = rule;
+          bestCount = count;
+        }
+      }
+    }
+    int rule;
+    if(to - from < MIN_SUPPORT) {
+      rule = inherited;
+    } else if(best >= 0 && bestCount * 100 >= MIN_SHARE_PERCENT * (to - from)) {
+      rule = best;
+    } else {
+      // too many of the forms with this suffix use other rules for a guess
+      rule = -1;
+    }
+    BuildNode node = new BuildNode(c, rule);
+    // samples whose key ends here come first, the others are sorted by their next character
+    int i = from;
+    while(i < to && samples.get(i).key.length() == depth) {
+      i++;
+    }
+    while(i < to) {
+      char next = samples.get(i).key.charAt(depth);
+      int j = i;
+      while(j < to && samples.get(j).key.charAt(depth) == next) {
+        j++;
+      }
+      BuildNode child = build(samples, i, j, depth + 1, rule, next, ruleStrip, counts);
+      if(child != null) {
+        node.children.add(child);
+      }
+      i = j;
+    }
+    // the nodes for the last character are always kept, so that words ending 
+    // in a character which was never seen get no lemma
+    if(depth > 1 && rule == inherited && node.children.isEmpty()) {
+      return null;
+    }
+    return node;
+  }
+
+}
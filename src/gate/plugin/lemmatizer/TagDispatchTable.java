@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resolves the POS tag of a token to everything needed to lemmatize it: 
+ * the dictionary to use, the HFST tag matcher, the suffix rules and the 
+ * status strings.
+ * <p>
+ * Each distinct tag string is resolved only once, after that finding the 
+ * entry for a tag is a single hash lookup. Instances can be used by 
+ * several threads concurrently.
+ *
+ * @author Johann Petrak
+ */
+public class TagDispatchTable {
+
+  // indices into the statuses of an entry for the possible outcomes
+  public static final int STATUS_FOUND = 0;
+  public static final int STATUS_HFST_HAVE = 1;
+  public static final int STATUS_HFST_EMPTY = 2;
+  public static final int STATUS_HFST_ERROR = 3;
+  public static final int STATUS_NOHFST = 4;
+  public static final int STATUS_SUFFIX = 5;
+
+  // do not let the table grow without limits if we get garbage tags
+  private static final int MAX_ENTRIES = 1000;
+
+  /**
+   * What to do for one tag.
+   */
+  public static class Entry {
+    /**
+     * The universal dependency tag the tag maps to.
+     */
+    public final String udTag;
+    /**
+     * The dictionary for the tag or null if there is none.
+     */
+    public final LemmaDictionary dictionary;
+    /**
+     * The HFST matcher or null if there is no HFST.
+     */
+    public final HfstLemmatizer.TagMatcher hfstMatcher;
+    /**
+     * The suffix rules for the tag or null if there are none or if the chain
+     * does not use them.
+     */
+    public final SuffixLemmatizer suffixLemmatizer;
+    /**
+     * The value of the status feature for each of the outcomes.
+     */
+    public final String[] statuses;
+    /**
+     * The statistics counters for the tag, indexed by the ordinal of 
+     * {@link LemmatizerStatistics.Path}, or null if nothing is counted.
+     */
+    final LongAdder[] counters;
+
+    Entry(String udTag, LemmaDictionary dictionary, HfstLemmatizer.TagMatcher hfstMatcher, 
+            SuffixLemmatizer suffixLemmatizer, String[] statuses, LongAdder[] counters) {
+      this.udTag = udTag;
+      this.dictionary = dictionary;
+      this.hfstMatcher = hfstMatcher;
+      this.suffixLemmatizer = suffixLemmatizer;
+      this.statuses = statuses;
+      this.counters = counters;
+    }
+  }
+
+  private final PosTagMapping mapping;
+  private final LemmatizerResources resources;
+  private final LemmatizerStatistics statistics;
+  private final ResolutionChain chain;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+  public TagDispatchTable(PosTagMapping mapping, LemmatizerResources resources) {
+    this(mapping, resources, null);
+  }
+
+  /**
+   * Create a table whose entries also carry the counters for their tag.
+   * 
+   * @param mapping the POS tag mapping
+   * @param resources the resources
+   * @param statistics the statistics to count in, may be null
+   */
+  public TagDispatchTable(PosTagMapping mapping, LemmatizerResources resources, LemmatizerStatistics statistics) {
+    this(mapping, resources, statistics, ResolutionChain.defaultFor(resources));
+  }
+
+  /**
+   * Create a table for a resolution chain. Suffix rules are only looked up
+   * (and possibly loaded) if the chain uses them.
+   * 
+   * @param mapping the POS tag mapping
+   * @param resources the resources
+   * @param statistics the statistics to count in, may be null
+   * @param chain the resolution chain
+   */
+  public TagDispatchTable(PosTagMapping mapping, LemmatizerResources resources, LemmatizerStatistics statistics,
+          ResolutionChain chain) {
+    this.mapping = mapping;
+    this.resources = resources;
+    this.statistics = statistics;
+    this.chain = chain;
+    for(String tag : LemmatizerResources.DICTIONARY_TAGS) {
+      entries.put(tag, resolve(tag));
+    }
+  }
+
+  /**
+   * Get the entry for a tag.
+   *
+   * @param tag the tag as found on the token
+   * @return the entry, never null
+   */
+  public Entry get(String tag) {
+    Entry entry = entries.get(tag);
+    if(entry == null) {
+      entry = resolve(tag);
+      if(entries.size() < MAX_ENTRIES) {
+        entries.put(tag, entry);
+      }
+    }
+    return entry;
+  }
+
+  private Entry resolve(String tag) {
+    String udTag = mapping.map(tag);
+    LemmaDictionary dict = null;
+    for(String dictTag : LemmatizerResources.DICTIONARY_TAGS) {
+      if(dictTag.equals(udTag)) {
+        dict = resources.getDictionary(dictTag);
+      }
+    }
+    HfstLemmatizer hfst = resources.getHfstLemmatizer();
+    String[] statuses;
+    HfstLemmatizer.TagMatcher matcher = null;
+    SuffixLemmatizer suffixLemmatizer = null;
+    if(dict != null) {
+      statuses = statusStrings(udTag);
+      if(chain.contains(ResolutionChain.Tier.SUFFIX)) {
+        suffixLemmatizer = resources.getSuffixLemmatizer(udTag);
+      }
+      if(hfst != null) {
+        matcher = hfst.getMatcher(udTag);
+      }
+    } else {
+      statuses = statusStrings("UNHANDLEDPOS-"+tag);
+      if(hfst != null) {
+        // the HFST may still know about tags we do not have a dictionary for 
+        // (e.g. CONJ)
+        matcher = hfst.getMatcher(udTag);
+      }
+    }
+    LongAdder[] counters = statistics == null ? null : statistics.countersFor(tag);
+    return new Entry(udTag, dict, matcher, suffixLemmatizer, statuses, counters);
+  }
+
+  private static String[] statusStrings(String prefix) {
+    return new String[] {
+      prefix + "-FOUND",
+      prefix + "-NOTFOUND-HFST_HAVE",
+      prefix + "-NOTFOUND-HFST_EMPTY",
+      prefix + "-NOTFOUND-HFST_ERROR",
+      prefix + "-NOTFOUND-NOHFST",
+      prefix + "-NOTFOUND-SUFFIX"
+    };
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the dictionaries stored as a minimal automaton, compared with
+ * the plain hash map they replace.
+ *
+ * @author Johann Petrak
+ */
+public class AutomatonLemmaDictionaryTest {
+  
+  private File resourcesDir;
+  
+  @Before
+  public void createResources() throws Exception {
+    resourcesDir = LemmatizerResourcesTest.createTestResources();
+  }
+  
+  @After
+  public void deleteResources() {
+    LemmatizerResourcesTest.delete(resourcesDir);
+  }
+  
+  /**
+   * Every form has the same lemma as in the hash map, and prefixes or 
+   * extensions of the forms are not found.
+   */
+  @Test
+  public void testSameEntriesAsHashMap() throws Exception {
+    File dictFile = LemmatizerResourcesTest.writeVerbDictionary(resourcesDir);
+    Map<String, String> expected = LemmatizerResources.loadDictionary(dictFile);
+    AutomatonLemmaDictionary dict = AutomatonLemmaDictionary.load(dictFile);
+    assertEquals(expected.size(), dict.size());
+    for(Map.Entry<String, String> entry : expected.entrySet()) {
+      assertEquals(entry.getKey(), entry.getValue(), dict.get(entry.getKey()));
+      assertEquals(entry.getKey(), entry.getValue(), dict.get(new StringBuilder(entry.getKey())));
+      String form = entry.getKey();
+      if(!expected.containsKey(form.substring(0, form.length() - 1))) {
+        assertNull(form, dict.get(form.substring(0, form.length() - 1)));
+      }
+      assertNull(form, dict.get(form+"x"));
+    }
+    assertEquals("behold", dict.get("held"));
+    assertNull(dict.get(""));
+    // the forms of all walk verbs end in the same few states
+    assertTrue("Not minimal: "+dict.nrStates()+" states", dict.nrStates() < expected.size());
+  }
+  
+  /**
+   * Lemmata which differ from the form in more than the suffix, or start 
+   * with an upper-case character, are reproduced exactly.
+   */
+  @Test
+  public void testRules() {
+    Map<String, String> form2lemma = new HashMap<String, String>();
+    form2lemma.put("haus", "Haus");
+    form2lemma.put("häuser", "Haus");
+    form2lemma.put("went", "go");
+    form2lemma.put("goes", "go");
+    form2lemma.put("go", "go");
+    AutomatonLemmaDictionary dict = AutomatonLemmaDictionary.build(form2lemma);
+    assertEquals(form2lemma.size(), dict.size());
+    for(Map.Entry<String, String> entry : form2lemma.entrySet()) {
+      assertEquals(entry.getKey(), entry.getValue(), dict.get(entry.getKey()));
+    }
+    assertNull(dict.get("g"));
+    assertNull(dict.get("häus"));
+    assertEquals(-1, dict.lookup("hau"));
+  }
+  
+  @Test
+  public void testEmpty() {
+    AutomatonLemmaDictionary dict = AutomatonLemmaDictionary.build(new HashMap<String, String>());
+    assertEquals(0, dict.size());
+    assertNull(dict.get("house"));
+    assertNull(AutomatonLemmaDictionary.EMPTY.get(""));
+  }
+  
+}
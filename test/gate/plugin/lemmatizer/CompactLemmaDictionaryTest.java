@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the dictionaries stored in a primitive hash table, compared 
+ * with the plain hash map they replace.
+ *
+ * @author Johann Petrak
+ */
+public class CompactLemmaDictionaryTest {
+  
+  private File resourcesDir;
+  
+  @Before
+  public void createResources() throws Exception {
+    resourcesDir = LemmatizerResourcesTest.createTestResources();
+  }
+  
+  @After
+  public void deleteResources() {
+    LemmatizerResourcesTest.delete(resourcesDir);
+  }
+  
+  /**
+   * Every form has the same lemma as in the hash map, also when looked up
+   * through a character sequence which is not a string, and nothing else 
+   * is found.
+   */
+  @Test
+  public void testSameEntriesAsHashMap() throws Exception {
+    File dictFile = LemmatizerResourcesTest.writeVerbDictionary(resourcesDir);
+    Map<String, String> expected = LemmatizerResources.loadDictionary(dictFile);
+    CompactLemmaDictionary dict = CompactLemmaDictionary.load(dictFile, null);
+    assertEquals(expected.size(), dict.size());
+    for(Map.Entry<String, String> entry : expected.entrySet()) {
+      assertEquals(entry.getKey(), entry.getValue(), dict.get(entry.getKey()));
+      assertEquals(entry.getKey(), entry.getValue(), dict.get(new StringBuilder(entry.getKey())));
+    }
+    assertEquals("behold", dict.get("held"));
+    assertEquals("走る", dict.get("走った"));
+    assertEquals("straßen", dict.get("strassen"));
+    assertNull(dict.get("walk1x"));
+    assertNull(dict.get("walk"));
+    assertNull(dict.get("Walk1ing"));
+    assertNull(dict.get(""));
+    // the lemma of each entry is stored once
+    assertEquals(2004, dict.nrLemmas());
+  }
+  
+  /**
+   * Dictionaries loaded with the same pool share equal lemma strings.
+   */
+  @Test
+  public void testLemmaPoolIsShared() throws Exception {
+    File nouns = new File(LemmatizerResourcesTest.dictionaryDir(resourcesDir), "NOUN-Dict.txt.gz");
+    File verbs = LemmatizerResourcesTest.writeDictionary(resourcesDir, "VERB", "house===house;housed;");
+    ConcurrentMap<String, String> pool = new ConcurrentHashMap<String, String>();
+    CompactLemmaDictionary nounDict = CompactLemmaDictionary.load(nouns, pool);
+    CompactLemmaDictionary verbDict = CompactLemmaDictionary.load(verbs, pool);
+    assertEquals("house", nounDict.get("houses"));
+    assertSame(nounDict.get("houses"), verbDict.get("housed"));
+  }
+  
+  @Test
+  public void testMissingFileIsEmpty() {
+    CompactLemmaDictionary dict = CompactLemmaDictionary.load(new File(resourcesDir, "ADJ-Dict.txt.gz"), null);
+    assertEquals(0, dict.size());
+    assertNull(dict.get("house"));
+  }
+  
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import gate.plugin.lemmatizer.bench.TestTokens;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the lemmata and statuses found for the word tokens of the test
+ * documents tests/wikinews-*.xml with the expected ones in tests/golden.
+ * <p>
+ * The engine uses the default resolution chain and no HFST cache, so this
+ * covers the dictionaries, the HFST traversal and the post-processing of
+ * the HFST analyses. If the output changes on purpose, the golden files
+ * are written again with {@code ant golden} (the main method of this class)
+ * and the differences should be reviewed before they are committed.
+ *
+ * @author Johann Petrak
+ */
+public class GoldenLemmaTest {
+
+  static final File RESOURCES_DIR = new File("resources");
+  static final File TESTS_DIR = new File("tests");
+  static final File GOLDEN_DIR = new File(TESTS_DIR, "golden");
+  static final String[] LANGUAGES = new String[] { "de", "en", "fr" };
+
+  // how many differences are shown when a test fails
+  private static final int MAX_SHOWN = 20;
+
+  @Test
+  public void testGerman() throws IOException {
+    compare("de");
+  }
+
+  @Test
+  public void testEnglish() throws IOException {
+    compare("en");
+  }
+
+  @Test
+  public void testFrench() throws IOException {
+    compare("fr");
+  }
+
+  private void compare(String language) throws IOException {
+    TestTokens tokens = readTokens(language);
+    String[][] expected = readGolden(goldenFile(language));
+    String[][] actual = lemmatize(tokens);
+    assertEquals("Number of word tokens for "+language, expected.length, actual.length);
+    StringBuilder differences = new StringBuilder();
+    int nrDifferent = 0;
+    for(int i = 0; i < actual.length; i++) {
+      if(!expected[i][0].equals(actual[i][0]) || !expected[i][1].equals(actual[i][1])) {
+        throw new AssertionError("Token "+i+" of "+language+" is "+actual[i][0]+"/"+actual[i][1]+
+                ", the golden file has "+expected[i][0]+"/"+expected[i][1]);
+      }
+      if(!expected[i][2].equals(actual[i][2]) || !expected[i][3].equals(actual[i][3])) {
+        if(++nrDifferent <= MAX_SHOWN) {
+          differences.append("\n  ").append(actual[i][0]).append("/").append(actual[i][1]).
+                  append(": expected ").append(expected[i][2]).append(" ").append(expected[i][3]).
+                  append(", got ").append(actual[i][2]).append(" ").append(actual[i][3]);
+        }
+      }
+    }
+    if(nrDifferent > 0) {
+      fail(nrDifferent+" of "+actual.length+" tokens of "+language+" differ from "+
+              goldenFile(language)+":"+differences);
+    }
+  }
+
+  /**
+   * Read the word tokens of the test document for a language.
+   *
+   * @param language the language code
+   * @return the tokens
+   * @throws IOException if there is no document or it cannot be read
+   */
+  static TestTokens readTokens(final String language) throws IOException {
+    File[] files = TESTS_DIR.listFiles();
+    if(files != null) {
+      for(File file : files) {
+        if(file.getName().startsWith("wikinews-"+language+"-") && file.getName().endsWith(".xml")) {
+          return TestTokens.readGateXml(file, language).wordsOnly();
+        }
+      }
+    }
+    throw new IOException("No test document for "+language+" in "+TESTS_DIR);
+  }
+
+  static File goldenFile(String language) {
+    return new File(GOLDEN_DIR, "wikinews-"+language+".tsv");
+  }
+
+  /**
+   * Find the lemmata and statuses of the tokens.
+   *
+   * @param tokens the tokens
+   * @return for each token the word, POS tag, lemma and status
+   */
+  static String[][] lemmatize(TestTokens tokens) {
+    LemmatizerResources resources =
+            LemmatizerResources.load(RESOURCES_DIR, tokens.language, DictionaryBackend.HASHTABLE);
+    LemmatizerEngine engine = new LemmatizerEngine(resources, PosTagMapping.UNIVERSAL, null);
+    String[] lemmas = new String[tokens.size()];
+    String[] statuses = new String[tokens.size()];
+    engine.lemmatize(tokens.words, tokens.pos, lemmas, statuses, new LemmatizerEngine.Context());
+    String[][] result = new String[tokens.size()][];
+    for(int i = 0; i < result.length; i++) {
+      result[i] = new String[] { tokens.words[i], tokens.pos[i], lemmas[i], statuses[i] };
+    }
+    return result;
+  }
+
+  static String[][] readGolden(File file) throws IOException {
+    List<String[]> lines = new ArrayList<String[]>();
+    BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try {
+      String line;
+      while((line = in.readLine()) != null) {
+        String[] fields = line.split("\t", -1);
+        if(fields.length != 4) {
+          throw new IOException("Expected 4 fields in line "+(lines.size()+1)+" of "+file+": "+line);
+        }
+        lines.add(fields);
+      }
+    } finally {
+      in.close();
+    }
+    return lines.toArray(new String[lines.size()][]);
+  }
+
+  static void writeGolden(String[][] tokens, File file) throws IOException {
+    PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try {
+      for(String[] token : tokens) {
+        out.print(token[0]+"\t"+token[1]+"\t"+token[2]+"\t"+token[3]+"\n");
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Write the golden files from the current output, for the given languages
+   * or all of them.
+   *
+   * @param args the language codes, none for all
+   * @throws IOException if a file cannot be read or written
+   */
+  public static void main(String[] args) throws IOException {
+    String[] languages = args.length > 0 ? args : LANGUAGES;
+    GOLDEN_DIR.mkdirs();
+    for(String language : languages) {
+      String[][] result = lemmatize(readTokens(language));
+      writeGolden(result, goldenFile(language));
+      System.err.println("Wrote "+result.length+" tokens to "+goldenFile(language));
+    }
+  }
+
+}
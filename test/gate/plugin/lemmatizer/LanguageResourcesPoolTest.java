@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the pool of per-language resources shared by the duplicates of the PR.
+ *
+ * @author Johann Petrak
+ */
+public class LanguageResourcesPoolTest {
+  
+  private File resourcesDir;
+  
+  @Before
+  public void createResources() throws Exception {
+    resourcesDir = LemmatizerResourcesTest.createTestResources();
+  }
+  
+  @After
+  public void deleteResources() {
+    LemmatizerResourcesTest.delete(resourcesDir);
+  }
+  
+  /**
+   * The languages stay resident while any duplicate uses the pool and 
+   * everything is released once the last duplicate released it.
+   */
+  @Test
+  public void testLastReleaseFreesResidentLanguages() {
+    ConcurrentMap<String, Object> sharedData = new ConcurrentHashMap<String, Object>();
+    LanguageResourcesPool pool1 = LanguageResourcesPool.getShared(sharedData, resourcesDir, 
+            DictionaryBackend.HASHTABLE, false, 0);
+    LanguageResourcesPool pool2 = LanguageResourcesPool.getShared(sharedData, resourcesDir, 
+            DictionaryBackend.HASHTABLE, false, 0);
+    assertSame(pool1, pool2);
+    assertEquals(2, pool1.getReferenceCount());
+    
+    LemmatizerResources res1 = pool1.acquire("xx");
+    LemmatizerResources res2 = pool2.acquire("xx");
+    assertSame(res1, res2);
+    // one reference for each duplicate and one for the pool
+    assertEquals(3, res1.getReferenceCount());
+    res1.release();
+    res2.release();
+    assertEquals(1, res1.getReferenceCount());
+    assertArrayEquals(new String[] { "xx" }, pool1.getResidentLanguages());
+    
+    pool1.release();
+    assertEquals(1, res1.getReferenceCount());
+    pool2.release();
+    assertEquals(0, res1.getReferenceCount());
+    assertEquals(0, pool2.getResidentLanguages().length);
+    assertTrue(sharedData.isEmpty());
+    
+    // a new run gets a new pool
+    LanguageResourcesPool pool3 = LanguageResourcesPool.getShared(sharedData, resourcesDir, 
+            DictionaryBackend.HASHTABLE, false, 0);
+    assertNotSame(pool1, pool3);
+    pool3.release();
+    assertTrue(sharedData.isEmpty());
+  }
+  
+  /**
+   * Pools with different settings are not shared.
+   */
+  @Test
+  public void testSettingsAreNotShared() throws Exception {
+    ConcurrentMap<String, Object> sharedData = new ConcurrentHashMap<String, Object>();
+    File otherDir = LemmatizerResourcesTest.createTestResources();
+    try {
+      LanguageResourcesPool pool = LanguageResourcesPool.getShared(sharedData, resourcesDir, 
+              DictionaryBackend.HASHTABLE, false, 0);
+      LanguageResourcesPool lazyPool = LanguageResourcesPool.getShared(sharedData, resourcesDir, 
+              DictionaryBackend.HASHTABLE, true, 0);
+      LanguageResourcesPool otherDirPool = LanguageResourcesPool.getShared(sharedData, otherDir, 
+              DictionaryBackend.HASHTABLE, false, 0);
+      assertNotSame(pool, lazyPool);
+      assertNotSame(pool, otherDirPool);
+      pool.release();
+      lazyPool.release();
+      otherDirPool.release();
+      assertTrue(sharedData.isEmpty());
+    } finally {
+      LemmatizerResourcesTest.delete(otherDir);
+    }
+  }
+  
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the bounds, the eviction and the negative entries of the 
+ * lemma cache.
+ *
+ * @author Johann Petrak
+ */
+public class LemmaCacheTest {
+  
+  @Test
+  public void testGetAndPut() {
+    LemmaCache cache = new LemmaCache(100);
+    assertNull(cache.get("en", "NOUN", "houses"));
+    cache.put("en", "NOUN", "houses", "house");
+    assertEquals("house", cache.get("en", "NOUN", "houses"));
+    // the key consists of language, tag and form
+    assertNull(cache.get("en", "VERB", "houses"));
+    assertNull(cache.get("de", "NOUN", "houses"));
+    assertEquals(1, cache.getHits());
+    assertEquals(3, cache.getMisses());
+    assertEquals(1, cache.size());
+  }
+  
+  /**
+   * A missing lemma is cached and returned as NO_LEMMA.
+   */
+  @Test
+  public void testNoLemma() {
+    LemmaCache cache = new LemmaCache(100);
+    cache.put("en", "NOUN", "xyzzy", null);
+    cache.put("en", "NOUN", "plugh", "");
+    assertSame(LemmaCache.NO_LEMMA, cache.get("en", "NOUN", "xyzzy"));
+    assertSame(LemmaCache.NO_LEMMA, cache.get("en", "NOUN", "plugh"));
+    assertEquals(2, cache.getHits());
+    assertEquals(0, cache.getMisses());
+  }
+  
+  /**
+   * The cache never holds more entries than its capacity, for capacities 
+   * which are smaller than, not a multiple of or much larger than the 
+   * number of segments.
+   */
+  @Test
+  public void testCapacityIsNotExceeded() {
+    for(int capacity : new int[] { 1, 2, 3, 7, 16, 17, 100, 1000 }) {
+      LemmaCache cache = new LemmaCache(capacity);
+      for(int i = 0; i < capacity * 20; i++) {
+        cache.put("en", "NOUN", "form"+i, "lemma"+i);
+        assertTrue(capacity+": "+cache.size(), cache.size() <= capacity);
+      }
+      // with many more entries than capacity, every segment is full
+      assertEquals(capacity, cache.size());
+    }
+  }
+  
+  /**
+   * Within a segment the least recently used entry is evicted first, and
+   * a lookup counts as a use. With capacity 32 there are 16 segments of 
+   * two entries each.
+   */
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() {
+    String[] forms = formsInSegmentOf("a", 2);
+    LemmaCache cache = new LemmaCache(32);
+    cache.put("en", "NOUN", "a", "a");
+    cache.put("en", "NOUN", forms[0], "x");
+    cache.put("en", "NOUN", forms[1], "y");
+    assertNull(cache.get("en", "NOUN", "a"));
+    assertEquals("x", cache.get("en", "NOUN", forms[0]));
+    assertEquals("y", cache.get("en", "NOUN", forms[1]));
+    
+    cache = new LemmaCache(32);
+    cache.put("en", "NOUN", "a", "a");
+    cache.put("en", "NOUN", forms[0], "x");
+    assertEquals("a", cache.get("en", "NOUN", "a"));
+    cache.put("en", "NOUN", forms[1], "y");
+    assertEquals("a", cache.get("en", "NOUN", "a"));
+    assertNull(cache.get("en", "NOUN", forms[0]));
+    assertEquals("y", cache.get("en", "NOUN", forms[1]));
+  }
+  
+  /**
+   * Find forms which go to the same segment as the given one: in a cache
+   * with one entry per segment, adding such a form evicts the other.
+   */
+  private static String[] formsInSegmentOf(String form, int n) {
+    String[] forms = new String[n];
+    int found = 0;
+    for(int i = 0; found < n; i++) {
+      LemmaCache probe = new LemmaCache(16);
+      probe.put("en", "NOUN", form, form);
+      probe.put("en", "NOUN", "x"+i, "x");
+      if(probe.get("en", "NOUN", form) == null) {
+        forms[found++] = "x"+i;
+      }
+    }
+    return forms;
+  }
+  
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for sharing the resources of a language between the duplicates of
+ * the PR.
+ *
+ * @author Johann Petrak
+ */
+public class LemmatizerResourcesTest {
+  
+  private static final int N = 16;
+  
+  private File resourcesDir;
+  
+  @Before
+  public void createResources() throws Exception {
+    resourcesDir = createTestResources();
+  }
+  
+  @After
+  public void deleteResources() {
+    delete(resourcesDir);
+  }
+  
+  /**
+   * Create a temporary resources directory with a tiny noun dictionary for 
+   * the language "xx".
+   * 
+   * @return the directory
+   * @throws Exception if it cannot be created
+   */
+  static File createTestResources() throws Exception {
+    File dir = File.createTempFile("lemmatizer-test", "");
+    dir.delete();
+    writeDictionary(dir, "NOUN", "house===house;houses;", "mouse===mouse;mice;");
+    return dir;
+  }
+  
+  /**
+   * The dictionary directory of the language "xx" in a test resources directory.
+   * 
+   * @param resourcesDir the resources directory
+   * @return the directory
+   */
+  static File dictionaryDir(File resourcesDir) {
+    return new File(new File(resourcesDir, "dictionaries"), "xx");
+  }
+  
+  /**
+   * Write a text dictionary for the language "xx".
+   * 
+   * @param resourcesDir the resources directory
+   * @param tag the universal dependency tag of the dictionary
+   * @param lines the lines, each "lemma===form;form;..."
+   * @return the dictionary file
+   * @throws Exception if it cannot be written
+   */
+  static File writeDictionary(File resourcesDir, String tag, String... lines) throws Exception {
+    File dictDir = dictionaryDir(resourcesDir);
+    dictDir.mkdirs();
+    File dictFile = new File(dictDir, tag+"-Dict.txt.gz");
+    Writer out = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(dictFile)), "UTF-8");
+    for(String line : lines) {
+      out.write(line);
+      out.write("\n");
+    }
+    out.close();
+    return dictFile;
+  }
+  
+  /**
+   * Write a verb dictionary for the language "xx" for testing the dictionary
+   * backends: many generated entries, forms in upper case, forms with 
+   * characters outside ISO-8859-1 and a form listed for two lemmata.
+   * 
+   * @param resourcesDir the resources directory
+   * @return the dictionary file
+   * @throws Exception if it cannot be written
+   */
+  static File writeVerbDictionary(File resourcesDir) throws Exception {
+    List<String> lines = new ArrayList<String>();
+    for(int i = 0; i < 2000; i++) {
+      lines.add("walk"+i+"===walk"+i+";walk"+i+"s;walk"+i+"ed;Walk"+i+"ing;");
+    }
+    lines.add("hold===hold;holds;held;");
+    lines.add("behold===behold;beheld;held;");
+    lines.add("走る===走る;走った;走って;");
+    lines.add("straßen===STRASSEN;Straßt;");
+    return writeDictionary(resourcesDir, "VERB", lines.toArray(new String[lines.size()]));
+  }
+  
+  static void delete(File file) {
+    File[] files = file.listFiles();
+    if(files != null) {
+      for(File f : files) {
+        delete(f);
+      }
+    }
+    file.delete();
+  }
+  
+  /**
+   * N duplicates acquiring the resources at the same time must all get the 
+   * same single copy, and the shared data must not hold it any more once 
+   * all of them released it.
+   */
+  @Test
+  public void testConcurrentAcquireSharesOneCopy() throws Exception {
+    final ConcurrentMap<String, Object> sharedData = new ConcurrentHashMap<String, Object>();
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(N);
+    List<Future<LemmatizerResources>> futures = new ArrayList<Future<LemmatizerResources>>();
+    try {
+      for(int i = 0; i < N; i++) {
+        futures.add(executor.submit(new Callable<LemmatizerResources>() {
+          @Override
+          public LemmatizerResources call() throws Exception {
+            start.await();
+            return LemmatizerResources.acquire(sharedData, resourcesDir, "xx", DictionaryBackend.HASHTABLE);
+          }
+        }));
+      }
+      start.countDown();
+      List<LemmatizerResources> acquired = new ArrayList<LemmatizerResources>();
+      for(Future<LemmatizerResources> future : futures) {
+        acquired.add(future.get());
+      }
+      LemmatizerResources resources = acquired.get(0);
+      for(LemmatizerResources res : acquired) {
+        assertSame(resources, res);
+      }
+      assertEquals(N, resources.getReferenceCount());
+      assertEquals(1, sharedData.size());
+      assertEquals("mouse", resources.getDictionary("NOUN").get("mice"));
+      
+      for(int i = 0; i < N - 1; i++) {
+        acquired.get(i).release();
+      }
+      assertEquals(1, resources.getReferenceCount());
+      assertEquals(1, sharedData.size());
+      acquired.get(N - 1).release();
+      assertEquals(0, resources.getReferenceCount());
+      assertTrue(sharedData.isEmpty());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+  
+  /**
+   * Once all users released the resources, acquiring them again loads a new copy.
+   */
+  @Test
+  public void testAcquireAfterReleaseLoadsAgain() throws Exception {
+    ConcurrentMap<String, Object> sharedData = new ConcurrentHashMap<String, Object>();
+    LemmatizerResources first = LemmatizerResources.acquire(sharedData, resourcesDir, "xx", DictionaryBackend.HASHTABLE);
+    first.release();
+    LemmatizerResources second = LemmatizerResources.acquire(sharedData, resourcesDir, "xx", DictionaryBackend.HASHTABLE);
+    assertNotSame(first, second);
+    assertEquals(1, second.getReferenceCount());
+    second.release();
+    assertTrue(sharedData.isEmpty());
+  }
+  
+  @Test(expected = gate.util.GateRuntimeException.class)
+  public void testReleaseTooOften() {
+    ConcurrentMap<String, Object> sharedData = new ConcurrentHashMap<String, Object>();
+    LemmatizerResources resources = LemmatizerResources.acquire(sharedData, resourcesDir, "xx", DictionaryBackend.HASHTABLE);
+    resources.release();
+    resources.release();
+  }
+  
+}
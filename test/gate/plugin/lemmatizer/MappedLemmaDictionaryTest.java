@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import gate.util.GateRuntimeException;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the compiled dictionary file and its memory mapped dictionaries.
+ *
+ * @author Johann Petrak
+ */
+public class MappedLemmaDictionaryTest {
+  
+  private File resourcesDir;
+  private File dictDir;
+  
+  @Before
+  public void createResources() throws Exception {
+    resourcesDir = LemmatizerResourcesTest.createTestResources();
+    dictDir = LemmatizerResourcesTest.dictionaryDir(resourcesDir);
+    LemmatizerResourcesTest.writeVerbDictionary(resourcesDir);
+    LemmatizerResourcesTest.writeDictionary(resourcesDir, "ADV", "fast===fast;faster;fastest;");
+  }
+  
+  @After
+  public void deleteResources() {
+    LemmatizerResourcesTest.delete(resourcesDir);
+  }
+  
+  /**
+   * Every form of every dictionary in the compiled file has the same lemma
+   * as in the hash map loaded from the text file, so the offsets of the 
+   * dictionaries and of the lemma pool are right.
+   */
+  @Test
+  public void testSameEntriesAsHashMap() throws Exception {
+    File compiled = DictionaryCompiler.compile(dictDir);
+    assertEquals(new File(dictDir, MappedLemmaDictionary.FILE_NAME), compiled);
+    Map<String, LemmaDictionary> dicts = MappedLemmaDictionary.open(compiled);
+    for(String tag : LemmatizerResources.DICTIONARY_TAGS) {
+      LemmaDictionary dict = dicts.get(tag);
+      assertNotNull(tag, dict);
+      Map<String, String> expected = 
+              LemmatizerResources.loadDictionary(new File(dictDir, tag+"-Dict.txt.gz"));
+      assertEquals(tag, expected.size(), dict.size());
+      for(Map.Entry<String, String> entry : expected.entrySet()) {
+        assertEquals(tag+" "+entry.getKey(), entry.getValue(), dict.get(entry.getKey()));
+      }
+    }
+    assertEquals("mouse", dicts.get("NOUN").get("mice"));
+    assertNull(dicts.get("NOUN").get("walk1s"));
+    assertEquals("walk1", dicts.get("VERB").get("walk1s"));
+    assertEquals("fast", dicts.get("ADV").get(new StringBuilder("fastest")));
+    assertNull(dicts.get("ADJ").get("fast"));
+  }
+  
+  @Test(expected = GateRuntimeException.class)
+  public void testOtherVersionIsRejected() throws Exception {
+    File compiled = DictionaryCompiler.compile(dictDir);
+    patchInt(compiled, 4, MappedLemmaDictionary.VERSION + 1);
+    MappedLemmaDictionary.open(compiled);
+  }
+  
+  @Test(expected = GateRuntimeException.class)
+  public void testOtherFileIsRejected() throws Exception {
+    File compiled = DictionaryCompiler.compile(dictDir);
+    patchInt(compiled, 0, 0);
+    MappedLemmaDictionary.open(compiled);
+  }
+  
+  private static void patchInt(File file, long position, int value) throws Exception {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(position);
+      raf.writeInt(value);
+    } finally {
+      raf.close();
+    }
+  }
+  
+}
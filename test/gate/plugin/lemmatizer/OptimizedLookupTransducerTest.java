@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import fi.seco.hfst.Transducer.Result;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the search of weighted transducers, which no model shipped
+ * with the plugin has: small transducers are built in memory in the HFST
+ * optimized-lookup format.
+ *
+ * @author Johann Petrak
+ */
+public class OptimizedLookupTransducerTest {
+
+  // epsilon and the input symbols a and b, then the output-only symbols
+  private static final String[] SYMBOLS = new String[] { "@_EPSILON_SYMBOL_@", "a", "b", "+N", "+V", "x" };
+  private static final int NR_INPUT_SYMBOLS = 3;
+
+  private static final int NO_SYMBOL = 0xffff;
+  private static final int NO_TABLE_INDEX = 0xffffffff;
+  private static final int TRANSITION_TARGET_TABLE_START = 0x80000000;
+
+  /**
+   * A transducer under construction, every state is put into the index table.
+   */
+  static class Builder {
+    final List<List<float[]>> transitions = new ArrayList<List<float[]>>();
+    final List<Float> finalWeights = new ArrayList<Float>();
+
+    int state(Float finalWeight) {
+      transitions.add(new ArrayList<float[]>());
+      finalWeights.add(finalWeight);
+      return transitions.size() - 1;
+    }
+
+    Builder transition(int from, int input, int output, int to, float weight) {
+      transitions.get(from).add(new float[] { input, output, to, weight });
+      return this;
+    }
+
+    OptimizedLookupTransducer build() throws Exception {
+      int stateSize = 1 + NR_INPUT_SYMBOLS;
+      int nrStates = transitions.size();
+      // the transitions of each state grouped by input symbol, each group 
+      // ends with an entry which matches nothing
+      List<int[]> table = new ArrayList<int[]>();
+      int[][] firstTransition = new int[nrStates][NR_INPUT_SYMBOLS];
+      for(int s = 0; s < nrStates; s++) {
+        for(int input = 0; input < NR_INPUT_SYMBOLS; input++) {
+          firstTransition[s][input] = -1;
+          for(float[] t : transitions.get(s)) {
+            if((int) t[0] == input) {
+              if(firstTransition[s][input] < 0) {
+                firstTransition[s][input] = table.size();
+              }
+              table.add(new int[] { input, (int) t[1], (int) t[2] * stateSize, Float.floatToIntBits(t[3]) });
+            }
+          }
+          if(firstTransition[s][input] >= 0) {
+            table.add(new int[] { NO_SYMBOL, NO_SYMBOL, NO_TABLE_INDEX, 0 });
+          }
+        }
+      }
+      ByteArrayBuilder out = new ByteArrayBuilder();
+      out.putShort(NR_INPUT_SYMBOLS);
+      out.putShort(SYMBOLS.length);
+      out.putInt(nrStates * stateSize);
+      out.putInt(table.size());
+      out.putInt(nrStates);
+      out.putInt(table.size());
+      // weighted, then the other properties
+      out.putInt(1);
+      for(int i = 0; i < 8; i++) {
+        out.putInt(0);
+      }
+      for(String symbol : SYMBOLS) {
+        out.put(symbol.getBytes(StandardCharsets.UTF_8));
+        out.put(new byte[] { 0 });
+      }
+      for(int s = 0; s < nrStates; s++) {
+        Float finalWeight = finalWeights.get(s);
+        out.putShort(NO_SYMBOL);
+        out.putInt(finalWeight == null ? NO_TABLE_INDEX : Float.floatToIntBits(finalWeight));
+        for(int input = 0; input < NR_INPUT_SYMBOLS; input++) {
+          if(firstTransition[s][input] >= 0) {
+            out.putShort(input);
+            out.putInt(TRANSITION_TARGET_TABLE_START + firstTransition[s][input]);
+          } else {
+            out.putShort(NO_SYMBOL);
+            out.putInt(NO_TABLE_INDEX);
+          }
+        }
+      }
+      for(int[] t : table) {
+        out.putShort(t[0]);
+        out.putShort(t[1]);
+        out.putInt(t[2]);
+        out.putInt(t[3]);
+      }
+      return OptimizedLookupTransducer.read(out.toBuffer());
+    }
+  }
+
+  static class ByteArrayBuilder {
+    ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    void putShort(int value) {
+      buffer.putShort((short) value);
+    }
+    void putInt(int value) {
+      buffer.putInt(value);
+    }
+    void put(byte[] bytes) {
+      buffer.put(bytes);
+    }
+    ByteBuffer toBuffer() {
+      return ByteBuffer.wrap(buffer.array(), 0, buffer.position());
+    }
+  }
+
+  /**
+   * The analysis which findAnalysis should return according to its 
+   * documentation: the lowest weight, then the smallest string.
+   */
+  private static String expected(OptimizedLookupTransducer transducer, String word, String contains) {
+    String best = null;
+    float bestWeight = 0f;
+    for(Result result : transducer.analyze(word)) {
+      StringBuilder sb = new StringBuilder();
+      for(String symbol : result.getSymbols()) {
+        sb.append(symbol);
+      }
+      String analysis = sb.toString();
+      if(!analysis.contains(contains)) {
+        continue;
+      }
+      if(best == null || result.getWeight() < bestWeight || 
+              (result.getWeight() == bestWeight && analysis.compareTo(best) < 0)) {
+        best = analysis;
+        bestWeight = result.getWeight();
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Of two analyses with the same weight, the smaller string is used even 
+   * though the best-first search creates the other one first.
+   */
+  @Test
+  public void testTieIsBrokenByString() throws Exception {
+    Builder b = new Builder();
+    int start = b.state(null);
+    int s1 = b.state(null);
+    int s2 = b.state(null);
+    int s3 = b.state(null);
+    int end = b.state(0f);
+    // a:a x +N with weights 0, 0, 2 comes first, a:a +V with weights 1, 1 
+    // has the same weight and a:a +V +N is heavier
+    b.transition(start, 1, 1, s1, 0f).transition(start, 1, 1, s2, 1f);
+    b.transition(s1, 0, 5, s3, 0f).transition(s3, 0, 3, end, 2f);
+    b.transition(s2, 0, 4, end, 1f).transition(s2, 0, 4, s3, 0f);
+    OptimizedLookupTransducer transducer = b.build();
+    assertTrue(transducer.isWeighted());
+    assertEquals("a+V", transducer.findAnalysis("a", "", HfstSearchLimits.UNLIMITED));
+    assertEquals("a+V", expected(transducer, "a", ""));
+    assertEquals("ax+N", transducer.findAnalysis("a", "+N", HfstSearchLimits.UNLIMITED));
+    assertNull(transducer.findAnalysis("b", "", HfstSearchLimits.UNLIMITED));
+  }
+
+  /**
+   * The best-first search finds the same analysis as choosing among all
+   * analyses, for random acyclic transducers with integer weights, which 
+   * have many ties.
+   */
+  @Test
+  public void testSearchAgreesWithAllAnalyses() throws Exception {
+    Random random = new Random(42);
+    String[] words = new String[] { "a", "b", "aa", "ab", "ba", "bb", "aab", "aba", "abb", "bab" };
+    int compared = 0;
+    for(int round = 0; round < 200; round++) {
+      Builder b = new Builder();
+      int nrStates = 8;
+      for(int s = 0; s < nrStates; s++) {
+        b.state(random.nextInt(3) == 0 ? Float.valueOf(random.nextInt(3)) : null);
+      }
+      for(int s = 0; s < nrStates - 1; s++) {
+        int n = random.nextInt(4);
+        for(int i = 0; i < n; i++) {
+          int input = random.nextInt(NR_INPUT_SYMBOLS);
+          int output = input == 0 ? random.nextInt(SYMBOLS.length) : 
+                  (random.nextBoolean() ? input : 3 + random.nextInt(3));
+          int to = s + 1 + random.nextInt(nrStates - s - 1);
+          b.transition(s, input, output, to, random.nextInt(3));
+        }
+      }
+      OptimizedLookupTransducer transducer = b.build();
+      for(String word : words) {
+        for(String contains : new String[] { "", "+N" }) {
+          String expected = expected(transducer, word, contains);
+          assertEquals("round "+round+" word "+word+" contains "+contains, expected,
+                  transducer.findAnalysis(word, contains, HfstSearchLimits.UNLIMITED));
+          if(expected != null) {
+            compared++;
+          }
+        }
+      }
+    }
+    assertTrue(compared > 100);
+  }
+
+  /**
+   * A word which is not searched at all does not report the cut-off of 
+   * the previous search.
+   */
+  @Test
+  public void testNoSearchIsNotCutOff() throws Exception {
+    Builder b = new Builder();
+    int start = b.state(null);
+    int s1 = b.state(0f);
+    int end = b.state(0f);
+    b.transition(start, 1, 1, s1, 0f).transition(s1, 0, 3, end, 0f);
+    HfstLemmatizer lemmatizer = new HfstLemmatizer(b.build(), "en");
+    HfstSearchLimits limits = new HfstSearchLimits(1, 0);
+    HfstLemmatizer.TagMatcher noun = lemmatizer.getMatcher("NOUN");
+    assertTrue(noun.canMatch());
+    lemmatizer.findAnalysis("a", noun, limits);
+    assertTrue(lemmatizer.wasCutOff());
+    HfstLemmatizer.TagMatcher propn = lemmatizer.getMatcher("PROPN");
+    assertFalse(propn.canMatch());
+    assertNull(lemmatizer.findAnalysis("a", propn, limits));
+    assertFalse(lemmatizer.wasCutOff());
+  }
+
+}
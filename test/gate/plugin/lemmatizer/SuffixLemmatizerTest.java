@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015-2016 The University of Sheffield.
+ *
+ * This file is part of gateplugin-Lemmatizer
+ * (see https://github.com/GateNLP/gateplugin-Lemmatizer)
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software. If not, see <http://www.gnu.org/licenses/>.
+ */
+package gate.plugin.lemmatizer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for learning, applying, writing and reading the suffix rules.
+ *
+ * @author Johann Petrak
+ */
+public class SuffixLemmatizerTest {
+  
+  private File resourcesDir;
+  private File dictDir;
+  
+  @Before
+  public void createResources() throws Exception {
+    resourcesDir = LemmatizerResourcesTest.createTestResources();
+    dictDir = LemmatizerResourcesTest.dictionaryDir(resourcesDir);
+  }
+  
+  @After
+  public void deleteResources() {
+    LemmatizerResourcesTest.delete(resourcesDir);
+  }
+  
+  private static List<String[]> entries(String... lines) {
+    List<String[]> entries = new ArrayList<String[]>();
+    for(String line : lines) {
+      entries.add(line.split(" "));
+    }
+    return entries;
+  }
+  
+  @Test
+  public void testLearnedRules() {
+    SuffixLemmatizer lemmatizer = SuffixLemmatizer.learn(entries(
+            "car cars", "bar bars", "jar jars"));
+    // lemmata are learned as forms of themselves
+    assertEquals("car", lemmatizer.getLemma("car"));
+    assertEquals("star", lemmatizer.getLemma("star"));
+    assertEquals("star", lemmatizer.getLemma("stars"));
+    // the rule is chosen ignoring case, the kept part keeps its case
+    assertEquals("Star", lemmatizer.getLemma("Stars"));
+    assertEquals("STAR", lemmatizer.getLemma(new StringBuilder("STARS")));
+    // no suffix with a rule
+    assertNull(lemmatizer.getLemma("xyz"));
+    // at least one character of the word is kept
+    assertNull(lemmatizer.getLemma("s"));
+  }
+  
+  /**
+   * A suffix whose forms do not mostly agree on a rule gives no guess, 
+   * a longer suffix whose forms agree does.
+   */
+  @Test
+  public void testNoGuessWithoutMajority() {
+    SuffixLemmatizer lemmatizer = SuffixLemmatizer.learn(entries(
+            "car cars", "bar bars", "jar jars", "bus", "gas", "yes"));
+    assertNull(lemmatizer.getLemma("foos"));
+    assertEquals("star", lemmatizer.getLemma("stars"));
+  }
+  
+  /**
+   * Rules are only learned for the open word classes, and the rules read 
+   * from the written file give the same lemmata as the learned ones.
+   */
+  @Test
+  public void testWriteAndRead() throws Exception {
+    LemmatizerResourcesTest.writeVerbDictionary(resourcesDir);
+    LemmatizerResourcesTest.writeDictionary(resourcesDir, "ADP", "on===on;", "in===in;");
+    Map<String, SuffixLemmatizer> learned = SuffixLemmatizer.learnAll(dictDir);
+    assertEquals(Arrays.asList("NOUN", "VERB"), new ArrayList<String>(learned.keySet()));
+    File file = new File(dictDir, SuffixLemmatizer.FILE_NAME);
+    SuffixLemmatizer.write(learned, file);
+    Map<String, SuffixLemmatizer> read = SuffixLemmatizer.read(file);
+    assertEquals(learned.keySet(), read.keySet());
+    List<String> words = new ArrayList<String>(Arrays.asList(
+            "walking", "talked", "Talks", "stalls", "xyz", "houses", "spouses", "mice", ""));
+    for(String tag : learned.keySet()) {
+      for(String[] entry : SuffixLemmatizer.readEntries(new File(dictDir, tag+"-Dict.txt.gz"))) {
+        words.addAll(Arrays.asList(entry));
+      }
+    }
+    for(String tag : learned.keySet()) {
+      assertEquals(tag, learned.get(tag).nrRules(), read.get(tag).nrRules());
+      for(String word : words) {
+        assertEquals(tag+" "+word, learned.get(tag).getLemma(word), read.get(tag).getLemma(word));
+      }
+    }
+    assertEquals("talk", read.get("VERB").getLemma("talked"));
+  }
+  
+  @Test(expected = IOException.class)
+  public void testOtherVersionIsRejected() throws IOException {
+    File file = new File(dictDir, SuffixLemmatizer.FILE_NAME);
+    SuffixLemmatizer.write(SuffixLemmatizer.learnAll(dictDir), file);
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.seek(4);
+      raf.writeInt(SuffixLemmatizer.VERSION - 1);
+    } finally {
+      raf.close();
+    }
+    SuffixLemmatizer.read(file);
+  }
+  
+}